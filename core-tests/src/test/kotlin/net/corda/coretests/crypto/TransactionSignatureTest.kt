@@ -126,6 +126,23 @@ class TransactionSignatureTest {
         assertFailsWith<SignatureException> { Crypto.doVerify(txId.sha256(), txSignature) }
     }
 
+    @Test(timeout=300_000)
+    fun `Verify batch of signatures`() {
+        val txId = "aTransaction".toByteArray().sha256()
+        // Enough signers for the batch to be verified in parallel, using a mix of signature schemes.
+        val signatures = (1..20).map {
+            val scheme = if (it % 2 == 0) Crypto.EDDSA_ED25519_SHA512 else Crypto.ECDSA_SECP256R1_SHA256
+            signOneTx(txId, Crypto.generateKeyPair(scheme))
+        }
+        assertTrue(Crypto.doVerify(txId, signatures))
+        assertTrue(Crypto.doVerify(txId, signatures.take(3)))
+        assertTrue(Crypto.doVerify(txId, emptyList()))
+
+        val otherTxSignature = signOneTx(txId.sha256(), Crypto.generateKeyPair())
+        assertFailsWith<SignatureException> { Crypto.doVerify(txId, signatures + otherTxSignature) }
+        assertFailsWith<SignatureException> { Crypto.doVerify(txId, signatures.take(3) + otherTxSignature) }
+    }
+
     // Returns a TransactionSignature over the Merkle root, but the partial tree is null.
     private fun signMultipleTx(txIds: List<SecureHash>, keyPair: KeyPair): TransactionSignature {
         val merkleTreeRoot = MerkleTree.getMerkleTree(txIds.map { it.sha256() }).hash
@@ -60,6 +60,8 @@ import java.security.interfaces.EdECPublicKey
 import java.security.spec.InvalidKeySpecException
 import java.security.spec.PKCS8EncodedKeySpec
 import java.security.spec.X509EncodedKeySpec
+import java.util.function.IntConsumer
+import java.util.stream.IntStream
 import javax.crypto.Mac
 import javax.crypto.spec.SecretKeySpec
 
@@ -164,6 +166,9 @@ object Crypto {
             "Composite keys composed from individual public keys"
     )
 
+    /** Below this number of signatures a batch is verified on the calling thread, as it is not worth the cost of forking. */
+    private const val PARALLEL_VERIFICATION_THRESHOLD = 8
+
     /** Our default signature scheme if no algorithm is specified (e.g. for key generation). */
     @JvmField
     val DEFAULT_SIGNATURE_SCHEME = EDDSA_ED25519_SHA512
@@ -573,6 +578,33 @@ object Crypto {
         return doVerify(transactionSignature.by, transactionSignature.bytes, signableData.serialize().bytes)
     }
 
+    /**
+     * Verifies a batch of [TransactionSignature]s over the same transaction, such as the signatures of a multi-party transaction.
+     * Larger batches are verified in parallel on the common fork-join pool.
+     * It returns true if all the signatures are valid, but it always throws an exception if any of them fails verification.
+     * @param txId transaction's id.
+     * @param transactionSignatures the signatures on the transaction.
+     * @return true if verification passes or throw exception if verification fails.
+     * @throws InvalidKeyException if any of the keys is invalid.
+     * @throws SignatureException if any of the signatures fails verification, see [doVerify].
+     * @throws IllegalArgumentException if a signature scheme is not supported or if any of the clear or signature data is empty.
+     */
+    @JvmStatic
+    @Throws(InvalidKeyException::class, SignatureException::class)
+    fun doVerify(txId: SecureHash, transactionSignatures: List<TransactionSignature>): Boolean {
+        // The signed data is serialised up front, as the serialization environment may not be available to the pool's threads.
+        val clearData = transactionSignatures.map {
+            SignableData(originalSignedHash(txId, it.partialMerkleTree), it.signatureMetadata).serialize().bytes
+        }
+        val verify = IntConsumer { i -> doVerify(transactionSignatures[i].by, transactionSignatures[i].bytes, clearData[i]) }
+        if (transactionSignatures.size < PARALLEL_VERIFICATION_THRESHOLD) {
+            transactionSignatures.indices.forEach(verify::accept)
+        } else {
+            IntStream.range(0, transactionSignatures.size).parallel().forEach(verify)
+        }
+        return true
+    }
+
     /**
      * Utility to simplify the act of verifying a digital signature by identifying the signature scheme used from the
      * input public key's type.
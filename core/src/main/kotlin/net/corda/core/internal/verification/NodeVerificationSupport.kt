@@ -13,6 +13,7 @@ import net.corda.core.internal.cordapp.CordappProviderInternal
 import net.corda.core.internal.entries
 import net.corda.core.internal.getRequiredGroup
 import net.corda.core.internal.getRequiredTransaction
+import net.corda.core.internal.mapToSet
 import net.corda.core.node.NetworkParameters
 import net.corda.core.node.services.AttachmentStorage
 import net.corda.core.node.services.IdentityService
@@ -28,10 +29,12 @@ import net.corda.core.serialization.deserialize
 import net.corda.core.serialization.internal.AttachmentsClassLoaderBuilder
 import net.corda.core.serialization.serialize
 import net.corda.core.transactions.ContractUpgradeLedgerTransaction
+import net.corda.core.transactions.CoreTransaction
 import net.corda.core.transactions.ContractUpgradeWireTransaction
 import net.corda.core.transactions.MissingContractAttachments
 import net.corda.core.transactions.NotaryChangeLedgerTransaction
 import net.corda.core.transactions.NotaryChangeWireTransaction
+import net.corda.core.transactions.SignedTransaction
 import net.corda.core.transactions.WireTransaction
 import java.security.PublicKey
 
@@ -55,6 +58,12 @@ interface NodeVerificationSupport : VerificationSupport {
 
     val externalVerifierHandle: ExternalVerifierHandle
 
+    /** Used to skip re-verifying transaction signatures which have already been verified, if present. */
+    val verifiedSignatureCache: VerifiedSignatureCache? get() = null
+
+    /** Used to skip deserializing output states which have already been loaded, if present. */
+    val transactionStateCache: TransactionStateCache? get() = null
+
     override val appClassLoader: ClassLoader
         get() = cordappProvider.appClassLoader
 
@@ -74,7 +83,27 @@ interface NodeVerificationSupport : VerificationSupport {
      * correct classloader independent of the node's classpath.
      */
     override fun getSerializedState(stateRef: StateRef): SerializedTransactionState {
-        val coreTransaction = validatedTransactions.getRequiredTransaction(stateRef.txhash).coreTransaction
+        return getSerializedState(stateRef, validatedTransactions.getRequiredTransaction(stateRef.txhash).coreTransaction)
+    }
+
+    /**
+     * Returns the binary representation of each of the [stateRefs], in the same way as [getSerializedState] but loading the transactions
+     * which contain them together.
+     */
+    fun getSerializedStates(stateRefs: List<StateRef>): List<SerializedTransactionState> {
+        val transactions = getRequiredTransactions(stateRefs.mapToSet { it.txhash })
+        return stateRefs.map { getSerializedState(it, transactions.getValue(it.txhash).coreTransaction) }
+    }
+
+    /**
+     * Returns the transactions with the given [ids], throwing [TransactionResolutionException] if any of them are missing. Implementations
+     * may override this to load the transactions in bulk.
+     */
+    fun getRequiredTransactions(ids: Set<SecureHash>): Map<SecureHash, SignedTransaction> {
+        return ids.associateWith(validatedTransactions::getRequiredTransaction)
+    }
+
+    private fun getSerializedState(stateRef: StateRef, coreTransaction: CoreTransaction): SerializedTransactionState {
         return when (coreTransaction) {
             is WireTransaction -> getRegularOutput(coreTransaction, stateRef.index)
             is ContractUpgradeWireTransaction -> getContractUpdateOutput(coreTransaction, stateRef.index)
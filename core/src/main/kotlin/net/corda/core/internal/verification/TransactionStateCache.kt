@@ -0,0 +1,18 @@
+package net.corda.core.internal.verification
+
+import net.corda.core.contracts.ContractState
+import net.corda.core.contracts.StateRef
+import net.corda.core.contracts.TransactionState
+
+/**
+ * Holds output states which have already been deserialized with the default serialization context, so that frequently loaded states
+ * are not deserialized again each time. As transaction outputs are immutable, entries never need invalidating.
+ */
+interface TransactionStateCache {
+    fun getIfPresent(stateRef: StateRef): TransactionState<ContractState>?
+
+    /**
+     * Add [state], which was deserialized from [serializedSize] bytes, to the cache.
+     */
+    fun put(stateRef: StateRef, state: TransactionState<ContractState>, serializedSize: Int)
+}
@@ -0,0 +1,19 @@
+package net.corda.core.internal.verification
+
+import net.corda.core.crypto.Crypto
+import net.corda.core.crypto.SecureHash
+import net.corda.core.crypto.TransactionSignature
+import java.security.InvalidKeyException
+import java.security.SignatureException
+
+/**
+ * Remembers which transaction signatures have already been found to be valid, so that the same [TransactionSignature] is not
+ * cryptographically verified again each time its transaction is checked.
+ */
+interface VerifiedSignatureCache {
+    /**
+     * Verifies [signatures] over [txId] in the same way as [Crypto.doVerify], skipping any which have already been verified.
+     */
+    @Throws(InvalidKeyException::class, SignatureException::class)
+    fun verify(txId: SecureHash, signatures: List<TransactionSignature>)
+}
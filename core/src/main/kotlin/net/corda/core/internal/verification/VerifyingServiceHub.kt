@@ -11,10 +11,13 @@ import net.corda.core.crypto.SecureHash
 import net.corda.core.internal.getRequiredTransaction
 import net.corda.core.node.ServiceHub
 import net.corda.core.node.ServicesForResolution
+import net.corda.core.serialization.SerializationFactory
 import net.corda.core.serialization.deserialize
 import net.corda.core.transactions.ContractUpgradeWireTransaction
 import net.corda.core.transactions.NotaryChangeWireTransaction
 import net.corda.core.transactions.WireTransaction
+import java.util.function.IntConsumer
+import java.util.stream.IntStream
 
 @Suppress("TooManyFunctions", "ThrowsCount")
 interface VerifyingServiceHub : ServiceHub, NodeVerificationSupport {
@@ -51,15 +54,56 @@ interface VerifyingServiceHub : ServiceHub, NodeVerificationSupport {
         return attachments.openAttachment(id)?.takeIf { it is ContractAttachment && contractClassName in it.allContracts }
     }
 
-    override fun loadState(stateRef: StateRef): TransactionState<*> = getSerializedState(stateRef).deserialize()
+    override fun loadState(stateRef: StateRef): TransactionState<*> {
+        return loadStatesInternal<ContractState, MutableList<StateAndRef<ContractState>>>(listOf(stateRef), ArrayList(1)).single().state
+    }
 
     override fun loadStates(stateRefs: Set<StateRef>): Set<StateAndRef<ContractState>> = loadStatesInternal(stateRefs, LinkedHashSet())
 
+    /**
+     * Loads the states for [input] into [output], in order. States are taken from the [transactionStateCache] where possible. The
+     * transactions containing the remaining states are loaded together, and larger numbers of states are deserialized in parallel.
+     */
     fun <T : ContractState, C : MutableCollection<StateAndRef<T>>> loadStatesInternal(input: Iterable<StateRef>, output: C): C {
-        return input.mapTo(output, ::toStateAndRef)
+        val stateRefs = input.toList()
+        // The factory and context are captured here as the pool's threads may not have the serialization environment available.
+        val factory = SerializationFactory.defaultFactory
+        val context = factory.defaultContext
+        // Cached states were deserialized with the default context, so cannot be used while another context is in effect.
+        val stateCache = transactionStateCache?.takeIf { factory.currentContext == null }
+        val states = arrayOfNulls<TransactionState<ContractState>>(stateRefs.size)
+        val missing = ArrayList<Int>()
+        for (i in stateRefs.indices) {
+            states[i] = stateCache?.getIfPresent(stateRefs[i])
+            if (states[i] == null) {
+                missing += i
+            }
+        }
+        if (missing.isNotEmpty()) {
+            val serializedStates = if (missing.size == 1) {
+                listOf(getSerializedState(stateRefs[missing[0]]))
+            } else {
+                getSerializedStates(missing.map(stateRefs::get))
+            }
+            val deserialize = IntConsumer { j ->
+                val state = serializedStates[j].deserialize(factory, context)
+                stateCache?.put(stateRefs[missing[j]], state, serializedStates[j].size)
+                states[missing[j]] = state
+            }
+            if (missing.size < PARALLEL_DESERIALIZATION_THRESHOLD) {
+                missing.indices.forEach(deserialize::accept)
+            } else {
+                IntStream.range(0, missing.size).parallel().forEach(deserialize)
+            }
+        }
+        @Suppress("UNCHECKED_CAST")
+        return stateRefs.indices.mapTo(output) { i -> StateAndRef(states[i] as TransactionState<T>, stateRefs[i]) }
     }
 }
 
+/** Below this number of states, loaded states are deserialized on the calling thread as it is not worth the cost of forking. */
+private const val PARALLEL_DESERIALIZATION_THRESHOLD = 16
+
 fun ServicesForResolution.toVerifyingServiceHub(): VerifyingServiceHub {
     if (this is VerifyingServiceHub) {
         return this
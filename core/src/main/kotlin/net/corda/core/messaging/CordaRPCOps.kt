@@ -185,6 +185,21 @@ interface CordaRPCOps : RPCOps {
     fun <T : ContractState> vaultTrackByWithSorting(contractStateType: Class<out T>, criteria: QueryCriteria, sorting: Sort): DataFeed<Vault.Page<T>, Vault.Update<T>>
     // DOCEND VaultTrackAPIHelpers
 
+    /**
+     * Returns all the vault states for a given query criteria (and optional order), as an [Observable] of [Vault.Page]s of up to
+     * [pageSize] states each.
+     *
+     * The states are sent as they are read from a single query on the node's database, rather than requiring a separate query for
+     * each page, and so this is the preferred way of retrieving large numbers of states. The observable completes after the last page.
+     *
+     * Notes: the pages do not include the total number of states available, and aggregate function queries cannot be streamed.
+     */
+    @RPCReturnsObservables
+    fun <T : ContractState> vaultStreamBy(criteria: QueryCriteria,
+                                          sorting: Sort,
+                                          pageSize: Int,
+                                          contractStateType: Class<out T>): Observable<Vault.Page<T>>
+
     /**
      * @suppress Returns a list of all recorded transactions.
      *
@@ -552,6 +567,12 @@ inline fun <reified T : ContractState> CordaRPCOps.vaultTrackBy(criteria: QueryC
     return vaultTrackBy(criteria, paging, sorting, T::class.java)
 }
 
+inline fun <reified T : ContractState> CordaRPCOps.vaultStreamBy(criteria: QueryCriteria = QueryCriteria.VaultQueryCriteria(),
+                                                                 sorting: Sort = Sort(emptySet()),
+                                                                 pageSize: Int = DEFAULT_PAGE_SIZE): Observable<Vault.Page<T>> {
+    return vaultStreamBy(criteria, sorting, pageSize, T::class.java)
+}
+
 // Note that the passed in constructor function is only used for unification of other type parameters and reification of
 // the Class instance of the flow. This could be changed to use the constructor function directly.
 
@@ -44,6 +44,7 @@ import net.corda.core.utilities.toHexString
 import rx.Observable
 import java.time.Instant
 import java.util.*
+import java.util.stream.Stream
 
 /**
  * A vault (name may be temporary) wraps a set of states that are useful for us to keep track of, for instance,
@@ -473,9 +474,10 @@ interface VaultService {
      *
      * Notes:
      *    - The snapshot part of the query adheres to the same behaviour as the [queryBy] function.
-     *    - The update part of the query currently only supports query criteria filtering by contract
-     *      type(s) and state status(es). CID-731 <https://r3-cev.atlassian.net/browse/CID-731> proposes
-     *      adding the complete set of [QueryCriteria] filtering.
+     *    - The update part of the query filters by contract type(s) and state status(es), and removes the states
+     *      which the vault, linear state, fungible state and custom column criteria rule out. Criteria which cannot
+     *      be evaluated against a state on its own, such as soft locking, time conditions and relevancy, are not
+     *      applied to the updates, so updates may still contain states the snapshot query would not return.
      */
     @Throws(VaultQueryException::class)
     fun <T : ContractState> _trackBy(criteria: QueryCriteria,
@@ -484,6 +486,23 @@ interface VaultService {
                                      contractStateType: Class<out T>): DataFeed<Vault.Page<T>, Vault.Update<T>>
     // DOCEND VaultQueryAPI
 
+    /**
+     * Generic vault query function which takes a [QueryCriteria] object to define filters and optional [Sort] modification criteria
+     * (default unsorted), and returns all the matching states as a [Stream]. Unlike [queryBy], the results are not split into pages:
+     * the states are read from the database, and loaded, in batches as the stream is consumed, so that only a bounded number of them
+     * are held in memory at any one time.
+     *
+     * @throws VaultQueryException if the query cannot be executed for any reason.
+     *
+     * Notes:
+     *    - The stream must be consumed, and then closed, within the database transaction in which it was created.
+     *    - Aggregate function queries cannot be streamed.
+     */
+    @Throws(VaultQueryException::class)
+    fun <T : ContractState> _streamBy(criteria: QueryCriteria,
+                                      sorting: Sort,
+                                      contractStateType: Class<out T>): Stream<StateAndRef<T>>
+
     // Note: cannot apply @JvmOverloads to interfaces nor interface implementations.
     // Java Helpers.
     fun <T : ContractState> queryBy(contractStateType: Class<out T>): Vault.Page<T> {
@@ -533,6 +552,14 @@ interface VaultService {
     fun <T : ContractState> trackBy(contractStateType: Class<out T>, criteria: QueryCriteria, paging: PageSpecification, sorting: Sort): DataFeed<Vault.Page<T>, Vault.Update<T>> {
         return _trackBy(criteria, paging, sorting, contractStateType)
     }
+
+    fun <T : ContractState> streamBy(contractStateType: Class<out T>, criteria: QueryCriteria): Stream<StateAndRef<T>> {
+        return _streamBy(criteria, Sort(emptySet()), contractStateType)
+    }
+
+    fun <T : ContractState> streamBy(contractStateType: Class<out T>, criteria: QueryCriteria, sorting: Sort): Stream<StateAndRef<T>> {
+        return _streamBy(criteria, sorting, contractStateType)
+    }
 }
 
 inline fun <reified T : ContractState> VaultService.queryBy(): Vault.Page<T> {
@@ -583,6 +610,14 @@ inline fun <reified T : ContractState> VaultService.trackBy(criteria: QueryCrite
     return _trackBy(criteria, paging, sorting, T::class.java)
 }
 
+inline fun <reified T : ContractState> VaultService.streamBy(criteria: QueryCriteria): Stream<StateAndRef<T>> {
+    return _streamBy(criteria, Sort(emptySet()), T::class.java)
+}
+
+inline fun <reified T : ContractState> VaultService.streamBy(criteria: QueryCriteria, sorting: Sort): Stream<StateAndRef<T>> {
+    return _streamBy(criteria, sorting, T::class.java)
+}
+
 class VaultQueryException(description: String, cause: Exception? = null) : FlowException(description, cause) {
     constructor(description: String) : this(description, null)
 }
@@ -3,6 +3,7 @@
 package net.corda.core.node.services.vault
 
 import net.corda.core.DoNotImplement
+import net.corda.core.contracts.StateRef
 import net.corda.core.internal.declaredField
 import net.corda.core.internal.uncheckedCast
 import net.corda.core.node.services.vault.CollectionOperator.*
@@ -11,6 +12,7 @@ import net.corda.core.node.services.vault.EqualityComparisonOperator.*
 import net.corda.core.node.services.vault.LikenessOperator.*
 import net.corda.core.schemas.StatePersistable
 import net.corda.core.serialization.CordaSerializable
+import net.corda.core.serialization.DeprecatedConstructorForDeserialization
 import java.lang.reflect.Field
 import kotlin.jvm.internal.CallableReference
 import kotlin.reflect.KClass
@@ -148,10 +150,31 @@ const val MAX_PAGE_SIZE = Int.MAX_VALUE - 1
  * Note: we default the page number to [DEFAULT_PAGE_SIZE] to enable queries without requiring a page specification
  * but enabling detection of large results sets that fall out of the [DEFAULT_PAGE_SIZE] requirement.
  * [MAX_PAGE_SIZE] should be used with extreme caution as results may exceed your JVM memory footprint.
+ *
+ * Numbered pages are located by skipping over the results of all the preceding pages, which becomes increasingly expensive when
+ * iterating over a large number of states. Instead, a page can be requested which starts immediately after [afterStateRef], the last
+ * state of the previous page, in which case [pageNumber] must be left unset or [DEFAULT_PAGE_NUM]. Such pages are always ordered by
+ * [Sort.CommonStateAttribute.STATE_REF], and so the first page of the iteration should be requested with that sort order.
+ *
+ * @property afterStateRef if set, only states after this [StateRef] (in [Sort.CommonStateAttribute.STATE_REF] order) are returned.
+ * @property skipTotalStateCount if true, the total number of states matching the query is not counted and
+ * [net.corda.core.node.services.Vault.Page.totalStatesAvailable] is -1. Counting requires a scan of all the matching states for each page.
  */
 @CordaSerializable
-data class PageSpecification(val pageNumber: Int = -1, val pageSize: Int = DEFAULT_PAGE_SIZE) {
-    val isDefault = (pageSize == DEFAULT_PAGE_SIZE && pageNumber == -1)
+data class PageSpecification(
+        val pageNumber: Int = -1,
+        val pageSize: Int = DEFAULT_PAGE_SIZE,
+        val afterStateRef: StateRef? = null,
+        val skipTotalStateCount: Boolean = false
+) {
+    @DeprecatedConstructorForDeserialization(version = 1)
+    constructor(pageNumber: Int, pageSize: Int) : this(pageNumber, pageSize, null)
+
+    val isDefault = (pageSize == DEFAULT_PAGE_SIZE && pageNumber == -1 && afterStateRef == null)
+
+    fun copy(pageNumber: Int, pageSize: Int): PageSpecification {
+        return PageSpecification(pageNumber, pageSize, afterStateRef, skipTotalStateCount)
+    }
 }
 
 abstract class BaseSort
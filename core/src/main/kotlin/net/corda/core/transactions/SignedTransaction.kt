@@ -28,6 +28,7 @@ import net.corda.core.serialization.SerializedBytes
 import net.corda.core.serialization.deserialize
 import net.corda.core.serialization.serialize
 import net.corda.core.utilities.toBase58String
+import net.corda.core.utilities.toNonEmptySet
 import java.security.KeyPair
 import java.security.PublicKey
 import java.security.SignatureException
@@ -230,7 +231,14 @@ data class SignedTransaction(val txBits: SerializedBytes<CoreTransaction>,
                 is WireTransaction -> this  // SignedTransaction implements TransactionWithSignatures in terms of WireTransaction
                 else -> CoreTransactionWithSignatures(ctx, sigs, verificationSupport)
             }
-            tws.verifyRequiredSignatures()  // Internally checkSignaturesAreValid is invoked
+            val needed = tws.getMissingSigners()
+            if (needed.isNotEmpty()) {
+                throw SignaturesMissingException(needed.toNonEmptySet(), tws.getKeyDescriptions(needed), id)
+            }
+        }
+        val signatureCache = verificationSupport.verifiedSignatureCache
+        if (signatureCache != null) {
+            signatureCache.verify(id, sigs)
         } else {
             checkSignaturesAreValid()
         }
@@ -2,6 +2,7 @@ package net.corda.core.transactions
 
 import net.corda.core.DoNotImplement
 import net.corda.core.contracts.NamedByHash
+import net.corda.core.crypto.Crypto
 import net.corda.core.crypto.TransactionSignature
 import net.corda.core.crypto.isFulfilledBy
 import net.corda.core.internal.mapToSet
@@ -83,9 +84,7 @@ interface TransactionWithSignatures : NamedByHash {
      */
     @Throws(InvalidKeyException::class, SignatureException::class)
     fun checkSignaturesAreValid() {
-        for (sig in sigs) {
-            sig.verify(id)
-        }
+        Crypto.doVerify(id, sigs)
     }
 
     /**
@@ -92,6 +92,9 @@ abstract class AbstractCashSelection(private val maxRetries : Int = 8, private v
      * @param withIssuerRefs If not empty the specific set of issuer references to match against.
      * @return The matching states that were found. If sufficient funds were found these will be locked,
      * otherwise what is available is returned unlocked for informational purposes.
+     *
+     * Once the node's [CashSelectionIndex] has been loaded, states are selected from it first, and the vault is only queried if it cannot
+     * provide enough of them.
      */
     @Suspendable
     fun unconsumedCashStatesForSpending(services: ServiceHub,
@@ -100,6 +103,9 @@ abstract class AbstractCashSelection(private val maxRetries : Int = 8, private v
                                         notary: Party? = null,
                                         lockId: UUID,
                                         withIssuerRefs: Set<OpaqueBytes> = emptySet()): List<StateAndRef<Cash.State>> {
+        val index = CashSelectionIndex.getIfReady(services)
+        index?.trySelect(amount, lockId, notary, onlyFromIssuerParties, withIssuerRefs)?.let { return it }
+
         val stateAndRefs = mutableListOf<StateAndRef<Cash.State>>()
 
         // DOCSTART CASHSELECT 1
@@ -115,6 +121,7 @@ abstract class AbstractCashSelection(private val maxRetries : Int = 8, private v
                     log.warn("Insufficient spendable states identified for $amount")
                 }
             } else {
+                index?.reserved(lockId, stateAndRefs.map { it.ref })
                 break
             }
         }
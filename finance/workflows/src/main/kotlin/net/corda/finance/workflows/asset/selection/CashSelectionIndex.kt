@@ -0,0 +1,264 @@
+package net.corda.finance.workflows.asset.selection
+
+import net.corda.core.contracts.Amount
+import net.corda.core.contracts.ContractState
+import net.corda.core.contracts.PartyAndReference
+import net.corda.core.contracts.StateAndRef
+import net.corda.core.contracts.StateRef
+import net.corda.core.crypto.keys
+import net.corda.core.identity.AbstractParty
+import net.corda.core.identity.Party
+import net.corda.core.internal.VisibleForTesting
+import net.corda.core.node.AppServiceHub
+import net.corda.core.node.ServiceHub
+import net.corda.core.node.services.CordaService
+import net.corda.core.node.services.ServiceLifecycleEvent
+import net.corda.core.node.services.StatesNotAvailableException
+import net.corda.core.node.services.Vault
+import net.corda.core.node.services.queryBy
+import net.corda.core.node.services.vault.DEFAULT_PAGE_SIZE
+import net.corda.core.node.services.vault.PageSpecification
+import net.corda.core.node.services.vault.QueryCriteria
+import net.corda.core.serialization.SingletonSerializeAsToken
+import net.corda.core.utilities.OpaqueBytes
+import net.corda.core.utilities.contextLogger
+import net.corda.core.utilities.debug
+import net.corda.core.utilities.toNonEmptySet
+import net.corda.finance.contracts.asset.Cash
+import java.util.Currency
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.concurrent.thread
+
+/**
+ * An in-memory index of the node's unconsumed, relevant cash states by currency, issuer and notary, which [AbstractCashSelection] uses
+ * to select coins without querying the vault on every attempt.
+ *
+ * The index follows the vault's committed updates, and is loaded from the vault in the background once the node has started. Until then
+ * [AbstractCashSelection] keeps using its database query. Selected states are reserved in memory under the flow's lock id, without blocking,
+ * and are also soft locked in the vault, which remains the authority on reservations. The vault releases a flow's soft locks when the
+ * flow ends, so the in-memory reservation of a state is released when the state is consumed, or when a selection which comes up short
+ * finds that the state is no longer soft locked in the vault.
+ *
+ * The index can be turned off by setting `inMemoryCashSelection` to false in the CorDapp's configuration.
+ */
+@CordaService
+class CashSelectionIndex(private val services: AppServiceHub) : SingletonSerializeAsToken() {
+    companion object {
+        private val log = contextLogger()
+
+        private const val LOAD_PAGE_SIZE = 1000
+
+        /** Returns the node's cash selection index, if it is installed and has been loaded from the vault. */
+        fun getIfReady(services: ServiceHub): CashSelectionIndex? {
+            val index = try {
+                services.cordaService(CashSelectionIndex::class.java)
+            } catch (e: IllegalArgumentException) {
+                return null
+            }
+            return index.takeIf { it.isReady }
+        }
+    }
+
+    private data class TokenKey(val currency: Currency, val issuer: PartyAndReference, val notary: Party)
+
+    private class Selection(val states: List<StateAndRef<Cash.State>>, val newlyReserved: List<StateRef>)
+
+    private val states = ConcurrentHashMap<TokenKey, ConcurrentHashMap<StateRef, StateAndRef<Cash.State>>>()
+    private val reservations = ConcurrentHashMap<StateRef, UUID>()
+
+    /** Guards the index while it is being loaded, so that states consumed in the meantime are not added back by the load. */
+    private val loadLock = Any()
+    private val consumedWhileLoading = HashSet<StateRef>()
+
+    @Volatile
+    var isReady = false
+        private set
+
+    init {
+        val config = services.getAppContext().config
+        if (!config.exists("inMemoryCashSelection") || config.getBoolean("inMemoryCashSelection")) {
+            services.vaultService.updates.subscribe { onUpdate(it) }
+            services.register { event ->
+                if (event == ServiceLifecycleEvent.STATE_MACHINE_STARTED) {
+                    thread(name = "Cash selection index loader", isDaemon = true) { load() }
+                }
+            }
+        }
+    }
+
+    /**
+     * Selects unconsumed cash states totalling at least [amount], and reserves them for [lockId] both in memory and as soft locks in the
+     * vault. States already reserved for [lockId] are eligible. Returns null, having reserved nothing further, if there are not enough
+     * unreserved states or the vault cannot lock them.
+     */
+    fun trySelect(amount: Amount<Currency>,
+                  lockId: UUID,
+                  notary: Party?,
+                  onlyFromIssuerParties: Set<AbstractParty>,
+                  withIssuerRefs: Set<OpaqueBytes>): List<StateAndRef<Cash.State>>? {
+        val candidates = states.filterKeys { it.matches(amount.token, notary, onlyFromIssuerParties, withIssuerRefs) }.values
+        val selection = select(candidates, amount, lockId)
+                ?: (if (releaseStaleReservations(candidates, lockId)) select(candidates, amount, lockId) else null)
+                ?: return null
+        // The vault logs a failed soft lock as an error, so states which another means of selection has soft locked in the meantime are
+        // looked for first. Their vault lock ids are recorded as their reservations, so that they are passed over by later selections.
+        val conflicts = vaultLocksOf(selection.newlyReserved).filterValues { it != lockId }
+        if (conflicts.isNotEmpty()) {
+            log.debug { "Cash states selected from memory are soft locked in the vault by other flows: ${conflicts.keys}" }
+            selection.newlyReserved.forEach { reservations.remove(it, lockId) }
+            conflicts.forEach { (stateRef, holder) -> reservations.putIfAbsent(stateRef, holder) }
+            return null
+        }
+        try {
+            services.vaultService.softLockReserve(lockId, selection.states.map { it.ref }.toNonEmptySet())
+        } catch (e: StatesNotAvailableException) {
+            log.debug { "Unable to soft lock the cash states selected from memory: ${e.message}" }
+            selection.newlyReserved.forEach { reservations.remove(it, lockId) }
+            return null
+        }
+        return selection.states
+    }
+
+    /** Records that [stateRefs] have been soft locked in the vault for [lockId] by another means of selection. */
+    fun reserved(lockId: UUID, stateRefs: Iterable<StateRef>) {
+        stateRefs.forEach { reservations[it] = lockId }
+    }
+
+    /** The lock id which [stateRef] is reserved for in memory, if any. */
+    @VisibleForTesting
+    internal fun reservationOf(stateRef: StateRef): UUID? = reservations[stateRef]
+
+    private fun TokenKey.matches(currency: Currency, notary: Party?, onlyFromIssuerParties: Set<AbstractParty>, withIssuerRefs: Set<OpaqueBytes>): Boolean {
+        return this.currency == currency &&
+                (notary == null || this.notary.name == notary.name) &&
+                (onlyFromIssuerParties.isEmpty() || onlyFromIssuerParties.any { it.owningKey == issuer.party.owningKey }) &&
+                (withIssuerRefs.isEmpty() || issuer.reference in withIssuerRefs)
+    }
+
+    private fun select(candidates: Collection<Map<StateRef, StateAndRef<Cash.State>>>, amount: Amount<Currency>, lockId: UUID): Selection? {
+        val selected = ArrayList<StateAndRef<Cash.State>>()
+        val newlyReserved = ArrayList<StateRef>()
+        var total = 0L
+        for (tokenStates in candidates) {
+            for (stateAndRef in tokenStates.values) {
+                if (total >= amount.quantity && selected.isNotEmpty()) break
+                val holder = reservations.putIfAbsent(stateAndRef.ref, lockId)
+                if (holder == null) {
+                    newlyReserved += stateAndRef.ref
+                }
+                if (holder == null || holder == lockId) {
+                    selected += stateAndRef
+                    total += stateAndRef.state.data.amount.quantity
+                }
+            }
+        }
+        if (selected.isEmpty() || total < amount.quantity) {
+            newlyReserved.forEach { reservations.remove(it, lockId) }
+            return null
+        }
+        return Selection(selected, newlyReserved)
+    }
+
+    /**
+     * Releases the in-memory reservations held by other flows among [candidates] which are no longer soft locked in the vault, usually
+     * because the flow has ended. Returns true if any were released.
+     */
+    private fun releaseStaleReservations(candidates: Collection<Map<StateRef, StateAndRef<Cash.State>>>, lockId: UUID): Boolean {
+        val reservedByOthers = candidates.flatMap { it.keys }.filter { reservations[it].let { holder -> holder != null && holder != lockId } }
+        val vaultLocks = vaultLocksOf(reservedByOthers)
+        var released = false
+        for (stateRef in reservedByOthers) {
+            val holder = reservations[stateRef] ?: continue
+            val vaultLock = vaultLocks[stateRef]
+            if (vaultLock == null) {
+                released = reservations.remove(stateRef, holder) || released
+            } else if (vaultLock != holder) {
+                reservations.replace(stateRef, holder, vaultLock)
+            }
+        }
+        return released
+    }
+
+    /** Returns the lock ids of those of [stateRefs] which are soft locked in the vault. */
+    private fun vaultLocksOf(stateRefs: List<StateRef>): Map<StateRef, UUID> {
+        val vaultLocks = HashMap<StateRef, UUID>()
+        for (chunk in stateRefs.chunked(DEFAULT_PAGE_SIZE)) {
+            val criteria = QueryCriteria.VaultQueryCriteria(
+                    stateRefs = chunk,
+                    softLockingCondition = QueryCriteria.SoftLockingCondition(QueryCriteria.SoftLockingType.LOCKED_ONLY)
+            )
+            services.vaultService.queryBy<Cash.State>(criteria, PageSpecification(pageNumber = 1, pageSize = chunk.size)).statesMetadata
+                    .forEach { metadata -> metadata.lockId?.let { vaultLocks[metadata.ref] = UUID.fromString(it) } }
+        }
+        return vaultLocks
+    }
+
+    private fun load() {
+        try {
+            val criteria = QueryCriteria.VaultQueryCriteria(relevancyStatus = Vault.RelevancyStatus.RELEVANT)
+            var afterStateRef: StateRef? = null
+            do {
+                val paging = PageSpecification(pageSize = LOAD_PAGE_SIZE, afterStateRef = afterStateRef, skipTotalStateCount = true)
+                val page = services.database.transaction { services.vaultService.queryBy<Cash.State>(criteria, paging) }
+                synchronized(loadLock) {
+                    for ((stateAndRef, metadata) in page.states.zip(page.statesMetadata)) {
+                        if (stateAndRef.ref !in consumedWhileLoading) {
+                            add(stateAndRef)
+                            metadata.lockId?.let { reservations.putIfAbsent(stateAndRef.ref, UUID.fromString(it)) }
+                        }
+                    }
+                }
+                afterStateRef = page.states.lastOrNull()?.ref
+            } while (page.states.size == LOAD_PAGE_SIZE)
+            synchronized(loadLock) {
+                consumedWhileLoading.clear()
+                isReady = true
+            }
+            log.info("Loaded ${states.values.sumOf { it.size }} cash states into the cash selection index")
+        } catch (e: Exception) {
+            log.warn("Unable to load the cash selection index, cash selection will continue to query the vault", e)
+        }
+    }
+
+    private fun onUpdate(update: Vault.Update<ContractState>) {
+        // An exception here would be raised in the flow which recorded the update.
+        try {
+            if (isReady) {
+                apply(update)
+            } else {
+                synchronized(loadLock) {
+                    update.consumed.mapTo(consumedWhileLoading) { it.ref }
+                    apply(update)
+                }
+            }
+        } catch (e: Exception) {
+            log.error("Unable to apply vault update to the cash selection index", e)
+        }
+    }
+
+    private fun apply(update: Vault.Update<ContractState>) {
+        for (stateAndRef in update.consumed) {
+            val state = stateAndRef.state.data as? Cash.State ?: continue
+            states[keyOf(state, stateAndRef.state.notary)]?.remove(stateAndRef.ref)
+            reservations.remove(stateAndRef.ref)
+        }
+        for (stateAndRef in update.produced) {
+            val state = stateAndRef.state.data as? Cash.State ?: continue
+            // As in the vault, only states owned by one of our keys are relevant.
+            if (services.keyManagementService.filterMyKeys(state.owner.owningKey.keys).any()) {
+                @Suppress("UNCHECKED_CAST")
+                add(stateAndRef as StateAndRef<Cash.State>)
+                // The vault soft locks the fungible states produced by a flow for that flow.
+                update.flowId?.let { reservations[stateAndRef.ref] = it }
+            }
+        }
+    }
+
+    private fun add(stateAndRef: StateAndRef<Cash.State>) {
+        val key = keyOf(stateAndRef.state.data, stateAndRef.state.notary)
+        states.computeIfAbsent(key) { ConcurrentHashMap() }[stateAndRef.ref] = stateAndRef
+    }
+
+    private fun keyOf(state: Cash.State, notary: Party) = TokenKey(state.amount.token.product, state.amount.token.issuer, notary)
+}
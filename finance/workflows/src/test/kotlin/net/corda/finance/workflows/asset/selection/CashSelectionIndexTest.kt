@@ -0,0 +1,112 @@
+package net.corda.finance.workflows.asset.selection
+
+import net.corda.core.contracts.StateAndRef
+import net.corda.core.internal.concurrent.transpose
+import net.corda.core.node.services.queryBy
+import net.corda.core.node.services.vault.QueryCriteria
+import net.corda.core.utilities.OpaqueBytes
+import net.corda.core.utilities.getOrThrow
+import net.corda.finance.DOLLARS
+import net.corda.finance.USD
+import net.corda.finance.contracts.asset.Cash
+import net.corda.finance.flows.CashIssueFlow
+import net.corda.finance.flows.CashPaymentFlow
+import net.corda.finance.workflows.getCashBalance
+import net.corda.testing.core.singleIdentity
+import net.corda.testing.node.MockNetwork
+import net.corda.testing.node.MockNetworkParameters
+import net.corda.testing.node.StartedMockNode
+import net.corda.testing.node.internal.FINANCE_CORDAPPS
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.After
+import org.junit.Test
+import java.util.Collections.nCopies
+import java.util.UUID
+
+class CashSelectionIndexTest {
+    private val mockNet = MockNetwork(MockNetworkParameters(threadPerNode = true, cordappsForAllNodes = FINANCE_CORDAPPS))
+
+    @After
+    fun cleanUp() {
+        mockNet.stopNodes()
+    }
+
+    @Test(timeout=300_000)
+	fun `concurrent payments select distinct states from the index`() {
+        val node = mockNet.createNode()
+        val notary = mockNet.defaultNotaryIdentity
+        awaitIndex(node)
+
+        nCopies(10, 10.DOLLARS).map { node.startFlow(CashIssueFlow(it, OpaqueBytes.of(1), notary)) }.transpose().getOrThrow()
+        nCopies(5, 15.DOLLARS).map { node.startFlow(CashPaymentFlow(it, notary, anonymous = false)) }.transpose().getOrThrow()
+
+        assertThat(node.transaction { node.services.getCashBalance(USD) }).isEqualTo(25.DOLLARS)
+    }
+
+    @Test(timeout=300_000)
+	fun `states are selected from the index and soft locked in the vault`() {
+        val node = mockNet.createNode()
+        val notary = mockNet.defaultNotaryIdentity
+        val index = awaitIndex(node)
+        nCopies(3, 10.DOLLARS).map { node.startFlow(CashIssueFlow(it, OpaqueBytes.of(1), notary)) }.transpose().getOrThrow()
+
+        val lockId = UUID.randomUUID()
+        val selected = node.transaction { index.trySelect(15.DOLLARS, lockId, notary, emptySet(), emptySet()) }
+
+        assertThat(selected).isNotNull
+        assertThat(selected!!.sumOf { it.state.data.amount.quantity }).isGreaterThanOrEqualTo(15.DOLLARS.quantity)
+        assertThat(softLocked(node, lockId).map { it.ref }).containsExactlyInAnyOrderElementsOf(selected.map { it.ref })
+        assertThat(selected).allMatch { index.reservationOf(it.ref) == lockId }
+    }
+
+    @Test(timeout=300_000)
+	fun `selections for different lock ids are disjoint`() {
+        val node = mockNet.createNode()
+        val notary = mockNet.defaultNotaryIdentity
+        val index = awaitIndex(node)
+        nCopies(4, 10.DOLLARS).map { node.startFlow(CashIssueFlow(it, OpaqueBytes.of(1), notary)) }.transpose().getOrThrow()
+
+        val first = node.transaction { index.trySelect(15.DOLLARS, UUID.randomUUID(), notary, emptySet(), emptySet()) }
+        val second = node.transaction { index.trySelect(15.DOLLARS, UUID.randomUUID(), notary, emptySet(), emptySet()) }
+        val third = node.transaction { index.trySelect(15.DOLLARS, UUID.randomUUID(), notary, emptySet(), emptySet()) }
+
+        assertThat(first).hasSize(2)
+        assertThat(second).hasSize(2)
+        assertThat(first!!.map { it.ref }).doesNotContainAnyElementsOf(second!!.map { it.ref })
+        assertThat(third).isNull()
+    }
+
+    @Test(timeout=300_000)
+	fun `reservation is released once its state is consumed`() {
+        val node = mockNet.createNode()
+        val notary = mockNet.defaultNotaryIdentity
+        val index = awaitIndex(node)
+        node.startFlow(CashIssueFlow(10.DOLLARS, OpaqueBytes.of(1), notary)).getOrThrow()
+
+        val lockId = UUID.randomUUID()
+        val selected = node.transaction { index.trySelect(10.DOLLARS, lockId, notary, emptySet(), emptySet()) }!!.single()
+        assertThat(index.reservationOf(selected.ref)).isEqualTo(lockId)
+
+        // As the node does when the flow holding the soft lock ends.
+        node.transaction { node.services.vaultService.softLockRelease(lockId) }
+        node.startFlow(CashPaymentFlow(10.DOLLARS, node.info.singleIdentity(), anonymous = false)).getOrThrow()
+
+        assertThat(node.transaction { node.services.vaultService.queryBy<Cash.State>().states }.map { it.ref }).doesNotContain(selected.ref)
+        assertThat(index.reservationOf(selected.ref)).isNull()
+    }
+
+    private fun softLocked(node: StartedMockNode, lockId: UUID): List<StateAndRef<Cash.State>> {
+        val criteria = QueryCriteria.VaultQueryCriteria(softLockingCondition = QueryCriteria.SoftLockingCondition(QueryCriteria.SoftLockingType.SPECIFIED, listOf(lockId)))
+        return node.transaction { node.services.vaultService.queryBy<Cash.State>(criteria).states }
+    }
+
+    private fun awaitIndex(node: StartedMockNode): CashSelectionIndex {
+        val index = node.services.cordaService(CashSelectionIndex::class.java)
+        val deadline = System.nanoTime() + 10_000_000_000L
+        while (!index.isReady) {
+            check(System.nanoTime() < deadline) { "Cash selection index was not loaded" }
+            Thread.sleep(10)
+        }
+        return index
+    }
+}
@@ -4,7 +4,6 @@ import co.paralleluniverse.fibers.instrument.DontInstrument
 import com.google.common.util.concurrent.ThreadFactoryBuilder
 import io.netty.channel.EventLoop
 import io.netty.channel.EventLoopGroup
-import io.netty.channel.nio.NioEventLoopGroup
 import io.netty.util.concurrent.DefaultThreadFactory
 import net.corda.core.identity.CordaX500Name
 import net.corda.core.internal.VisibleForTesting
@@ -22,6 +21,7 @@ import net.corda.nodeapi.internal.protonwrapper.netty.AMQPClient
 import net.corda.nodeapi.internal.protonwrapper.netty.AMQPConfiguration
 import net.corda.nodeapi.internal.protonwrapper.netty.ProxyConfig
 import net.corda.nodeapi.internal.protonwrapper.netty.RevocationConfig
+import net.corda.nodeapi.internal.protonwrapper.netty.createEventLoopGroup
 import net.corda.nodeapi.internal.protonwrapper.netty.sslDelegatedTaskExecutor
 import org.apache.activemq.artemis.api.core.ActiveMQObjectClosedException
 import org.apache.activemq.artemis.api.core.SimpleString
@@ -59,7 +59,8 @@ open class AMQPBridgeManager(keyStore: CertificateStore,
                              private val bridgeMetricsService: BridgeMetricsService? = null,
                              trace: Boolean,
                              sslHandshakeTimeout: Duration?,
-                             private val bridgeConnectionTTLSeconds: Int) : BridgeManager {
+                             private val bridgeConnectionTTLSeconds: Int,
+                             useNativeTransport: Boolean = false) : BridgeManager {
 
     private val lock = ReentrantLock()
     private val queueNamesToBridgesMap = mutableMapOf<String, MutableList<AMQPBridge>>()
@@ -73,12 +74,14 @@ open class AMQPBridgeManager(keyStore: CertificateStore,
                                         override val enableSNI: Boolean,
                                         override val sourceX500Name: String? = null,
                                         override val trace: Boolean,
-                                        private val _sslHandshakeTimeout: Duration?) : AMQPConfiguration {
+                                        private val _sslHandshakeTimeout: Duration?,
+                                        override val useNativeTransport: Boolean) : AMQPConfiguration {
         override val sslHandshakeTimeout: Duration
             get() = _sslHandshakeTimeout ?: super.sslHandshakeTimeout
     }
 
-    private val amqpConfig: AMQPConfiguration = AMQPConfigurationImpl(keyStore, trustStore, proxyConfig, maxMessageSize, revocationConfig,useOpenSSL, enableSNI, trace = trace, _sslHandshakeTimeout = sslHandshakeTimeout)
+    private val amqpConfig: AMQPConfiguration = AMQPConfigurationImpl(keyStore, trustStore, proxyConfig, maxMessageSize, revocationConfig,useOpenSSL, enableSNI, trace = trace, _sslHandshakeTimeout = sslHandshakeTimeout,
+                                                                      useNativeTransport = useNativeTransport)
     private var sharedEventLoopGroup: EventLoopGroup? = null
     private var sslDelegatedTaskExecutor: ExecutorService? = null
     private var artemis: ArtemisSessionProvider? = null
@@ -481,7 +484,8 @@ open class AMQPBridgeManager(keyStore: CertificateStore,
                 }
             }
             val newAMQPConfig = with(amqpConfig) { AMQPConfigurationImpl(keyStore, trustStore, proxyConfig, maxMessageSize,
-                                                   revocationConfig, useOpenSsl, enableSNI, sourceX500Name, trace, sslHandshakeTimeout) }
+                                                   revocationConfig, useOpenSsl, enableSNI, sourceX500Name, trace, sslHandshakeTimeout,
+                                                   useNativeTransport) }
             val newBridge = AMQPBridge(sourceX500Name, queueName, targets, legalNames, newAMQPConfig)
             bridges += newBridge
             bridgeMetricsService?.bridgeCreated(targets, legalNames)
@@ -518,7 +522,8 @@ open class AMQPBridgeManager(keyStore: CertificateStore,
     }
 
     override fun start() {
-        sharedEventLoopGroup = NioEventLoopGroup(NUM_BRIDGE_THREADS, DefaultThreadFactory("NettyBridge", Thread.MAX_PRIORITY))
+        sharedEventLoopGroup = createEventLoopGroup(amqpConfig.useNativeTransport, NUM_BRIDGE_THREADS,
+                                                    DefaultThreadFactory("NettyBridge", Thread.MAX_PRIORITY))
         sslDelegatedTaskExecutor = sslDelegatedTaskExecutor("NettyBridge")
         val artemis = artemisMessageClientFactory("ArtemisBridge")
         this.artemis = artemis
@@ -39,7 +39,8 @@ class BridgeControlListener(private val keyStore: CertificateStore,
                             bridgeMetricsService: BridgeMetricsService? = null,
                             trace: Boolean = false,
                             sslHandshakeTimeout: Duration? = null,
-                            bridgeConnectionTTLSeconds: Int = 0) : AutoCloseable {
+                            bridgeConnectionTTLSeconds: Int = 0,
+                            useNativeTransport: Boolean = false) : AutoCloseable {
     private val bridgeId: String = UUID.randomUUID().toString()
     private var bridgeControlQueue = "$BRIDGE_CONTROL.$bridgeId"
     private var bridgeNotifyQueue = "$BRIDGE_NOTIFY.$bridgeId"
@@ -47,10 +48,11 @@ class BridgeControlListener(private val keyStore: CertificateStore,
     private val bridgeManager = if (enableSNI) {
         LoopbackBridgeManager(keyStore, trustStore, useOpenSSL, proxyConfig, maxMessageSize, revocationConfig, enableSNI,
                               artemisMessageClientFactory, bridgeMetricsService, this::validateReceiveTopic, trace, sslHandshakeTimeout,
-                              bridgeConnectionTTLSeconds)
+                              bridgeConnectionTTLSeconds, useNativeTransport)
     } else {
         AMQPBridgeManager(keyStore, trustStore, useOpenSSL, proxyConfig, maxMessageSize, revocationConfig, enableSNI,
-                          artemisMessageClientFactory, bridgeMetricsService, trace, sslHandshakeTimeout, bridgeConnectionTTLSeconds)
+                          artemisMessageClientFactory, bridgeMetricsService, trace, sslHandshakeTimeout, bridgeConnectionTTLSeconds,
+                          useNativeTransport)
     }
     private var artemis: ArtemisSessionProvider? = null
     private var controlConsumer: ClientConsumer? = null
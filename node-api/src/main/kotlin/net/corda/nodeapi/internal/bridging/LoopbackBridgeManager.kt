@@ -42,11 +42,12 @@ class LoopbackBridgeManager(keyStore: CertificateStore,
                             private val isLocalInbox: (String) -> Boolean,
                             trace: Boolean,
                             sslHandshakeTimeout: Duration? = null,
-                            bridgeConnectionTTLSeconds: Int = 0) : AMQPBridgeManager(keyStore, trustStore, useOpenSSL, proxyConfig,
+                            bridgeConnectionTTLSeconds: Int = 0,
+                            useNativeTransport: Boolean = false) : AMQPBridgeManager(keyStore, trustStore, useOpenSSL, proxyConfig,
                                                                                      maxMessageSize, revocationConfig, enableSNI,
                                                                                      artemisMessageClientFactory, bridgeMetricsService,
                                                                                      trace, sslHandshakeTimeout,
-                                                                                     bridgeConnectionTTLSeconds) {
+                                                                                     bridgeConnectionTTLSeconds, useNativeTransport) {
 
     companion object {
         private val log = contextLogger()
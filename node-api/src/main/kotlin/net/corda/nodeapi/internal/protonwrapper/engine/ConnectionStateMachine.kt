@@ -2,7 +2,6 @@ package net.corda.nodeapi.internal.protonwrapper.engine
 
 import io.netty.buffer.ByteBuf
 import io.netty.buffer.PooledByteBufAllocator
-import io.netty.buffer.Unpooled
 import io.netty.channel.Channel
 import io.netty.channel.ChannelHandlerContext
 import net.corda.core.utilities.NetworkHostAndPort
@@ -26,7 +25,6 @@ import org.apache.qpid.proton.engine.*
 import org.apache.qpid.proton.message.Message
 import org.slf4j.MDC
 import java.net.InetSocketAddress
-import java.nio.ByteBuffer
 import java.util.*
 import kotlin.math.max
 import kotlin.math.min
@@ -51,6 +49,8 @@ internal class ConnectionStateMachine(private val serverMode: Boolean,
 
         private val MAX_FRAME_SIZE = Integer.getInteger(CORDA_AMQP_FRAME_SIZE_PROP_NAME, 128 * 1024)
         private val IDLE_TIMEOUT = Integer.getInteger(CORDA_AMQP_IDLE_TIMEOUT_PROP_NAME, 10 * 1000)
+        // Allowance for the AMQP header, properties and application properties encoded around a message's payload.
+        private const val ENCODING_OVERHEAD = 1500
         private val log = contextLogger()
     }
 
@@ -416,9 +416,7 @@ internal class ConnectionStateMachine(private val serverMode: Boolean,
             if (nextMessage != null) {
                 try {
                     val messageBuf = nextMessage.buf!!
-                    val buf = ByteBuffer.allocate(4)
-                    buf.putInt(tagId++)
-                    val delivery = sender.delivery(buf.array())
+                    val delivery = sender.delivery(nextDeliveryTag())
                     delivery.context = nextMessage
                     sender.send(messageBuf.array(), messageBuf.arrayOffset() + messageBuf.readerIndex(), messageBuf.readableBytes())
                     nextMessage.status = MessageStatus.Sent
@@ -434,6 +432,11 @@ internal class ConnectionStateMachine(private val serverMode: Boolean,
         }
     }
 
+    private fun nextDeliveryTag(): ByteArray {
+        val tag = tagId++
+        return byteArrayOf((tag ushr 24).toByte(), (tag ushr 16).toByte(), (tag ushr 8).toByte(), tag.toByte())
+    }
+
     override fun onDelivery(event: Event) {
         val delivery = event.delivery
         logDebugWithMDC { "Delivery $delivery" }
@@ -486,20 +489,19 @@ internal class ConnectionStateMachine(private val serverMode: Boolean,
         }
     }
 
-    private fun encodeAMQPMessage(message: Message): ByteBuf {
-        val buffer = PooledByteBufAllocator.DEFAULT.heapBuffer(1500)
+    /**
+     * Encodes [message] into a pooled heap buffer, which the caller must release. The buffer is passed to proton as it is, and proton copies
+     * it into its own buffers when the message is sent.
+     */
+    private fun encodeAMQPMessage(message: Message, sizeHint: Int): ByteBuf {
+        val buffer = PooledByteBufAllocator.DEFAULT.heapBuffer(sizeHint)
         try {
-            try {
-                message.encode(NettyWritable(buffer))
-                val bytes = ByteArray(buffer.writerIndex())
-                buffer.readBytes(bytes)
-                return Unpooled.wrappedBuffer(bytes)
-            } catch (ex: Exception) {
-                logErrorWithMDC("Unable to encode message as AMQP packet", ex)
-                throw ex
-            }
-        } finally {
+            message.encode(NettyWritable(buffer))
+            return buffer
+        } catch (ex: Exception) {
             buffer.release()
+            logErrorWithMDC("Unable to encode message as AMQP packet", ex)
+            throw ex
         }
     }
 
@@ -513,7 +515,8 @@ internal class ConnectionStateMachine(private val serverMode: Boolean,
         // Fortunately, when we are bridge to bridge/bridge to float we can authenticate links there.
         appProperties["_AMQ_VALIDATED_USER"] = localLegalName
         message.applicationProperties = ApplicationProperties(appProperties)
-        return encodeAMQPMessage(message)
+        // Sized so that the buffer does not have to grow, and be copied, while the message is encoded.
+        return encodeAMQPMessage(message, msg.payload.size + ENCODING_OVERHEAD)
     }
 
     private fun decodeAMQPMessage(link: Receiver): Message {
@@ -6,9 +6,7 @@ import io.netty.channel.ChannelFutureListener
 import io.netty.channel.ChannelHandler
 import io.netty.channel.ChannelInitializer
 import io.netty.channel.EventLoopGroup
-import io.netty.channel.nio.NioEventLoopGroup
 import io.netty.channel.socket.SocketChannel
-import io.netty.channel.socket.nio.NioSocketChannel
 import io.netty.handler.logging.LogLevel
 import io.netty.handler.logging.LoggingHandler
 import io.netty.handler.proxy.HttpProxyHandler
@@ -320,7 +318,7 @@ class AMQPClient(private val targets: List<NetworkHostAndPort>,
                 return
             }
             log.info("Connect to: $currentTarget")
-            (nettyThreading as? NettyThreading.NonShared)?.start()
+            (nettyThreading as? NettyThreading.NonShared)?.start(configuration.useNativeTransport)
             started = true
             restart()
         }
@@ -331,8 +329,8 @@ class AMQPClient(private val targets: List<NetworkHostAndPort>,
             return
         }
         val bootstrap = Bootstrap()
-        // TODO Needs more configuration control when we profile. e.g. to use EPOLL on Linux
-        bootstrap.group(nettyThreading.eventLoopGroup).channel(NioSocketChannel::class.java).handler(ClientChannelInitializer(this))
+        val eventLoopGroup = nettyThreading.eventLoopGroup
+        bootstrap.group(eventLoopGroup).channel(socketChannelClass(eventLoopGroup)).handler(ClientChannelInitializer(this))
         // Delegate DNS Resolution to the proxy side, if we are using proxy.
         if (configuration.proxyConfig != null) {
             bootstrap.resolver(NoopAddressResolverGroup.INSTANCE)
@@ -402,16 +400,16 @@ class AMQPClient(private val targets: List<NetworkHostAndPort>,
                      override val sslDelegatedTaskExecutor: ExecutorService = sslDelegatedTaskExecutor("AMQPClient")) : NettyThreading()
 
         class NonShared(val threadPoolName: String) : NettyThreading() {
-            private var _eventLoopGroup: NioEventLoopGroup? = null
+            private var _eventLoopGroup: EventLoopGroup? = null
             override val eventLoopGroup: EventLoopGroup get() = checkNotNull(_eventLoopGroup)
 
             private var _sslDelegatedTaskExecutor: ThreadPoolExecutor? = null
             override val sslDelegatedTaskExecutor: ExecutorService get() = checkNotNull(_sslDelegatedTaskExecutor)
 
-            fun start() {
+            fun start(useNativeTransport: Boolean = false) {
                 check(_eventLoopGroup == null)
                 check(_sslDelegatedTaskExecutor == null)
-                _eventLoopGroup = NioEventLoopGroup(NUM_CLIENT_THREADS, DefaultThreadFactory(threadPoolName, Thread.MAX_PRIORITY))
+                _eventLoopGroup = createEventLoopGroup(useNativeTransport, NUM_CLIENT_THREADS, DefaultThreadFactory(threadPoolName, Thread.MAX_PRIORITY))
                 _sslDelegatedTaskExecutor = sslDelegatedTaskExecutor(threadPoolName)
             }
 
@@ -77,5 +77,11 @@ interface AMQPConfiguration {
 
     val enableSNI: Boolean
         get() = true
+
+    /**
+     * Whether to use Netty's native epoll transport on Linux instead of NIO. Falls back to NIO where epoll is not available.
+     */
+    val useNativeTransport: Boolean
+        get() = false
 }
 
@@ -6,9 +6,7 @@ import io.netty.channel.ChannelHandler
 import io.netty.channel.ChannelInitializer
 import io.netty.channel.ChannelOption
 import io.netty.channel.EventLoopGroup
-import io.netty.channel.nio.NioEventLoopGroup
 import io.netty.channel.socket.SocketChannel
-import io.netty.channel.socket.nio.NioServerSocketChannel
 import io.netty.handler.logging.LogLevel
 import io.netty.handler.logging.LoggingHandler
 import io.netty.util.concurrent.DefaultThreadFactory
@@ -131,15 +129,20 @@ class AMQPServer(val hostName: String,
 
             sslDelegatedTaskExecutor = sslDelegatedTaskExecutor(threadPoolName)
 
-            bossGroup = NioEventLoopGroup(1, DefaultThreadFactory("$threadPoolName-boss", Thread.MAX_PRIORITY))
-            workerGroup = NioEventLoopGroup(
+            val bossGroup = createEventLoopGroup(
+                    configuration.useNativeTransport,
+                    1,
+                    DefaultThreadFactory("$threadPoolName-boss", Thread.MAX_PRIORITY)
+            )
+            this.bossGroup = bossGroup
+            workerGroup = createEventLoopGroup(
+                    configuration.useNativeTransport,
                     remotingThreads ?: DEFAULT_REMOTING_THREADS,
                     DefaultThreadFactory("$threadPoolName-worker", Thread.MAX_PRIORITY)
             )
 
             val server = ServerBootstrap()
-            // TODO Needs more configuration control when we profile. e.g. to use EPOLL on Linux
-            server.group(bossGroup, workerGroup).channel(NioServerSocketChannel::class.java)
+            server.group(bossGroup, workerGroup).channel(serverSocketChannelClass(bossGroup))
                     .option(ChannelOption.SO_BACKLOG, 100)
                     .handler(NettyServerEventLogger(LogLevel.INFO, configuration.silencedIPs))
                     .childHandler(ServerChannelInitializer(this))
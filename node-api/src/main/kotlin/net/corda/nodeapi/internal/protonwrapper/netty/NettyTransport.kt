@@ -0,0 +1,55 @@
+package net.corda.nodeapi.internal.protonwrapper.netty
+
+import io.netty.channel.EventLoopGroup
+import io.netty.channel.epoll.Epoll
+import io.netty.channel.epoll.EpollEventLoopGroup
+import io.netty.channel.epoll.EpollServerSocketChannel
+import io.netty.channel.epoll.EpollSocketChannel
+import io.netty.channel.nio.NioEventLoopGroup
+import io.netty.channel.socket.ServerSocketChannel
+import io.netty.channel.socket.SocketChannel
+import io.netty.channel.socket.nio.NioServerSocketChannel
+import io.netty.channel.socket.nio.NioSocketChannel
+import org.slf4j.LoggerFactory
+import java.util.concurrent.ThreadFactory
+
+private val log = LoggerFactory.getLogger("net.corda.nodeapi.internal.protonwrapper.netty.NettyTransport")
+
+private val epollAvailable: Boolean by lazy {
+    Epoll.isAvailable().also { available ->
+        if (!available) {
+            log.warn("Native transport was requested but epoll is not available, falling back to NIO: ${Epoll.unavailabilityCause()}")
+        }
+    }
+}
+
+/**
+ * Creates the event loop group for AMQP connections. If [useNativeTransport] is set and Netty's native epoll transport can be loaded on
+ * this platform then an epoll group is used, otherwise this falls back to NIO.
+ */
+fun createEventLoopGroup(useNativeTransport: Boolean, nThreads: Int, threadFactory: ThreadFactory): EventLoopGroup {
+    return createEventLoopGroup(useNativeTransport, nThreads, threadFactory) { epollAvailable }
+}
+
+internal fun createEventLoopGroup(
+        useNativeTransport: Boolean,
+        nThreads: Int,
+        threadFactory: ThreadFactory,
+        nativeTransportAvailable: () -> Boolean
+): EventLoopGroup {
+    return if (useNativeTransport && nativeTransportAvailable()) {
+        EpollEventLoopGroup(nThreads, threadFactory)
+    } else {
+        NioEventLoopGroup(nThreads, threadFactory)
+    }
+}
+
+/** The client socket channel class to use with [eventLoopGroup], as created by [createEventLoopGroup] or passed in by the caller. */
+fun socketChannelClass(eventLoopGroup: EventLoopGroup): Class<out SocketChannel> {
+    return if (eventLoopGroup is EpollEventLoopGroup) EpollSocketChannel::class.java else NioSocketChannel::class.java
+}
+
+/** The server socket channel class to use with [eventLoopGroup], as created by [createEventLoopGroup]. */
+fun serverSocketChannelClass(eventLoopGroup: EventLoopGroup): Class<out ServerSocketChannel> {
+    return if (eventLoopGroup is EpollEventLoopGroup) EpollServerSocketChannel::class.java else NioServerSocketChannel::class.java
+}
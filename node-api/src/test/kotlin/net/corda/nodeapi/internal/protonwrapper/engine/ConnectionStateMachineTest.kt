@@ -0,0 +1,192 @@
+package net.corda.nodeapi.internal.protonwrapper.engine
+
+import org.mockito.kotlin.mock
+import io.netty.buffer.UnpooledByteBufAllocator
+import io.netty.buffer.UnpooledHeapByteBuf
+import net.corda.nodeapi.internal.protonwrapper.messages.MessageStatus
+import net.corda.nodeapi.internal.protonwrapper.messages.impl.SendableMessageImpl
+import net.corda.testing.core.ALICE_NAME
+import net.corda.testing.core.BOB_NAME
+import org.apache.qpid.proton.Proton
+import org.apache.qpid.proton.amqp.Symbol
+import org.apache.qpid.proton.amqp.messaging.Accepted
+import org.apache.qpid.proton.amqp.messaging.Rejected
+import org.apache.qpid.proton.amqp.transport.ErrorCondition
+import org.apache.qpid.proton.engine.Collector
+import org.apache.qpid.proton.engine.Handler
+import org.apache.qpid.proton.engine.Receiver
+import org.apache.qpid.proton.engine.Sasl
+import org.apache.qpid.proton.engine.Transport
+import org.apache.qpid.proton.reactor.Handshaker
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+import kotlin.math.min
+import kotlin.test.assertEquals
+
+/**
+ * Drives a [ConnectionStateMachine] against a bare proton-j peer on the test thread, pumping frames between the two transports, so that
+ * the pooled buffers of outgoing messages can be checked to be released exactly once on the paths that complete them. The rejection on
+ * disconnect is covered in [EventProcessorTest].
+ */
+class ConnectionStateMachineTest {
+    private companion object {
+        const val TOPIC = "p2p.inbound.Test"
+    }
+
+    private val collector = Proton.collector()
+    private val stateMachine = ConnectionStateMachine(false, collector, ALICE_NAME.toString(), BOB_NAME.toString(), null, null)
+    private val handlers = listOf(Handshaker(), stateMachine)
+
+    private val peerCollector = Proton.collector()
+    private val peerConnection = Proton.connection()
+    private val peerTransport = Proton.transport()
+    private val peerHandlers = listOf(Handshaker())
+
+    init {
+        peerConnection.collect(peerCollector)
+        peerTransport.sasl().apply {
+            setMechanisms("ANONYMOUS")
+            server()
+            done(Sasl.PN_SASL_OK)
+        }
+        peerTransport.bind(peerConnection)
+    }
+
+    @Test(timeout=300_000)
+    fun `message buffer is released once the message is sent`() {
+        val msg = message()
+        stateMachine.transportWriteMessage(msg)
+        val buffer = ReleaseCountingByteBuf.wrap(msg)
+        pump()
+        assertEquals(1, buffer.refCnt())
+
+        val receiver = peerReceiver()
+        receiver.flow(10)
+        pump()
+
+        assertEquals(MessageStatus.Sent, msg.status)
+        assertEquals(0, buffer.refCnt())
+
+        receiver.current().apply {
+            disposition(Accepted.getInstance())
+            settle()
+        }
+        pump()
+
+        assertEquals(MessageStatus.Acknowledged, msg.onComplete.get(5, TimeUnit.SECONDS))
+        assertEquals(1, buffer.releases)
+    }
+
+    @Test(timeout=300_000)
+    fun `message buffer is released once when the peer rejects the message`() {
+        val msg = message()
+        stateMachine.transportWriteMessage(msg)
+        val buffer = ReleaseCountingByteBuf.wrap(msg)
+        pump()
+
+        val receiver = peerReceiver()
+        receiver.flow(10)
+        pump()
+        receiver.current().apply {
+            disposition(Rejected())
+            settle()
+        }
+        pump()
+
+        assertEquals(MessageStatus.Rejected, msg.onComplete.get(5, TimeUnit.SECONDS))
+        assertEquals(0, buffer.refCnt())
+        assertEquals(1, buffer.releases)
+    }
+
+    @Test(timeout=300_000)
+    fun `message buffers are released when the peer does not have permission to create the address`() {
+        val msg = message()
+        stateMachine.transportWriteMessage(msg)
+        val buffer = ReleaseCountingByteBuf.wrap(msg)
+        pump()
+
+        peerReceiver().apply {
+            condition = ErrorCondition(Symbol.valueOf("amqp:unauthorized-access"),
+                    "AMQ229032: User: SystemUsers/Peer does not have permission='CREATE_ADDRESS' on address $TOPIC")
+            close()
+        }
+        pump()
+
+        assertEquals(MessageStatus.Acknowledged, msg.onComplete.get(5, TimeUnit.SECONDS))
+        assertEquals(0, buffer.refCnt())
+        assertEquals(1, buffer.releases)
+    }
+
+    private fun message() = SendableMessageImpl("test".toByteArray(), TOPIC, BOB_NAME.toString(), mock(), mapOf())
+
+    private fun peerReceiver(): Receiver = peerConnection.linkHead(null, null) as Receiver
+
+    private fun pump() {
+        val transport = stateMachine.connection.transport
+        do {
+            dispatch(collector, handlers)
+            dispatch(peerCollector, peerHandlers)
+            val transferred = transfer(transport, peerTransport) or transfer(peerTransport, transport)
+        } while (transferred)
+    }
+
+    private fun dispatch(collector: Collector, handlers: List<Handler>) {
+        while (true) {
+            val event = collector.peek() ?: break
+            for (handler in handlers) {
+                handler.handle(event)
+            }
+            collector.pop()
+        }
+    }
+
+    private fun transfer(from: Transport, to: Transport): Boolean {
+        if (from.pending() <= 0 || to.capacity() <= 0) {
+            return false
+        }
+        val output = from.outputBuffer
+        while (output.hasRemaining() && to.capacity() > 0) {
+            val input = to.inputBuffer
+            val limit = min(input.remaining(), output.remaining())
+            val duplicate = output.duplicate()
+            duplicate.limit(output.position() + limit)
+            input.put(duplicate)
+            to.processInput().checkIsOk()
+            output.position(output.position() + limit)
+        }
+        from.outputConsumed()
+        return true
+    }
+}
+
+/**
+ * Counts the calls to release the encoded buffer of a message, as the message forgets its buffer once it has been released and so a
+ * second release by the message itself can't be seen in the buffer's reference count.
+ */
+internal class ReleaseCountingByteBuf private constructor(
+        bytes: ByteArray
+) : UnpooledHeapByteBuf(UnpooledByteBufAllocator.DEFAULT, bytes, bytes.size) {
+    companion object {
+        /** Replaces the pooled encoded buffer of [msg] with a copy which counts its releases. */
+        fun wrap(msg: SendableMessageImpl): ReleaseCountingByteBuf {
+            val encoded = msg.buf!!
+            val bytes = ByteArray(encoded.readableBytes()).also { encoded.getBytes(encoded.readerIndex(), it) }
+            encoded.release()
+            return ReleaseCountingByteBuf(bytes).also { msg.buf = it }
+        }
+    }
+
+    @Volatile
+    var releases = 0
+        private set
+
+    override fun release(): Boolean {
+        releases++
+        return super.release()
+    }
+
+    override fun release(decrement: Int): Boolean {
+        releases++
+        return super.release(decrement)
+    }
+}
@@ -60,6 +60,25 @@ class EventProcessorTest {
         assertEquals(MessageStatus.Rejected, msg.onComplete.get(5, TimeUnit.SECONDS))
     }
 
+    @Test(timeout=300_000)
+    fun `release message buffer when message is rejected on disconnect`() {
+        val executor = DefaultEventLoop()
+        val channel = channel(executor)
+
+        val eventProcessor = EventProcessor(channel, false, ALICE_NAME.toString(), BOB_NAME.toString(), "username", "password")
+        eventProcessor.processEventsAsync()
+
+        val msg = SendableMessageImpl("test".toByteArray(), "topic", BOB_NAME.toString(), mock(), mapOf())
+        eventProcessor.transportWriteMessage(msg)
+        val buffer = ReleaseCountingByteBuf.wrap(msg)
+        eventProcessor.processEventsAsync()
+
+        executor.execute { eventProcessor.close() }
+        assertEquals(MessageStatus.Rejected, msg.onComplete.get(5, TimeUnit.SECONDS))
+        assertEquals(0, buffer.refCnt())
+        assertEquals(1, buffer.releases)
+    }
+
     private fun channel(executor: EventLoop) = rigorousMock<Channel>().also {
         doReturn(executor).whenever(it).eventLoop()
         doReturn(mock<ChannelFuture>()).whenever(it).writeAndFlush(any())
@@ -0,0 +1,71 @@
+package net.corda.nodeapi.internal.protonwrapper.netty
+
+import io.netty.channel.EventLoopGroup
+import io.netty.channel.epoll.Epoll
+import io.netty.channel.epoll.EpollEventLoopGroup
+import io.netty.channel.epoll.EpollServerSocketChannel
+import io.netty.channel.epoll.EpollSocketChannel
+import io.netty.channel.nio.NioEventLoopGroup
+import io.netty.channel.socket.nio.NioServerSocketChannel
+import io.netty.channel.socket.nio.NioSocketChannel
+import io.netty.util.concurrent.DefaultThreadFactory
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+import kotlin.test.fail
+
+class NettyTransportTest {
+    private val threadFactory = DefaultThreadFactory("netty-transport-test")
+
+    @Test(timeout=300_000)
+    fun `falls back to NIO when the native transport is unavailable`() {
+        useGroup(createEventLoopGroup(true, 1, threadFactory) { false }) { group ->
+            assertTrue(group is NioEventLoopGroup)
+            assertEquals(NioSocketChannel::class.java, socketChannelClass(group))
+            assertEquals(NioServerSocketChannel::class.java, serverSocketChannelClass(group))
+        }
+    }
+
+    @Test(timeout=300_000)
+    fun `uses NIO when the native transport is not requested`() {
+        useGroup(createEventLoopGroup(false, 1, threadFactory) { fail("Native transport availability should not be checked") }) { group ->
+            assertTrue(group is NioEventLoopGroup)
+            assertEquals(NioSocketChannel::class.java, socketChannelClass(group))
+        }
+    }
+
+    @Test(timeout=300_000)
+    fun `uses epoll when the native transport is requested and available`() {
+        assumeTrue(Epoll.isAvailable())
+        useGroup(createEventLoopGroup(true, 1, threadFactory) { true }) { group ->
+            assertTrue(group is EpollEventLoopGroup)
+            assertEquals(EpollSocketChannel::class.java, socketChannelClass(group))
+            assertEquals(EpollServerSocketChannel::class.java, serverSocketChannelClass(group))
+        }
+    }
+
+    @Test(timeout=300_000)
+    fun `channel classes always match the event loop group on this platform`() {
+        for (useNativeTransport in listOf(true, false)) {
+            useGroup(createEventLoopGroup(useNativeTransport, 1, threadFactory)) { group ->
+                val epoll = group is EpollEventLoopGroup
+                assertEquals(useNativeTransport && Epoll.isAvailable(), epoll)
+                assertEquals(if (epoll) EpollSocketChannel::class.java else NioSocketChannel::class.java, socketChannelClass(group))
+                assertEquals(
+                        if (epoll) EpollServerSocketChannel::class.java else NioServerSocketChannel::class.java,
+                        serverSocketChannelClass(group)
+                )
+            }
+        }
+    }
+
+    private fun useGroup(group: EventLoopGroup, block: (EventLoopGroup) -> Unit) {
+        try {
+            block(group)
+        } finally {
+            group.shutdownGracefully(0, 0, TimeUnit.SECONDS)
+        }
+    }
+}
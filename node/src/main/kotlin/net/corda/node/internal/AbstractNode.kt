@@ -12,6 +12,7 @@ import net.corda.confidential.SwapIdentitiesFlow
 import net.corda.core.CordaException
 import net.corda.core.concurrent.CordaFuture
 import net.corda.core.context.InvocationContext
+import net.corda.core.contracts.TransactionResolutionException
 import net.corda.core.crypto.DigitalSignature
 import net.corda.core.crypto.SecureHash
 import net.corda.core.crypto.newSecureRandom
@@ -67,6 +68,7 @@ import net.corda.core.serialization.SingletonSerializeAsToken
 import net.corda.core.serialization.internal.AttachmentsClassLoaderCache
 import net.corda.core.serialization.internal.AttachmentsClassLoaderCacheImpl
 import net.corda.core.toFuture
+import net.corda.core.transactions.SignedTransaction
 import net.corda.core.utilities.NetworkHostAndPort
 import net.corda.core.utilities.days
 import net.corda.core.utilities.millis
@@ -144,6 +146,8 @@ import net.corda.node.utilities.BindableNamedCacheFactory
 import net.corda.node.utilities.NamedThreadFactory
 import net.corda.node.utilities.NotaryLoader
 import net.corda.node.verification.ExternalVerifierHandleImpl
+import net.corda.node.verification.TransactionStateCacheImpl
+import net.corda.node.verification.VerifiedSignatureCacheImpl
 import net.corda.nodeapi.internal.NodeInfoAndSigned
 import net.corda.nodeapi.internal.NodeStatus
 import net.corda.nodeapi.internal.SignedNodeInfo
@@ -317,7 +321,11 @@ abstract class AbstractNode<S>(val configuration: NodeConfiguration,
     val services = ServiceHubImpl().tokenize()
     @Suppress("LeakingThis")
     val vaultService = makeVaultService(keyManagementService, database, cordappLoader).tokenize()
-    val checkpointStorage = DBCheckpointStorage(DBCheckpointPerformanceRecorder(services.monitoringService.metrics), platformClock)
+    val checkpointStorage = DBCheckpointStorage(
+            DBCheckpointPerformanceRecorder(services.monitoringService.metrics),
+            platformClock,
+            configuration.checkpointDeltaEncoding
+    )
     @Suppress("LeakingThis")
     val smm = makeStateMachineManager()
     val flowStarter = FlowStarterImpl(smm, flowLogicRefFactory, DBCheckpointStorage.MAX_CLIENT_ID_LENGTH)
@@ -1152,7 +1160,8 @@ abstract class AbstractNode<S>(val configuration: NodeConfiguration,
     protected open fun makeVaultService(keyManagementService: KeyManagementService,
                                         database: CordaPersistence,
                                         cordappLoader: CordappLoader): VaultServiceInternal {
-        return NodeVaultService(platformClock, keyManagementService, services, database, schemaService, cordappLoader.appClassLoader)
+        return NodeVaultService(platformClock, keyManagementService, services, database, schemaService, cordappLoader.appClassLoader,
+                metricRegistry, configuration.stateMappingParallelism).also { runOnStop += it::close }
     }
 
     private fun initialiseJolokia() {
@@ -1167,7 +1176,22 @@ abstract class AbstractNode<S>(val configuration: NodeConfiguration,
     inner class ServiceHubImpl : SingletonSerializeAsToken(), ServiceHubInternal, NetworkParameterUpdateListener {
         override val rpcFlows = ArrayList<Class<out FlowLogic<*>>>()
         override val stateMachineRecordedTransactionMapping = DBTransactionMappingStorage(database)
-        override val externalVerifierHandle = ExternalVerifierHandleImpl(this, configuration.baseDirectory).also { runOnStop += it::close }
+        override val externalVerifierHandle = ExternalVerifierHandleImpl(
+                this,
+                configuration.baseDirectory,
+                configuration.externalVerifierPoolSize,
+                metricRegistry
+        ).also { runOnStop += it::close }
+        override val verifiedSignatureCache = if (configuration.verifiedSignatureCacheSize > 0) {
+            VerifiedSignatureCacheImpl(cacheFactory, metricRegistry)
+        } else {
+            null
+        }
+        override val transactionStateCache = if (configuration.transactionStateCacheSizeMegaBytes > 0) {
+            TransactionStateCacheImpl(cacheFactory, metricRegistry)
+        } else {
+            null
+        }
         override val identityService: IdentityService get() = this@AbstractNode.identityService
         override val keyManagementService: KeyManagementService get() = this@AbstractNode.keyManagementService
         override val schemaService: SchemaService get() = this@AbstractNode.schemaService
@@ -1210,6 +1234,12 @@ abstract class AbstractNode<S>(val configuration: NodeConfiguration,
             this.networkParameters = networkParameters
         }
 
+        override fun getRequiredTransactions(ids: Set<SecureHash>): Map<SecureHash, SignedTransaction> {
+            val transactions = validatedTransactions.getTransactions(ids)
+            ids.firstOrNull { it !in transactions }?.let { throw TransactionResolutionException(it) }
+            return transactions
+        }
+
         override fun <T : SerializeAsToken> cordaService(type: Class<T>): T {
             require(type.isAnnotationPresent(CordaService::class.java)) { "${type.name} is not a Corda service" }
             return cordappServices.getInstance(type)
@@ -59,6 +59,7 @@ import net.corda.nodeapi.exceptions.NonRpcFlowException
 import net.corda.nodeapi.exceptions.RejectedCommandException
 import rx.Observable
 import rx.Subscription
+import rx.schedulers.Schedulers
 import java.io.InputStream
 import java.net.ConnectException
 import java.security.PublicKey
@@ -138,6 +139,30 @@ internal class CordaRPCOpsImpl(
         return services.vaultService._trackBy(criteria, paging, sorting, contractStateType)
     }
 
+    @RPCReturnsObservables
+    override fun <T : ContractState> vaultStreamBy(criteria: QueryCriteria,
+                                                   sorting: Sort,
+                                                   pageSize: Int,
+                                                   contractStateType: Class<out T>): Observable<Vault.Page<T>> {
+        contractStateType.checkIsA<ContractState>()
+        // The query is run on its own thread, rather than the RPC server's, as it is held for as long as the client takes to read it.
+        return Observable.create<Vault.Page<T>> { subscriber ->
+            try {
+                services.database.transaction {
+                    services.vaultService.streamPagesBy(criteria, sorting, pageSize, contractStateType).use { pages ->
+                        val iterator = pages.iterator()
+                        while (!subscriber.isUnsubscribed && iterator.hasNext()) {
+                            subscriber.onNext(iterator.next())
+                        }
+                    }
+                }
+                subscriber.onCompleted()
+            } catch (e: Exception) {
+                subscriber.onError(e)
+            }
+        }.subscribeOn(Schedulers.io())
+    }
+
     @Suppress("OVERRIDE_DEPRECATION", "OverridingDeprecatedMember", "DEPRECATION")
     override fun internalVerifiedTransactionsSnapshot(): List<SignedTransaction> {
         val (snapshot, updates) = internalVerifiedTransactionsFeed()
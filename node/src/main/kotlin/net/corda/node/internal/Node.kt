@@ -336,7 +336,8 @@ open class Node(configuration: NodeConfiguration,
                 networkParameters.maxMessageSize,
                 configuration.crlCheckSoftFail.toRevocationConfig(),
                 false,
-                artemisMessagingClientFactory
+                artemisMessagingClientFactory,
+                useNativeTransport = configuration.useNativeTransport
         )
     }
 
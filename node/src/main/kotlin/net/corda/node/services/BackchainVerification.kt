@@ -0,0 +1,66 @@
+package net.corda.node.services
+
+import net.corda.core.crypto.SecureHash
+import net.corda.core.flows.FlowExternalAsyncOperation
+import net.corda.node.services.api.ServiceHubInternal
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Verifies a group of unverified backchain transactions, none of which depend on each other, on the node's external operation thread
+ * pool. At most [parallelism] of the transactions are verified at the same time. The dependencies of the transactions must already have
+ * been recorded, and the transactions themselves are not recorded; that is left to the flow so that they are recorded in dependency order.
+ */
+internal class VerifyTransactionsOperation(
+        private val serviceHub: ServiceHubInternal,
+        private val txIds: List<SecureHash>,
+        private val parallelism: Int
+) : FlowExternalAsyncOperation<Unit> {
+    override fun execute(deduplicationId: String): CompletableFuture<Unit> {
+        return forEachConcurrently(txIds, parallelism, serviceHub.externalOperationExecutor) { txId ->
+            serviceHub.database.transaction {
+                val tx = checkNotNull(serviceHub.validatedTransactions.getTransactionWithStatus(txId)) {
+                    "Somehow the unverified transaction ($txId) that we stored previously is no longer there."
+                }.stx
+                tx.verify(serviceHub)
+            }
+        }
+    }
+}
+
+/**
+ * Runs [action] for each of the [items] on [executor], using at most [parallelism] threads at a time. The returned future completes once
+ * all the items have been processed, or exceptionally with the first failure, after which no further items are started.
+ */
+internal fun <T> forEachConcurrently(items: List<T>, parallelism: Int, executor: Executor, action: (T) -> Unit): CompletableFuture<Unit> {
+    val result = CompletableFuture<Unit>()
+    if (items.isEmpty()) {
+        result.complete(Unit)
+        return result
+    }
+    val next = AtomicInteger()
+    val workers = minOf(parallelism, items.size)
+    val remainingWorkers = AtomicInteger(workers)
+    repeat(workers) {
+        try {
+            executor.execute {
+                try {
+                    while (!result.isDone) {
+                        val index = next.getAndIncrement()
+                        if (index >= items.size) break
+                        action(items[index])
+                    }
+                    if (remainingWorkers.decrementAndGet() == 0) {
+                        result.complete(Unit)
+                    }
+                } catch (e: Throwable) {
+                    result.completeExceptionally(e)
+                }
+            }
+        } catch (e: Exception) {
+            result.completeExceptionally(e)
+        }
+    }
+    return result
+}
@@ -8,6 +8,7 @@ import net.corda.core.internal.ResolveTransactionsFlow
 import net.corda.core.internal.TransactionsResolver
 import net.corda.core.internal.dependencies
 import net.corda.core.node.StatesToRecord
+import net.corda.core.node.services.SignedTransactionWithStatus
 import net.corda.core.node.services.TransactionStatus
 import net.corda.core.transactions.SignedTransaction
 import net.corda.core.utilities.debug
@@ -45,7 +46,9 @@ class DbTransactionsResolver(private val flow: ResolveTransactionsFlow) : Transa
 
         val nextRequests = LinkedHashSet<SecureHash>(flow.txHashes) // Keep things unique but ordered, for unit test stability.
         val topologicalSort = TopologicalSort()
-        logger.debug { "DbTransactionsResolver.downloadDependencies(batchMode=$batchMode)" }
+        // Only counterparties which support batch mode can be asked for more than one transaction at a time.
+        val fetchBatchSize = if (batchMode) (flow.serviceHub as ServiceHubInternal).configuration.backchainFetchBatchSize else 1
+        logger.debug { "DbTransactionsResolver.downloadDependencies(batchMode=$batchMode, fetchBatchSize=$fetchBatchSize)" }
 
         while (nextRequests.isNotEmpty()) {
             logger.debug { "Main fetch loop: size_remaining=${nextRequests.size}" }
@@ -58,12 +61,24 @@ class DbTransactionsResolver(private val flow: ResolveTransactionsFlow) : Transa
             }
 
             // Request the standalone transaction data (which may refer to things we don't yet have).
-            val (existingTxIds, downloadedTxs) = fetchRequiredTransactions(Collections.singleton(nextRequests.first())) // Fetch first item only
+            val (existingTxIds, downloadedTxs) = if (fetchBatchSize == 1) {
+                fetchRequiredTransactions(Collections.singleton(nextRequests.first())) // Fetch first item only
+            } else {
+                fetchRequiredTransactions(nextRequests.take(fetchBatchSize).toCollection(LinkedHashSet()))
+            }
+            recordFetchMetrics(downloadedTxs.size)
             for (tx in downloadedTxs) {
                 val dependencies = tx.dependencies
                 topologicalSort.add(tx.id, dependencies)
             }
 
+            if (downloadedTxs.size > 1) {
+                storeDownloadedBatch(transactionStorage, downloadedTxs)
+                downloadedTxs.forEach { nextRequests.addAll(it.dependencies) }
+                nextRequests.removeAll(existingTxIds)
+                continue
+            }
+
             var suspended = true
             for (downloaded in downloadedTxs) {
                 suspended = false
@@ -97,15 +112,45 @@ class DbTransactionsResolver(private val flow: ResolveTransactionsFlow) : Transa
         logger.debug { "Downloaded ${sortedDependencies?.size} dependencies from remote peer for transactions ${flow.txHashes}" }
     }
 
+    /**
+     * Stores a batch of downloaded transactions. Any missing attachments and network parameters are fetched first, as that may suspend
+     * the flow. The transactions are then all written in the same database transaction, in order of their ids, so that flows storing
+     * overlapping batches claim the database locks in the same order.
+     */
+    @Suspendable
+    private fun storeDownloadedBatch(transactionStorage: WritableTransactionStorage, downloadedTxs: List<SignedTransaction>) {
+        for (downloaded in downloadedTxs) {
+            flow.fetchMissingAttachments(downloaded)
+            flow.fetchMissingNetworkParameters(downloaded)
+        }
+        for (downloaded in downloadedTxs.sortedBy { it.id.toString() }) {
+            transactionStorage.addUnverifiedTransaction(downloaded)
+        }
+        // Suspend to flush the batch to the database and release its locks.
+        FlowLogic.sleep(0.seconds)
+    }
+
+    private fun recordFetchMetrics(downloadedCount: Int) {
+        // Nothing is requested from the counterparty if all the transactions were found in the database.
+        if (downloadedCount == 0) return
+        val metrics = (flow.serviceHub as ServiceHubInternal).monitoringService.metrics
+        metrics.counter("Flows.Backchain.FetchRoundTrips").inc()
+        metrics.counter("Flows.Backchain.TransactionsDownloaded").inc(downloadedCount.toLong())
+        metrics.histogram("Flows.Backchain.TransactionsPerRoundTrip").update(downloadedCount)
+    }
+
     @Suspendable
     override fun recordDependencies(usedStatesToRecord: StatesToRecord) {
         val sortedDependencies = checkNotNull(this.sortedDependencies)
         logger.trace { "Recording ${sortedDependencies.size} dependencies for ${flow.txHashes.size} transactions" }
+        val verificationParallelism = (flow.serviceHub as ServiceHubInternal).configuration.backchainVerificationParallelism
+        if (verificationParallelism > 1) {
+            recordDependenciesConcurrently(usedStatesToRecord, sortedDependencies, verificationParallelism)
+            return
+        }
         for (txId in sortedDependencies) {
             // Retrieve and delete the transaction from the unverified store.
-            val (tx, txStatus) = checkNotNull(flow.serviceHub.validatedTransactions.getTransactionWithStatus(txId)) {
-                "Somehow the unverified transaction ($txId) that we stored previously is no longer there."
-            }
+            val (tx, txStatus) = getTransactionWithStatus(txId)
             if (txStatus == TransactionStatus.UNVERIFIED) {
                 tx.verify(flow.serviceHub)
                 (flow.serviceHub as ServiceHubInternal).recordTransactions(usedStatesToRecord, listOf(tx), false, disableSoftLocking = true)
@@ -115,6 +160,59 @@ class DbTransactionsResolver(private val flow: ResolveTransactionsFlow) : Transa
         }
     }
 
+    /**
+     * Verifies the unverified dependencies a level of the dependency graph at a time, where each level only depends on the levels before
+     * it. The transactions in a level are verified concurrently off the flow's thread, and are then recorded by the flow in dependency
+     * order. The flow suspends before verifying each level so that the levels before it are committed to the database, and are visible to
+     * the verifying threads. A level with a single transaction is verified by the flow directly, to avoid the suspend.
+     */
+    @Suspendable
+    private fun recordDependenciesConcurrently(usedStatesToRecord: StatesToRecord, sortedDependencies: List<SecureHash>, parallelism: Int) {
+        val serviceHub = flow.serviceHub as ServiceHubInternal
+        for (level in verificationLevels(sortedDependencies)) {
+            if (level.size > 1) {
+                flow.await(VerifyTransactionsOperation(serviceHub, level, parallelism))
+            }
+            for (txId in level) {
+                val tx = getTransactionWithStatus(txId).stx
+                if (level.size == 1) {
+                    tx.verify(serviceHub)
+                }
+                serviceHub.recordTransactions(usedStatesToRecord, listOf(tx), false, disableSoftLocking = true)
+            }
+        }
+    }
+
+    /**
+     * Groups the unverified transactions in [sortedDependencies] by their depth in the dependency graph, so that the transactions in each
+     * group only depend on transactions in earlier groups, or on transactions which are already verified.
+     */
+    private fun verificationLevels(sortedDependencies: List<SecureHash>): List<List<SecureHash>> {
+        val depths = HashMap<SecureHash, Int>()
+        val levels = ArrayList<MutableList<SecureHash>>()
+        for (txId in sortedDependencies) {
+            val (tx, txStatus) = getTransactionWithStatus(txId)
+            if (txStatus != TransactionStatus.UNVERIFIED) {
+                logger.debug { "No need to record $txId as it's already been verified" }
+                continue
+            }
+            val depth = (tx.dependencies.maxOfOrNull { depths[it] ?: -1 } ?: -1) + 1
+            depths[txId] = depth
+            if (depth == levels.size) {
+                levels += ArrayList<SecureHash>()
+            }
+            levels[depth] += txId
+        }
+        logger.debug { "Verifying ${depths.size} dependencies in ${levels.size} levels" }
+        return levels
+    }
+
+    private fun getTransactionWithStatus(txId: SecureHash): SignedTransactionWithStatus {
+        return checkNotNull(flow.serviceHub.validatedTransactions.getTransactionWithStatus(txId)) {
+            "Somehow the unverified transaction ($txId) that we stored previously is no longer there."
+        }
+    }
+
     // The transactions already present in the database do not need to be checkpointed on every iteration of downloading
     // dependencies for other transactions, so strip these down to just the IDs here.
     @Suspendable
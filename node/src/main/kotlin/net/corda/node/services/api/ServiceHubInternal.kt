@@ -424,6 +424,14 @@ interface WritableTransactionStorage : TransactionStorage {
      * a DB transaction.
      */
     fun trackTransactionWithNoWarning(id: SecureHash): CordaFuture<SignedTransaction>
+
+    /**
+     * Returns those of the *verified* transactions with the given [ids] which are in the store, in the same way as [getTransaction] but
+     * allowing the implementation to load them together.
+     */
+    fun getTransactions(ids: Collection<SecureHash>): Map<SecureHash, SignedTransaction> {
+        return ids.mapNotNull { id -> getTransaction(id)?.let { id to it } }.toMap()
+    }
 }
 
 /**
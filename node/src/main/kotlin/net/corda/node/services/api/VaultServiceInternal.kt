@@ -1,10 +1,15 @@
 package net.corda.node.services.api
 
+import net.corda.core.contracts.ContractState
 import net.corda.core.node.StatesToRecord
+import net.corda.core.node.services.Vault
 import net.corda.core.node.services.VaultService
+import net.corda.core.node.services.vault.QueryCriteria
+import net.corda.core.node.services.vault.Sort
 import net.corda.core.transactions.CoreTransaction
 import net.corda.core.transactions.NotaryChangeWireTransaction
 import net.corda.core.transactions.WireTransaction
+import java.util.stream.Stream
 
 interface VaultServiceInternal : VaultService {
     fun start()
@@ -23,4 +28,13 @@ interface VaultServiceInternal : VaultService {
      * This does not allow for passing transactions that have already been seen by the node, as this API is only used in testing.
      */
     fun notify(statesToRecord: StatesToRecord, tx: CoreTransaction) = notifyAll(statesToRecord, listOf(tx))
+
+    /**
+     * Returns the states matching [criteria] as a [Stream] of pages of up to [pageSize] states each, with the same requirements as
+     * [VaultService._streamBy]. The pages do not include the total number of states available.
+     */
+    fun <T : ContractState> streamPagesBy(criteria: QueryCriteria,
+                                          sorting: Sort,
+                                          pageSize: Int,
+                                          contractStateType: Class<out T>): Stream<Vault.Page<T>>
 }
@@ -98,6 +98,32 @@ interface NodeConfiguration : ConfigurationWithOptionsContainer {
 
     val reloadCheckpointAfterSuspend: Boolean
 
+    val externalVerifierPoolSize: Int get() = DEFAULT_EXTERNAL_VERIFIER_POOL_SIZE
+
+    val checkpointGroupCommit: CheckpointGroupCommitConfiguration? get() = null
+
+    val checkpointDeltaEncoding: CheckpointDeltaEncodingConfiguration? get() = null
+
+    val checkpointRestoreParallelism: Int get() = DEFAULT_CHECKPOINT_RESTORE_PARALLELISM
+
+    val stateMachineShards: Int get() = DEFAULT_STATE_MACHINE_SHARDS
+
+    val p2pSendQueueCapacity: Int get() = DEFAULT_P2P_SEND_QUEUE_CAPACITY
+
+    val p2pDeduplicationFilter: P2PDeduplicationFilterConfiguration? get() = null
+
+    val backchainFetchBatchSize: Int get() = DEFAULT_BACKCHAIN_FETCH_BATCH_SIZE
+
+    val backchainVerificationParallelism: Int get() = DEFAULT_BACKCHAIN_VERIFICATION_PARALLELISM
+
+    val verifiedSignatureCacheSize: Long get() = DEFAULT_VERIFIED_SIGNATURE_CACHE_SIZE
+
+    val transactionStateCacheSizeMegaBytes: Int get() = DEFAULT_TRANSACTION_STATE_CACHE_SIZE_MEGA_BYTES
+
+    val useNativeTransport: Boolean get() = DEFAULT_USE_NATIVE_TRANSPORT
+
+    val stateMappingParallelism: Int get() = DEFAULT_STATE_MAPPING_PARALLELISM
+
     companion object {
         // default to at least 8MB and a bit extra for larger heap sizes
         val defaultTransactionCacheSize: Long = 8.MB + getAdditionalCacheMemory()
@@ -115,6 +141,17 @@ interface NodeConfiguration : ConfigurationWithOptionsContainer {
         const val cordappDirectoriesKey = "cordappDirectories"
 
         internal val defaultJmxReporterType = JmxReporterType.JOLOKIA
+
+        internal const val DEFAULT_EXTERNAL_VERIFIER_POOL_SIZE = 1
+        internal const val DEFAULT_CHECKPOINT_RESTORE_PARALLELISM = 1
+        internal const val DEFAULT_STATE_MACHINE_SHARDS = 1
+        internal const val DEFAULT_P2P_SEND_QUEUE_CAPACITY = 0
+        internal const val DEFAULT_BACKCHAIN_FETCH_BATCH_SIZE = 1
+        internal const val DEFAULT_BACKCHAIN_VERIFICATION_PARALLELISM = 1
+        internal const val DEFAULT_VERIFIED_SIGNATURE_CACHE_SIZE = 10_000L
+        internal const val DEFAULT_TRANSACTION_STATE_CACHE_SIZE_MEGA_BYTES = 0
+        internal const val DEFAULT_USE_NATIVE_TRANSPORT = false
+        internal const val DEFAULT_STATE_MAPPING_PARALLELISM = 1
     }
 }
 
@@ -215,6 +252,76 @@ data class FlowTimeoutConfiguration(
         val backoffBase: Double
 )
 
+/**
+ * Enables group commit of the checkpoint-only database transactions of flows, such as the initial checkpoint written when a flow starts.
+ * Rather than each flow committing its own transaction, the checkpoints of many flows are written in one transaction and committed
+ * together, and each flow only continues once that shared commit has succeeded.
+ *
+ * @property maxBatchSize The maximum number of flows whose checkpoints are committed in the same transaction.
+ * @property maxDelay The maximum time to wait for other flows to join a group before it's committed.
+ */
+data class CheckpointGroupCommitConfiguration(
+        val maxBatchSize: Int = Defaults.maxBatchSize,
+        val maxDelay: Duration = Defaults.maxDelay
+) {
+    init {
+        require(maxBatchSize > 0) { "'checkpointGroupCommit.maxBatchSize' must be positive" }
+        require(!maxDelay.isNegative) { "'checkpointGroupCommit.maxDelay' must not be negative" }
+    }
+
+    internal object Defaults {
+        const val maxBatchSize = 100
+        val maxDelay: Duration = Duration.ofMillis(5)
+    }
+}
+
+/**
+ * Enables delta encoding of flow checkpoints. Rather than writing the whole serialized flow state on every suspension, a flow's checkpoint
+ * is stored as a full base snapshot plus a binary delta against that base, and only the delta is rewritten until it grows too large.
+ *
+ * @property compactionThreshold Once a delta would be larger than this fraction of the full checkpoint, a new full base snapshot is
+ * written instead.
+ */
+data class CheckpointDeltaEncodingConfiguration(
+        val compactionThreshold: Double = Defaults.compactionThreshold
+) {
+    init {
+        require(compactionThreshold > 0.0 && compactionThreshold <= 1.0) {
+            "'checkpointDeltaEncoding.compactionThreshold' must be greater than 0 and at most 1"
+        }
+    }
+
+    internal object Defaults {
+        const val compactionThreshold = 0.5
+    }
+}
+
+/**
+ * Enables an in-memory bloom filter of the ids of the P2P messages the node has already processed, which is consulted before the
+ * deduplication table. A message the filter has definitely not seen is new and doesn't need a database lookup. The filter grows by adding
+ * further filters once it holds [expectedMessages] ids, so it never needs to be rebuilt while the node is running.
+ *
+ * @property expectedMessages The number of message ids each filter is sized for.
+ * @property falsePositiveProbability The probability of a filter reporting a new message as possibly seen before, which is then checked
+ * against the database.
+ */
+data class P2PDeduplicationFilterConfiguration(
+        val expectedMessages: Long = Defaults.expectedMessages,
+        val falsePositiveProbability: Double = Defaults.falsePositiveProbability
+) {
+    init {
+        require(expectedMessages > 0) { "'p2pDeduplicationFilter.expectedMessages' must be positive" }
+        require(falsePositiveProbability > 0.0 && falsePositiveProbability < 1.0) {
+            "'p2pDeduplicationFilter.falsePositiveProbability' must be greater than 0 and less than 1"
+        }
+    }
+
+    internal object Defaults {
+        const val expectedMessages = 1_000_000L
+        const val falsePositiveProbability = 0.01
+    }
+}
+
 data class TelemetryConfiguration(
         val openTelemetryEnabled: Boolean,
         val simpleLogTelemetryEnabled: Boolean,
@@ -87,6 +87,19 @@ data class NodeConfigurationImpl(
         override val flowExternalOperationThreadPoolSize: Int = Defaults.flowExternalOperationThreadPoolSize,
         override val quasarExcludePackages: List<String> = Defaults.quasarExcludePackages,
         override val reloadCheckpointAfterSuspend: Boolean = Defaults.reloadCheckpointAfterSuspend,
+        override val externalVerifierPoolSize: Int = Defaults.externalVerifierPoolSize,
+        override val checkpointGroupCommit: CheckpointGroupCommitConfiguration? = Defaults.checkpointGroupCommit,
+        override val checkpointDeltaEncoding: CheckpointDeltaEncodingConfiguration? = Defaults.checkpointDeltaEncoding,
+        override val checkpointRestoreParallelism: Int = Defaults.checkpointRestoreParallelism,
+        override val stateMachineShards: Int = Defaults.stateMachineShards,
+        override val p2pSendQueueCapacity: Int = Defaults.p2pSendQueueCapacity,
+        override val p2pDeduplicationFilter: P2PDeduplicationFilterConfiguration? = Defaults.p2pDeduplicationFilter,
+        override val backchainFetchBatchSize: Int = Defaults.backchainFetchBatchSize,
+        override val backchainVerificationParallelism: Int = Defaults.backchainVerificationParallelism,
+        override val verifiedSignatureCacheSize: Long = Defaults.verifiedSignatureCacheSize,
+        override val transactionStateCacheSizeMegaBytes: Int = Defaults.transactionStateCacheSizeMegaBytes,
+        override val useNativeTransport: Boolean = Defaults.useNativeTransport,
+        override val stateMappingParallelism: Int = Defaults.stateMappingParallelism,
         override val networkParametersPath: Path = baseDirectory
 
 ) : NodeConfiguration {
@@ -127,6 +140,19 @@ data class NodeConfigurationImpl(
         const val flowExternalOperationThreadPoolSize: Int = 1
         val quasarExcludePackages: List<String> = emptyList()
         val reloadCheckpointAfterSuspend: Boolean = System.getProperty("reloadCheckpointAfterSuspend", "false")!!.toBoolean()
+        const val externalVerifierPoolSize: Int = NodeConfiguration.DEFAULT_EXTERNAL_VERIFIER_POOL_SIZE
+        val checkpointGroupCommit: CheckpointGroupCommitConfiguration? = null
+        val checkpointDeltaEncoding: CheckpointDeltaEncodingConfiguration? = null
+        const val checkpointRestoreParallelism: Int = NodeConfiguration.DEFAULT_CHECKPOINT_RESTORE_PARALLELISM
+        const val stateMachineShards: Int = NodeConfiguration.DEFAULT_STATE_MACHINE_SHARDS
+        const val p2pSendQueueCapacity: Int = NodeConfiguration.DEFAULT_P2P_SEND_QUEUE_CAPACITY
+        val p2pDeduplicationFilter: P2PDeduplicationFilterConfiguration? = null
+        const val backchainFetchBatchSize: Int = NodeConfiguration.DEFAULT_BACKCHAIN_FETCH_BATCH_SIZE
+        const val backchainVerificationParallelism: Int = NodeConfiguration.DEFAULT_BACKCHAIN_VERIFICATION_PARALLELISM
+        const val verifiedSignatureCacheSize: Long = NodeConfiguration.DEFAULT_VERIFIED_SIGNATURE_CACHE_SIZE
+        const val transactionStateCacheSizeMegaBytes: Int = NodeConfiguration.DEFAULT_TRANSACTION_STATE_CACHE_SIZE_MEGA_BYTES
+        const val useNativeTransport: Boolean = NodeConfiguration.DEFAULT_USE_NATIVE_TRANSPORT
+        const val stateMappingParallelism: Int = NodeConfiguration.DEFAULT_STATE_MAPPING_PARALLELISM
 
         fun cordappsDirectories(baseDirectory: Path) = listOf(baseDirectory / CORDAPPS_DIR_NAME_DEFAULT)
 
@@ -179,6 +205,15 @@ data class NodeConfigurationImpl(
             networkServices = NetworkServicesConfig(compatibilityZoneURL, compatibilityZoneURL, inferred = true)
         }
         require(h2port == null || h2Settings == null) { "Cannot specify both 'h2port' and 'h2Settings' in configuration" }
+        require(externalVerifierPoolSize > 0) { "'externalVerifierPoolSize' must be positive" }
+        require(checkpointRestoreParallelism > 0) { "'checkpointRestoreParallelism' must be positive" }
+        require(stateMachineShards > 0) { "'stateMachineShards' must be positive" }
+        require(p2pSendQueueCapacity >= 0) { "'p2pSendQueueCapacity' must not be negative" }
+        require(backchainFetchBatchSize > 0) { "'backchainFetchBatchSize' must be positive" }
+        require(backchainVerificationParallelism > 0) { "'backchainVerificationParallelism' must be positive" }
+        require(verifiedSignatureCacheSize >= 0) { "'verifiedSignatureCacheSize' must not be negative" }
+        require(transactionStateCacheSizeMegaBytes >= 0) { "'transactionStateCacheSizeMegaBytes' must not be negative" }
+        require(stateMappingParallelism > 0) { "'stateMappingParallelism' must be positive" }
     }
 
     override val certificatesDirectory = baseDirectory / "certificates"
@@ -17,6 +17,8 @@ import net.corda.core.internal.notary.NotaryServiceFlow
 import net.corda.node.services.config.AuthDataSourceType
 import net.corda.node.services.config.CertChainPolicyConfig
 import net.corda.node.services.config.CertChainPolicyType
+import net.corda.node.services.config.CheckpointDeltaEncodingConfiguration
+import net.corda.node.services.config.CheckpointGroupCommitConfiguration
 import net.corda.node.services.config.DevModeOptions
 import net.corda.node.services.config.FlowOverride
 import net.corda.node.services.config.FlowOverrideConfig
@@ -26,6 +28,7 @@ import net.corda.node.services.config.NetworkServicesConfig
 import net.corda.node.services.config.NodeH2Settings
 import net.corda.node.services.config.NodeRpcSettings
 import net.corda.node.services.config.NotaryConfig
+import net.corda.node.services.config.P2PDeduplicationFilterConfiguration
 import net.corda.node.services.config.PasswordEncryption
 import net.corda.node.services.config.SecurityConfiguration
 import net.corda.node.services.config.SecurityConfiguration.AuthService.Companion.defaultAuthServiceId
@@ -213,6 +216,45 @@ internal object FlowTimeoutConfigurationSpec : Configuration.Specification<FlowT
     }
 }
 
+internal object CheckpointGroupCommitConfigurationSpec :
+        Configuration.Specification<CheckpointGroupCommitConfiguration>("CheckpointGroupCommitConfiguration") {
+    private val maxBatchSize by int().optional().withDefaultValue(CheckpointGroupCommitConfiguration.Defaults.maxBatchSize)
+    private val maxDelay by duration().optional().withDefaultValue(CheckpointGroupCommitConfiguration.Defaults.maxDelay)
+
+    override fun parseValid(configuration: Config, options: Configuration.Options): Valid<CheckpointGroupCommitConfiguration> {
+        val config = configuration.withOptions(options)
+        return attempt<CheckpointGroupCommitConfiguration, IllegalArgumentException> {
+            CheckpointGroupCommitConfiguration(config[maxBatchSize], config[maxDelay])
+        }
+    }
+}
+
+internal object CheckpointDeltaEncodingConfigurationSpec :
+        Configuration.Specification<CheckpointDeltaEncodingConfiguration>("CheckpointDeltaEncodingConfiguration") {
+    private val compactionThreshold by double().optional().withDefaultValue(CheckpointDeltaEncodingConfiguration.Defaults.compactionThreshold)
+
+    override fun parseValid(configuration: Config, options: Configuration.Options): Valid<CheckpointDeltaEncodingConfiguration> {
+        val config = configuration.withOptions(options)
+        return attempt<CheckpointDeltaEncodingConfiguration, IllegalArgumentException> {
+            CheckpointDeltaEncodingConfiguration(config[compactionThreshold])
+        }
+    }
+}
+
+internal object P2PDeduplicationFilterConfigurationSpec :
+        Configuration.Specification<P2PDeduplicationFilterConfiguration>("P2PDeduplicationFilterConfiguration") {
+    private val expectedMessages by long().optional().withDefaultValue(P2PDeduplicationFilterConfiguration.Defaults.expectedMessages)
+    private val falsePositiveProbability by double().optional()
+            .withDefaultValue(P2PDeduplicationFilterConfiguration.Defaults.falsePositiveProbability)
+
+    override fun parseValid(configuration: Config, options: Configuration.Options): Valid<P2PDeduplicationFilterConfiguration> {
+        val config = configuration.withOptions(options)
+        return attempt<P2PDeduplicationFilterConfiguration, IllegalArgumentException> {
+            P2PDeduplicationFilterConfiguration(config[expectedMessages], config[falsePositiveProbability])
+        }
+    }
+}
+
 internal object TelemetryConfigurationSpec : Configuration.Specification<TelemetryConfiguration>("TelemetryConfiguration") {
     private val openTelemetryEnabled by boolean()
     private val simpleLogTelemetryEnabled by boolean()
@@ -67,6 +67,19 @@ internal object V1NodeConfigurationSpec : Configuration.Specification<NodeConfig
     private val flowExternalOperationThreadPoolSize by int().optional().withDefaultValue(Defaults.flowExternalOperationThreadPoolSize)
     private val quasarExcludePackages by string().list().optional().withDefaultValue(Defaults.quasarExcludePackages)
     private val reloadCheckpointAfterSuspend by boolean().optional().withDefaultValue(Defaults.reloadCheckpointAfterSuspend)
+    private val externalVerifierPoolSize by int().optional().withDefaultValue(Defaults.externalVerifierPoolSize)
+    private val checkpointGroupCommit by nested(CheckpointGroupCommitConfigurationSpec).optional()
+    private val checkpointDeltaEncoding by nested(CheckpointDeltaEncodingConfigurationSpec).optional()
+    private val checkpointRestoreParallelism by int().optional().withDefaultValue(Defaults.checkpointRestoreParallelism)
+    private val stateMachineShards by int().optional().withDefaultValue(Defaults.stateMachineShards)
+    private val p2pSendQueueCapacity by int().optional().withDefaultValue(Defaults.p2pSendQueueCapacity)
+    private val p2pDeduplicationFilter by nested(P2PDeduplicationFilterConfigurationSpec).optional()
+    private val backchainFetchBatchSize by int().optional().withDefaultValue(Defaults.backchainFetchBatchSize)
+    private val backchainVerificationParallelism by int().optional().withDefaultValue(Defaults.backchainVerificationParallelism)
+    private val verifiedSignatureCacheSize by long().optional().withDefaultValue(Defaults.verifiedSignatureCacheSize)
+    private val transactionStateCacheSizeMegaBytes by int().optional().withDefaultValue(Defaults.transactionStateCacheSizeMegaBytes)
+    private val useNativeTransport by boolean().optional().withDefaultValue(Defaults.useNativeTransport)
+    private val stateMappingParallelism by int().optional().withDefaultValue(Defaults.stateMappingParallelism)
     private val networkParametersPath by string().mapValid(::toPath).optional()
     @Suppress("unused")
     private val custom by nestedObject().optional()
@@ -138,6 +151,19 @@ internal object V1NodeConfigurationSpec : Configuration.Specification<NodeConfig
                     flowExternalOperationThreadPoolSize = config[flowExternalOperationThreadPoolSize],
                     quasarExcludePackages = config[quasarExcludePackages],
                     reloadCheckpointAfterSuspend = config[reloadCheckpointAfterSuspend],
+                    externalVerifierPoolSize = config[externalVerifierPoolSize],
+                    checkpointGroupCommit = config[checkpointGroupCommit],
+                    checkpointDeltaEncoding = config[checkpointDeltaEncoding],
+                    checkpointRestoreParallelism = config[checkpointRestoreParallelism],
+                    stateMachineShards = config[stateMachineShards],
+                    p2pSendQueueCapacity = config[p2pSendQueueCapacity],
+                    p2pDeduplicationFilter = config[p2pDeduplicationFilter],
+                    backchainFetchBatchSize = config[backchainFetchBatchSize],
+                    backchainVerificationParallelism = config[backchainVerificationParallelism],
+                    verifiedSignatureCacheSize = config[verifiedSignatureCacheSize],
+                    transactionStateCacheSizeMegaBytes = config[transactionStateCacheSizeMegaBytes],
+                    useNativeTransport = config[useNativeTransport],
+                    stateMappingParallelism = config[stateMappingParallelism],
                     networkParametersPath = networkParametersPath
             ))
         } catch (e: Exception) {
@@ -1,5 +1,6 @@
 package net.corda.node.services.keys
 
+import com.google.common.hash.Funnels
 import net.corda.core.crypto.Crypto
 import net.corda.core.crypto.DigitalSignature
 import net.corda.core.crypto.SignableData
@@ -10,12 +11,15 @@ import net.corda.core.crypto.keys
 import net.corda.core.crypto.sign
 import net.corda.core.crypto.toStringShort
 import net.corda.core.internal.NamedCacheFactory
+import net.corda.core.internal.VisibleForTesting
 import net.corda.core.internal.telemetry.TelemetryServiceImpl
 import net.corda.core.serialization.SingletonSerializeAsToken
 import net.corda.core.serialization.serialize
 import net.corda.core.utilities.MAX_HASH_HEX_SIZE
+import net.corda.core.utilities.contextLogger
 import net.corda.node.services.identity.PersistentIdentityService
 import net.corda.node.utilities.AppendOnlyPersistentMap
+import net.corda.node.utilities.ScalableBloomFilter
 import net.corda.nodeapi.internal.cryptoservice.SignOnlyCryptoService
 import net.corda.nodeapi.internal.persistence.CordaPersistence
 import net.corda.nodeapi.internal.persistence.NODE_DATABASE_PREFIX
@@ -30,6 +34,7 @@ import javax.persistence.Entity
 import javax.persistence.Id
 import javax.persistence.Lob
 import javax.persistence.Table
+import kotlin.concurrent.thread
 
 /**
  * A persistent implementation of [KeyManagementServiceInternal] to support CryptoService for initial keys and
@@ -67,6 +72,12 @@ class BasicHSMKeyManagementService(
     }
 
     private companion object {
+        private val log = contextLogger()
+
+        /** The number of fresh keys each of the filter's bloom filters holds. The filter grows by adding more once one is full. */
+        private const val FRESH_KEYS_FILTER_SIZE = 100_000L
+        private const val FRESH_KEYS_FILTER_FALSE_POSITIVE_PROBABILITY = 0.01
+
         fun createKeyMap(cacheFactory: NamedCacheFactory): AppendOnlyPersistentMap<PublicKey, PrivateKey, PersistentKey, String> {
             return AppendOnlyPersistentMap(
                     cacheFactory = cacheFactory,
@@ -87,10 +98,45 @@ class BasicHSMKeyManagementService(
     // A map for anonymous keys.
     private val keysMap = createKeyMap(cacheFactory)
 
+    // The hashes of our anonymous keys, so that the many candidate keys which are not ours can be ruled out without querying the database.
+    // Keys are added as they are created, but the filter is only consulted once all previously created keys have been loaded.
+    private val freshKeysFilter = ScalableBloomFilter<String>(
+            Funnels.stringFunnel(Charsets.UTF_8),
+            FRESH_KEYS_FILTER_SIZE,
+            FRESH_KEYS_FILTER_FALSE_POSITIVE_PROBABILITY
+    )
+    @Volatile
+    private var freshKeysFilterLoaded = false
+
+    @VisibleForTesting
+    internal val isFreshKeysFilterLoaded: Boolean get() = freshKeysFilterLoaded
+
     override fun start(initialKeysAndAliases: Iterable<Pair<PublicKey, String>>) {
         initialKeysAndAliases.forEach {
             originalKeysMap[Crypto.toSupportedPublicKey(it.first)] = it.second
         }
+        thread(name = "Fresh keys filter loader", isDaemon = true) { loadFreshKeysFilter() }
+    }
+
+    private fun loadFreshKeysFilter() {
+        try {
+            val startTime = System.nanoTime()
+            var count = 0L
+            database.transaction {
+                session.createQuery("select k.publicKeyHash from ${PersistentKey::class.java.name} k", String::class.java)
+                        .resultStream
+                        .use { hashes ->
+                            hashes.forEach {
+                                freshKeysFilter.put(it)
+                                count++
+                            }
+                        }
+            }
+            freshKeysFilterLoaded = true
+            log.info("Loaded $count fresh keys into ${freshKeysFilter.filterCount} filters in ${(System.nanoTime() - startTime) / 1_000_000} ms")
+        } catch (e: Exception) {
+            log.error("Failed to load the fresh keys filter, keys will continue to be looked up in the database", e)
+        }
     }
 
     override val keys: Set<PublicKey>
@@ -106,14 +152,25 @@ class BasicHSMKeyManagementService(
         return (publicKey in originalKeysMap || publicKey in keysMap)
     }
 
-    override fun filterMyKeys(candidateKeys: Iterable<PublicKey>): Iterable<PublicKey> = database.transaction {
-        candidateKeys.filter(::containsPublicKey)
+    override fun filterMyKeys(candidateKeys: Iterable<PublicKey>): Iterable<PublicKey> {
+        if (!freshKeysFilterLoaded) {
+            return database.transaction { candidateKeys.filter(::containsPublicKey) }
+        }
+        // Only the candidates which may be our anonymous keys need looking up, which usually avoids the database altogether.
+        val possibleFreshKeys = candidateKeys.filterTo(HashSet()) { it !in originalKeysMap && freshKeysFilter.mightContain(it.toStringShort()) }
+        if (possibleFreshKeys.isEmpty()) {
+            return candidateKeys.filter { it in originalKeysMap }
+        }
+        return database.transaction {
+            candidateKeys.filter { it in originalKeysMap || (it in possibleFreshKeys && it in keysMap) }
+        }
     }
 
     override fun freshKeyInternal(externalId: UUID?): PublicKey {
         val keyPair = generateKeyPair()
         database.transaction {
             keysMap[keyPair.public] = keyPair.private
+            freshKeysFilter.put(keyPair.public.toStringShort())
             // Register the key to our identity.
             // No checks performed here as entries for the new key couldn't have existed before in the maps.
             identityService.registerKeyToParty(keyPair.public)
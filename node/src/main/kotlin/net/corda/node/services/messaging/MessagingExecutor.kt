@@ -1,8 +1,12 @@
 package net.corda.node.services.messaging
 
+import com.codahale.metrics.Gauge
+import com.codahale.metrics.MetricRegistry
+import com.codahale.metrics.Timer
 import net.corda.core.messaging.MessageRecipients
 import net.corda.core.utilities.contextLogger
 import net.corda.core.utilities.debug
+import net.corda.core.utilities.seconds
 import net.corda.core.utilities.trace
 import net.corda.node.VersionInfo
 import net.corda.node.services.statemachine.FlowMessagingImpl
@@ -11,7 +15,15 @@ import org.apache.activemq.artemis.api.core.SimpleString
 import org.apache.activemq.artemis.api.core.client.ClientMessage
 import org.apache.activemq.artemis.api.core.client.ClientProducer
 import org.apache.activemq.artemis.api.core.client.ClientSession
+import org.apache.activemq.artemis.api.core.client.SendAcknowledgementHandler
+import java.time.Duration
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.atomic.AtomicLong
+import kotlin.concurrent.thread
 
 interface AddressToArtemisQueueResolver {
     /**
@@ -21,17 +33,32 @@ interface AddressToArtemisQueueResolver {
 }
 
 /**
- * The [MessagingExecutor] is responsible for handling send and acknowledge jobs. It batches them using a bounded
- * blocking queue, submits the jobs asynchronously and then waits for them to flush using [ClientSession.commit].
- * Note that even though we buffer in theory this shouldn't increase latency as the executor is immediately woken up if
- * it was waiting. The number of jobs in the queue is only ever greater than 1 if the commit takes a long time.
+ * The [MessagingExecutor] is responsible for handling send and acknowledge jobs.
+ *
+ * By default each job is run directly on the calling thread, with the single [session] being guarded by the executor's monitor. If
+ * [sendQueueCapacity] is positive the jobs are instead handed over to a bounded blocking queue, which is drained by a dedicated sender
+ * thread. The sender submits the messages using Artemis asynchronous sends, so that it doesn't wait for the broker to confirm each one,
+ * and batches up the acknowledgements that were queued alongside them. The acknowledgements are only issued once the broker has confirmed
+ * every message sent in the same batch. Note that even though we buffer this shouldn't increase latency as the sender is immediately woken
+ * up if it was waiting. The number of jobs in the queue is only ever greater than 1 if the broker is slow to accept them, at which point
+ * callers block once the queue is full.
+ *
+ * If the broker fails to accept a message, or doesn't confirm it within [sendConfirmationTimeout], then only the jobs which may depend on
+ * it are affected: the acknowledgements queued after the failed send, up until the sender thread notices the failure, are not issued so
+ * that the messages which caused the sends are redelivered. The executor carries on with the jobs queued after that. The failure is also
+ * passed to [onSendFailure], as the flows believe the message has been sent, which only a restart from their checkpoints can correct.
  */
+@Suppress("LongParameterList")
 class MessagingExecutor(
         val session: ClientSession,
         val producer: ClientProducer,
         val versionInfo: VersionInfo,
         val resolver: AddressToArtemisQueueResolver,
-        val ourSenderUUID: String
+        val ourSenderUUID: String,
+        private val onSendFailure: (Exception) -> Unit,
+        private val sendQueueCapacity: Int = 0,
+        metricRegistry: MetricRegistry = MetricRegistry(),
+        private val sendConfirmationTimeout: Duration = SEND_CONFIRMATION_TIMEOUT
 ) {
     private val cordaVendor = SimpleString(versionInfo.vendor)
     private val releaseVersion = SimpleString(versionInfo.releaseVersion)
@@ -40,26 +67,78 @@ class MessagingExecutor(
     private companion object {
         val log = contextLogger()
         val amqDelayMillis = System.getProperty("amq.delivery.delay.ms", "0").toInt()
+        const val MAX_BATCH_SIZE = 1024
+        const val SHUTDOWN_TIMEOUT_SECONDS = 30L
+        val SEND_CONFIRMATION_TIMEOUT: Duration = 60.seconds
+    }
+
+    private sealed class Job {
+        class Send(val address: SimpleString, val message: ClientMessage, val queued: Timer.Context) : Job()
+        class Acknowledge(val message: ClientMessage) : Job()
+        object Shutdown : Job()
+    }
+
+    private val sendQueue: BlockingQueue<Job>? = if (sendQueueCapacity > 0) LinkedBlockingQueue(sendQueueCapacity) else null
+    private val sendLatency = metricRegistry.timer("P2P.SendLatency")
+    private val sendFailures = metricRegistry.meter("P2P.SendFailures")
+    @Volatile
+    private var closed = false
+    private val failureReported = AtomicBoolean()
+    private val senderThread: Thread? = sendQueue?.let { queue ->
+        metricRegistry.register("P2P.SendQueueDepth", Gauge { queue.size })
+        thread(name = "P2P message sender", isDaemon = true) { drain(queue) }
     }
 
-    @Synchronized
     fun send(message: Message, target: MessageRecipients) {
+        if (sendQueue == null) {
+            sendSynchronously(message, target)
+            return
+        }
+        check(!closed) { "Messaging executor has been closed" }
         val mqAddress = resolver.resolveTargetToArtemisQueue(target)
         val artemisMessage = cordaToArtemisMessage(message)
         log.trace {
-            "Send to: $mqAddress topic: ${message.topic} " +
+            "Queue send to: $mqAddress topic: ${message.topic} " +
                     "sessionID: ${message.topic} id: ${message.uniqueMessageId}"
         }
-        producer.send(SimpleString(mqAddress), artemisMessage)
+        sendQueue.put(Job.Send(SimpleString(mqAddress), artemisMessage!!, sendLatency.time()))
     }
 
     @Synchronized
+    private fun sendSynchronously(message: Message, target: MessageRecipients) {
+        val mqAddress = resolver.resolveTargetToArtemisQueue(target)
+        val artemisMessage = cordaToArtemisMessage(message)
+        log.trace {
+            "Send to: $mqAddress topic: ${message.topic} " +
+                    "sessionID: ${message.topic} id: ${message.uniqueMessageId}"
+        }
+        sendLatency.time().use { producer.send(SimpleString(mqAddress), artemisMessage) }
+    }
+
     fun sendAll(messages: List<Pair<MessageRecipients, Message>>) {
-        messages.forEach { (recipients, message) -> send(message, recipients) }
+        if (sendQueue == null) {
+            sendAllSynchronously(messages)
+        } else {
+            messages.forEach { (recipients, message) -> send(message, recipients) }
+        }
     }
 
     @Synchronized
+    private fun sendAllSynchronously(messages: List<Pair<MessageRecipients, Message>>) {
+        messages.forEach { (recipients, message) -> sendSynchronously(message, recipients) }
+    }
+
     fun acknowledge(message: ClientMessage) {
+        if (sendQueue == null) {
+            acknowledgeSynchronously(message)
+        } else {
+            check(!closed) { "Messaging executor has been closed" }
+            sendQueue.put(Job.Acknowledge(message))
+        }
+    }
+
+    @Synchronized
+    private fun acknowledgeSynchronously(message: ClientMessage) {
         log.debug {
             val id = message.getStringProperty(org.apache.activemq.artemis.api.core.Message.HDR_DUPLICATE_DETECTION_ID)
             "Acking $id"
@@ -67,6 +146,145 @@ class MessagingExecutor(
         message.individualAcknowledge()
     }
 
+    /**
+     * Waits for the sender thread to hand all queued jobs over to the broker, after which no more jobs are accepted. This is a no-op if
+     * jobs are run on the calling thread.
+     */
+    fun close() {
+        val queue = sendQueue ?: return
+        if (closed) return
+        closed = true
+        queue.put(Job.Shutdown)
+        senderThread!!.join(TimeUnit.SECONDS.toMillis(SHUTDOWN_TIMEOUT_SECONDS))
+        if (senderThread.isAlive) {
+            log.warn("P2P message sender did not finish within $SHUTDOWN_TIMEOUT_SECONDS seconds, ${queue.size} jobs are still queued")
+            senderThread.interrupt()
+        }
+    }
+
+    private fun drain(queue: BlockingQueue<Job>) {
+        val batch = ArrayList<Job>(MAX_BATCH_SIZE)
+        val acknowledgements = ArrayList<ClientMessage>(MAX_BATCH_SIZE)
+        // The batches whose sends the broker may not have confirmed yet, oldest first.
+        val unconfirmedBatches = ArrayDeque<BatchConfirmations>()
+        // The number of jobs which were already queued when a failed send was noticed, and so may depend on it.
+        var dependentJobs = 0
+        var shutdown = false
+        while (!shutdown) {
+            try {
+                batch += queue.take()
+            } catch (e: InterruptedException) {
+                return
+            }
+            queue.drainTo(batch, MAX_BATCH_SIZE - 1)
+            val confirmations = BatchConfirmations(batch.count { it is Job.Send })
+            var withheld = 0
+            for ((index, job) in batch.withIndex()) {
+                when (job) {
+                    is Job.Send -> sendAsynchronously(job, confirmations)
+                    is Job.Acknowledge -> if (index < dependentJobs) withheld++ else acknowledgements += job.message
+                    Job.Shutdown -> shutdown = true
+                }
+            }
+            dependentJobs = maxOf(dependentJobs - batch.size, 0)
+            unconfirmedBatches.addLast(confirmations)
+            var failure: Exception? = null
+            while (unconfirmedBatches.isNotEmpty() && unconfirmedBatches.first().isConfirmed) {
+                failure = failure ?: unconfirmedBatches.removeFirst().failure
+            }
+            // Messages are only acknowledged once the broker has accepted everything sent before them, which includes any sends they
+            // caused, otherwise they are left to be redelivered.
+            if (acknowledgements.isNotEmpty()) {
+                failure = failure ?: awaitConfirmations(unconfirmedBatches)
+            }
+            if (failure != null) {
+                withheld += acknowledgements.size
+                acknowledgements.clear()
+                dependentJobs = queue.size
+            }
+            acknowledgements.forEach(::acknowledgeQuietly)
+            if (withheld > 0) {
+                log.warn("Not acknowledging $withheld messages as a message sent before them failed, they will be redelivered")
+            }
+            log.trace { "Processed batch of ${batch.size} jobs including ${acknowledgements.size} acknowledgements" }
+            batch.clear()
+            acknowledgements.clear()
+        }
+    }
+
+    /**
+     * Waits for the broker to confirm the sends of every batch, returning the first failure, if any. A batch which isn't confirmed in time
+     * is dropped so that the batches after it don't wait on it again.
+     */
+    private fun awaitConfirmations(unconfirmedBatches: ArrayDeque<BatchConfirmations>): Exception? {
+        var failure: Exception? = null
+        while (unconfirmedBatches.isNotEmpty()) {
+            val confirmations = unconfirmedBatches.removeFirst()
+            if (!confirmations.await()) {
+                confirmations.fail(IllegalStateException("Broker did not confirm sent messages within $sendConfirmationTimeout"))
+            }
+            failure = failure ?: confirmations.failure
+        }
+        return failure
+    }
+
+    private fun sendAsynchronously(job: Job.Send, confirmations: BatchConfirmations) {
+        try {
+            producer.send(job.address, job.message, confirmations)
+        } catch (e: Exception) {
+            log.error("Failed to send message to ${job.address}", e)
+            confirmations.fail(e)
+            confirmations.countDown()
+        } finally {
+            job.queued.stop()
+        }
+    }
+
+    /** Passes on the first failure only, as [onSendFailure] is expected to shut the node down. */
+    private fun reportFailure(e: Exception) {
+        if (failureReported.compareAndSet(false, true)) {
+            onSendFailure(e)
+        }
+    }
+
+    /** Counts down the broker's confirmations of the messages sent in one batch, and records the first send of the batch to fail. */
+    private inner class BatchConfirmations(sends: Int) : SendAcknowledgementHandler {
+        private val outstanding = CountDownLatch(sends)
+        @Volatile
+        var failure: Exception? = null
+            private set
+
+        val isConfirmed: Boolean get() = outstanding.count == 0L
+
+        fun countDown() = outstanding.countDown()
+
+        fun await(): Boolean = outstanding.await(sendConfirmationTimeout.toMillis(), TimeUnit.MILLISECONDS)
+
+        fun fail(e: Exception) {
+            sendFailures.mark()
+            synchronized(this) {
+                if (failure == null) failure = e
+            }
+            reportFailure(e)
+        }
+
+        override fun sendAcknowledged(message: org.apache.activemq.artemis.api.core.Message) = countDown()
+
+        override fun sendFailed(message: org.apache.activemq.artemis.api.core.Message, e: Exception) {
+            log.error("Broker failed to accept message ${message.getStringProperty(org.apache.activemq.artemis.api.core.Message.HDR_DUPLICATE_DETECTION_ID)}", e)
+            fail(e)
+            countDown()
+        }
+    }
+
+    private fun acknowledgeQuietly(message: ClientMessage) {
+        try {
+            acknowledgeSynchronously(message)
+        } catch (e: Exception) {
+            log.error("Failed to acknowledge message", e)
+        }
+    }
+
     internal fun cordaToArtemisMessage(message: Message): ClientMessage? {
         return session.createMessage(true).apply {
             putStringProperty(P2PMessagingHeaders.cordaVendorProperty, cordaVendor)
@@ -1,12 +1,20 @@
 package net.corda.node.services.messaging
 
+import com.codahale.metrics.MetricRegistry
+import com.codahale.metrics.RatioGauge
+import com.google.common.hash.Funnels
 import net.corda.core.crypto.SecureHash
 import net.corda.core.identity.CordaX500Name
 import net.corda.core.internal.NamedCacheFactory
+import net.corda.core.utilities.contextLogger
+import net.corda.node.services.config.P2PDeduplicationFilterConfiguration
 import net.corda.node.services.statemachine.DeduplicationId
 import net.corda.node.utilities.AppendOnlyPersistentMap
+import net.corda.node.utilities.ScalableBloomFilter
 import net.corda.nodeapi.internal.persistence.CordaPersistence
 import net.corda.nodeapi.internal.persistence.NODE_DATABASE_PREFIX
+import net.corda.nodeapi.internal.persistence.currentDBSession
+import java.nio.charset.StandardCharsets
 import java.time.Instant
 import java.util.concurrent.ConcurrentHashMap
 import javax.persistence.Column
@@ -15,14 +23,48 @@ import javax.persistence.Id
 
 /**
  * Encapsulate the de-duplication logic.
+ *
+ * If a [filterConfig] is given, the ids of processed messages are also kept in a [ScalableBloomFilter], loaded by [start], so that
+ * messages which have definitely not been seen before don't need to be looked up in the database.
  */
-class P2PMessageDeduplicator(cacheFactory: NamedCacheFactory, private val database: CordaPersistence) {
+class P2PMessageDeduplicator(
+        cacheFactory: NamedCacheFactory,
+        private val database: CordaPersistence,
+        filterConfig: P2PDeduplicationFilterConfiguration? = null,
+        metricRegistry: MetricRegistry = MetricRegistry()
+) {
+    private companion object {
+        private val log = contextLogger()
+    }
+
     // A temporary in-memory set of deduplication IDs and associated high water mark details.
     // When we receive a message we don't persist the ID immediately,
     // so we store the ID here in the meantime (until the persisting db tx has committed). This is because Artemis may
     // redeliver messages to the same consumer if they weren't ACKed.
     private val beingProcessedMessages = ConcurrentHashMap<DeduplicationId, MessageMeta>()
     private val processedMessages = createProcessedMessages(cacheFactory)
+    // Ids are added as soon as they are persisted, but the filter is only consulted once it has been loaded from the database.
+    private val processedMessageFilter = filterConfig?.let {
+        ScalableBloomFilter<CharSequence>(Funnels.stringFunnel(StandardCharsets.UTF_8), it.expectedMessages, it.falsePositiveProbability)
+    }
+    @Volatile
+    private var filterLoaded = false
+    private val filterSkips = metricRegistry.counter("P2P.Deduplication.FilterSkips")
+    private val filterLookups = metricRegistry.counter("P2P.Deduplication.DatabaseLookups")
+    private val filterFalsePositives = metricRegistry.counter("P2P.Deduplication.FilterFalsePositives")
+
+    init {
+        if (processedMessageFilter != null) {
+            metricRegistry.register("P2P.Deduplication.FilterHitRate", object : RatioGauge() {
+                override fun getRatio(): Ratio = Ratio.of(filterSkips.count.toDouble(), (filterSkips.count + filterLookups.count).toDouble())
+            })
+            metricRegistry.register("P2P.Deduplication.FilterFalsePositiveRate", object : RatioGauge() {
+                override fun getRatio(): Ratio {
+                    return Ratio.of(filterFalsePositives.count.toDouble(), (filterSkips.count + filterFalsePositives.count).toDouble())
+                }
+            })
+        }
+    }
 
     enum class Outcome {
         NEW, DUPLICATE, IN_FLIGHT
@@ -48,6 +90,29 @@ class P2PMessageDeduplicator(cacheFactory: NamedCacheFactory, private val databa
 
     private fun isDuplicateInDatabase(msg: ReceivedMessage): Boolean = database.transaction { msg.uniqueMessageId in processedMessages }
 
+    /**
+     * Loads the ids of all previously processed messages into the filter, if there is one. This must be called before any messages are
+     * received.
+     */
+    fun start() {
+        val filter = processedMessageFilter ?: return
+        val startTime = System.nanoTime()
+        var count = 0L
+        database.transaction {
+            currentDBSession().createQuery("select m.id from ${ProcessedMessage::class.java.name} m", String::class.java)
+                    .resultStream
+                    .use { ids ->
+                        ids.forEach {
+                            filter.put(it)
+                            count++
+                        }
+                    }
+        }
+        filterLoaded = true
+        log.info("Loaded $count processed message ids into ${filter.filterCount} deduplication filters in " +
+                "${(System.nanoTime() - startTime) / 1_000_000} ms")
+    }
+
     // We need to incorporate the sending party, and the sessionInit flag as per the in-memory cache.
     private fun senderHash(senderKey: SenderKey) = SecureHash.sha256(senderKey.peer.toString() + senderKey.isSessionInit.toString() + senderKey.senderUUID).toString()
 
@@ -58,7 +123,17 @@ class P2PMessageDeduplicator(cacheFactory: NamedCacheFactory, private val databa
         if (beingProcessedMessages.containsKey(msg.uniqueMessageId)) {
             return Outcome.IN_FLIGHT
         }
-        return booleanToEnum(isDuplicateInDatabase(msg))
+        val filter = processedMessageFilter?.takeIf { filterLoaded } ?: return booleanToEnum(isDuplicateInDatabase(msg))
+        if (!filter.mightContain(msg.uniqueMessageId.toString)) {
+            filterSkips.inc()
+            return Outcome.NEW
+        }
+        filterLookups.inc()
+        val isDuplicate = isDuplicateInDatabase(msg)
+        if (!isDuplicate) {
+            filterFalsePositives.inc()
+        }
+        return booleanToEnum(isDuplicate)
     }
 
     private fun booleanToEnum(isDuplicate: Boolean): Outcome = if (isDuplicate) Outcome.DUPLICATE else Outcome.NEW
@@ -80,6 +155,9 @@ class P2PMessageDeduplicator(cacheFactory: NamedCacheFactory, private val databa
      */
     fun persistDeduplicationId(deduplicationId: DeduplicationId) {
         processedMessages[deduplicationId] = beingProcessedMessages[deduplicationId]!!
+        // Added before the transaction commits, so that a redelivery is never missed. If the transaction rolls back this only costs a
+        // database lookup.
+        processedMessageFilter?.put(deduplicationId.toString)
     }
 
     /**
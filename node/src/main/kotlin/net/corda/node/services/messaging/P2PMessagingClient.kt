@@ -124,6 +124,8 @@ class P2PMessagingClient(val config: NodeConfiguration,
 ) : SingletonSerializeAsToken(), MessagingService, AddressToArtemisQueueResolver, ServiceStateSupport by stateHelper {
     companion object {
         private val log = contextLogger()
+        // Asynchronous sends are only confirmed by the broker, and their messages released by the client, once a confirmation window is set.
+        private const val SEND_CONFIRMATION_WINDOW_SIZE = 1024 * 1024
     }
 
     private class NodeClientMessage(override val topic: String,
@@ -186,7 +188,7 @@ class P2PMessagingClient(val config: NodeConfiguration,
     private val handlers = ConcurrentHashMap<String, MessageHandler>()
     private val handlersChangedSignal = Object()
 
-    private val deduplicator = P2PMessageDeduplicator(cacheFactory, database)
+    private val deduplicator = P2PMessageDeduplicator(cacheFactory, database, config.p2pDeduplicationFilter, metricRegistry)
     internal var messagingExecutor: MessagingExecutor? = null
 
     /**
@@ -202,6 +204,7 @@ class P2PMessagingClient(val config: NodeConfiguration,
         this.serviceIdentity = serviceIdentity
         this.advertisedAddress = advertisedAddress
         this.maxMessageSize = maxMessageSize
+        deduplicator.start()
         state.locked {
             started = true
             log.info("Connecting to message broker: $serverAddress")
@@ -213,6 +216,9 @@ class P2PMessagingClient(val config: NodeConfiguration,
                 clientFailureCheckPeriod = timeoutConfig.clientConnectionTtl.toMillis()
                 minLargeMessageSize = maxMessageSize + JOURNAL_HEADER_SIZE
                 isUseGlobalPools = nodeSerializationEnv != null
+                if (config.p2pSendQueueCapacity > 0) {
+                    confirmationWindowSize = SEND_CONFIRMATION_WINDOW_SIZE
+                }
             }
 
             sessionFactory = if (terminateOnConnectionError) {
@@ -253,7 +259,10 @@ class P2PMessagingClient(val config: NodeConfiguration,
                     executorProducer!!,
                     versionInfo,
                     this@P2PMessagingClient,
-                    ourSenderUUID = ourSenderUUID
+                    ourSenderUUID = ourSenderUUID,
+                    onSendFailure = { errorAndTerminate("Failed to send a P2P message. Node is shutting down.", it) },
+                    sendQueueCapacity = config.p2pSendQueueCapacity,
+                    metricRegistry = metricRegistry
             )
 
             registerBridgeControl(bridgeSession!!, inboxes.toList())
@@ -524,6 +533,7 @@ class P2PMessagingClient(val config: NodeConfiguration,
             producer = null
             producerSession!!.commit()
 
+            messagingExecutor?.close()
             close(executorProducer)
             executorProducer = null
             executorSession!!.commit()
@@ -0,0 +1,159 @@
+package net.corda.node.services.persistence
+
+import java.io.ByteArrayOutputStream
+
+/**
+ * Encodes a serialized checkpoint as a compact binary delta against an earlier (base) version of the same checkpoint.
+ *
+ * The base is split into fixed size blocks which are indexed by a rolling hash. The target is then scanned for runs of bytes that also
+ * appear in the base, which are encoded as a copy of a range of the base, with everything else being inserted as literal bytes. A delta
+ * is the target's size followed by a sequence of these copy and insert instructions.
+ */
+internal object CheckpointDeltaCodec {
+    private const val BLOCK_SIZE = 32
+    private const val HASH_MULTIPLIER = 31
+    private const val COPY = 0
+    private const val INSERT = 1
+
+    // HASH_MULTIPLIER ^ (BLOCK_SIZE - 1), used to remove the leading byte from the rolling hash.
+    private val leadingByteMultiplier = (1 until BLOCK_SIZE).fold(1) { acc, _ -> acc * HASH_MULTIPLIER }
+
+    fun encode(base: ByteArray, target: ByteArray): ByteArray {
+        val out = ByteArrayOutputStream()
+        out.writeVarInt(target.size)
+        if (base.size < BLOCK_SIZE || target.size < BLOCK_SIZE) {
+            out.writeInsert(target, 0, target.size)
+            return out.toByteArray()
+        }
+
+        val index = HashMap<Int, Int>(base.size / BLOCK_SIZE * 2)
+        var blockOffset = 0
+        while (blockOffset + BLOCK_SIZE <= base.size) {
+            index.putIfAbsent(hash(base, blockOffset), blockOffset)
+            blockOffset += BLOCK_SIZE
+        }
+
+        var literalStart = 0
+        var position = 0
+        var hash = hash(target, 0)
+        while (position + BLOCK_SIZE <= target.size) {
+            val candidate = index[hash]
+            if (candidate != null && regionMatches(base, candidate, target, position)) {
+                var length = BLOCK_SIZE
+                while (candidate + length < base.size && position + length < target.size &&
+                        base[candidate + length] == target[position + length]) {
+                    length++
+                }
+                // Extend the match backwards over any pending literal bytes which also match.
+                var backwards = 0
+                while (backwards < position - literalStart && backwards < candidate &&
+                        base[candidate - backwards - 1] == target[position - backwards - 1]) {
+                    backwards++
+                }
+                out.writeInsert(target, literalStart, position - backwards - literalStart)
+                out.writeCopy(candidate - backwards, length + backwards)
+                position += length
+                literalStart = position
+                if (position + BLOCK_SIZE <= target.size) {
+                    hash = hash(target, position)
+                }
+            } else {
+                if (position + BLOCK_SIZE < target.size) {
+                    hash = roll(hash, target[position], target[position + BLOCK_SIZE])
+                }
+                position++
+            }
+        }
+        out.writeInsert(target, literalStart, target.size - literalStart)
+        return out.toByteArray()
+    }
+
+    fun apply(base: ByteArray, delta: ByteArray): ByteArray {
+        val reader = Reader(delta)
+        val result = ByteArray(reader.readVarInt())
+        var position = 0
+        while (reader.hasRemaining()) {
+            when (val instruction = reader.readByte()) {
+                COPY -> {
+                    val offset = reader.readVarInt()
+                    val length = reader.readVarInt()
+                    System.arraycopy(base, offset, result, position, length)
+                    position += length
+                }
+                INSERT -> {
+                    val length = reader.readVarInt()
+                    reader.readBytes(result, position, length)
+                    position += length
+                }
+                else -> throw IllegalArgumentException("Unknown checkpoint delta instruction $instruction")
+            }
+        }
+        require(position == result.size) { "Checkpoint delta produced $position bytes, expected ${result.size}" }
+        return result
+    }
+
+    private fun hash(bytes: ByteArray, offset: Int): Int {
+        var hash = 0
+        for (i in offset until offset + BLOCK_SIZE) {
+            hash = hash * HASH_MULTIPLIER + (bytes[i].toInt() and 0xFF)
+        }
+        return hash
+    }
+
+    private fun roll(hash: Int, leaving: Byte, entering: Byte): Int {
+        return (hash - (leaving.toInt() and 0xFF) * leadingByteMultiplier) * HASH_MULTIPLIER + (entering.toInt() and 0xFF)
+    }
+
+    private fun regionMatches(base: ByteArray, baseOffset: Int, target: ByteArray, targetOffset: Int): Boolean {
+        for (i in 0 until BLOCK_SIZE) {
+            if (base[baseOffset + i] != target[targetOffset + i]) return false
+        }
+        return true
+    }
+
+    private fun ByteArrayOutputStream.writeCopy(offset: Int, length: Int) {
+        write(COPY)
+        writeVarInt(offset)
+        writeVarInt(length)
+    }
+
+    private fun ByteArrayOutputStream.writeInsert(bytes: ByteArray, offset: Int, length: Int) {
+        if (length == 0) return
+        write(INSERT)
+        writeVarInt(length)
+        write(bytes, offset, length)
+    }
+
+    private fun ByteArrayOutputStream.writeVarInt(value: Int) {
+        var remaining = value
+        while (remaining and 0x7F.inv() != 0) {
+            write((remaining and 0x7F) or 0x80)
+            remaining = remaining ushr 7
+        }
+        write(remaining)
+    }
+
+    private class Reader(private val bytes: ByteArray) {
+        private var position = 0
+
+        fun hasRemaining(): Boolean = position < bytes.size
+
+        fun readByte(): Int = bytes[position++].toInt() and 0xFF
+
+        fun readVarInt(): Int {
+            var value = 0
+            var shift = 0
+            while (true) {
+                val next = readByte()
+                value = value or ((next and 0x7F) shl shift)
+                if (next and 0x80 == 0) return value
+                shift += 7
+            }
+        }
+
+        fun readBytes(destination: ByteArray, offset: Int, length: Int) {
+            System.arraycopy(bytes, position, destination, offset, length)
+            position += length
+        }
+    }
+}
@@ -18,12 +18,20 @@ interface CheckpointPerformanceRecorder {
      * Record performance metrics regarding the serialized size of [CheckpointState] and [FlowState]
      */
     fun record(serializedCheckpointState: SerializedBytes<CheckpointState>, serializedFlowState: SerializedBytes<FlowState>?)
+
+    /**
+     * Record that a checkpoint of [fullSize] bytes was written as a delta of [deltaSize] bytes against its base snapshot.
+     */
+    fun recordDelta(fullSize: Long, deltaSize: Long) {}
 }
 
 class DBCheckpointPerformanceRecorder(metrics: MetricRegistry) : CheckpointPerformanceRecorder {
 
     private val checkpointingMeter = metrics.meter("Flows.Checkpointing Rate")
     private val checkpointSizesThisSecond = SlidingTimeWindowReservoir(1, TimeUnit.SECONDS)
+    private val deltaCheckpointMeter = metrics.meter("Flows.DeltaCheckpointing Rate")
+    private val checkpointBytesSaved = metrics.counter("Flows.CheckpointDeltaBytesSaved")
+    private val checkpointDeltaRatio = metrics.histogram("Flows.CheckpointDeltaPercentOfFull")
     private val lastBandwidthUpdate = AtomicLong(0)
     private val checkpointBandwidthHist = metrics.register(
         "Flows.CheckpointVolumeBytesPerSecondHist", Histogram(
@@ -52,6 +60,14 @@ class DBCheckpointPerformanceRecorder(metrics: MetricRegistry) : CheckpointPerfo
         }
     }
 
+    override fun recordDelta(fullSize: Long, deltaSize: Long) {
+        deltaCheckpointMeter.mark()
+        checkpointBytesSaved.inc(fullSize - deltaSize)
+        if (fullSize > 0) {
+            checkpointDeltaRatio.update(deltaSize * 100 / fullSize)
+        }
+    }
+
     private fun updateData(totalSize: Long) {
         checkpointingMeter.mark()
         checkpointSizesThisSecond.update(totalSize)
@@ -14,6 +14,7 @@ import net.corda.core.serialization.internal.MissingSerializerException
 import net.corda.core.serialization.serialize
 import net.corda.core.utilities.contextLogger
 import net.corda.node.services.api.CheckpointStorage
+import net.corda.node.services.config.CheckpointDeltaEncodingConfiguration
 import net.corda.node.services.statemachine.Checkpoint
 import net.corda.node.services.statemachine.Checkpoint.FlowStatus
 import net.corda.node.services.statemachine.CheckpointState
@@ -22,6 +23,7 @@ import net.corda.node.services.statemachine.FlowResultMetadata
 import net.corda.node.services.statemachine.FlowState
 import net.corda.node.services.statemachine.SubFlowVersion
 import net.corda.nodeapi.internal.persistence.NODE_DATABASE_PREFIX
+import net.corda.nodeapi.internal.persistence.contextTransaction
 import net.corda.nodeapi.internal.persistence.currentDBSession
 import org.apache.commons.lang3.ArrayUtils.EMPTY_BYTE_ARRAY
 import org.apache.commons.lang3.exception.ExceptionUtils
@@ -32,6 +34,7 @@ import java.sql.SQLException
 import java.time.Clock
 import java.time.Instant
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 import java.util.stream.Stream
 import javax.persistence.Column
 import javax.persistence.Entity
@@ -42,11 +45,17 @@ import javax.persistence.PrimaryKeyJoinColumn
 
 /**
  * Simple checkpoint key value storage in DB.
+ *
+ * If [deltaEncoding] is enabled then a runnable flow's serialized state is stored as a full base snapshot plus a delta against that base
+ * (see [CheckpointDeltaCodec]). Subsequent checkpoints only rewrite the delta columns, until the delta grows past
+ * [CheckpointDeltaEncodingConfiguration.compactionThreshold] of the full checkpoint, at which point a new base is written. The base of
+ * each flow is kept in memory so that the delta can be computed without reading the previous checkpoint back from the database.
  */
 @Suppress("TooManyFunctions")
 class DBCheckpointStorage(
     private val checkpointPerformanceRecorder: CheckpointPerformanceRecorder,
-    private val clock: Clock
+    private val clock: Clock,
+    private val deltaEncoding: CheckpointDeltaEncodingConfiguration? = null
 ) : CheckpointStorage {
 
     companion object {
@@ -110,6 +119,13 @@ class DBCheckpointStorage(
         RPC, SERVICE, SCHEDULED, INITIATED
     }
 
+    /**
+     * The serialized state currently stored in the base columns of a flow's [DBFlowCheckpointBlob], keyed by flow id.
+     */
+    private class CheckpointBase(val checkpoint: ByteArray, val flowState: ByteArray)
+
+    private val checkpointBases = ConcurrentHashMap<String, CheckpointBase>()
+
     @Entity
     @javax.persistence.Table(name = "${NODE_DATABASE_PREFIX}checkpoints")
     data class DBFlowCheckpoint(
@@ -169,8 +185,29 @@ class DBCheckpointStorage(
         var hmac: ByteArray,
 
         @Column(name = "timestamp")
-        var persistedInstant: Instant
+        var persistedInstant: Instant,
+
+        @Type(type = "corda-blob")
+        @Column(name = "checkpoint_value_delta", nullable = true)
+        var checkpointDelta: ByteArray? = null,
+
+        @Type(type = "corda-blob")
+        @Column(name = "flow_state_delta", nullable = true)
+        var flowStackDelta: ByteArray? = null
     ) {
+        /**
+         * The serialized [CheckpointState], with any delta applied to the base snapshot.
+         */
+        val currentCheckpoint: ByteArray
+            get() = checkpointDelta?.let { CheckpointDeltaCodec.apply(checkpoint, it) } ?: checkpoint
+
+        /**
+         * The serialized [FlowState], with any delta applied to the base snapshot.
+         */
+        val currentFlowStack: ByteArray?
+            get() = flowStackDelta?.let { CheckpointDeltaCodec.apply(flowStack!!, it) } ?: flowStack
+
+        @Suppress("ComplexMethod")
         override fun equals(other: Any?): Boolean {
             if (this === other) return true
             if (javaClass != other?.javaClass) return false
@@ -187,6 +224,13 @@ class DBCheckpointStorage(
             if (!hmac.contentEquals(other.hmac)) return false
             if (persistedInstant != other.persistedInstant) return false
 
+            if (!(checkpointDelta ?: EMPTY_BYTE_ARRAY)!!.contentEquals(other.checkpointDelta ?: EMPTY_BYTE_ARRAY)) {
+                return false
+            }
+            if (!(flowStackDelta ?: EMPTY_BYTE_ARRAY)!!.contentEquals(other.flowStackDelta ?: EMPTY_BYTE_ARRAY)) {
+                return false
+            }
+
             return true
         }
 
@@ -196,6 +240,8 @@ class DBCheckpointStorage(
             result = 31 * result + (flowStack?.contentHashCode() ?: 0)
             result = 31 * result + hmac.contentHashCode()
             result = 31 * result + persistedInstant.hashCode()
+            result = 31 * result + (checkpointDelta?.contentHashCode() ?: 0)
+            result = 31 * result + (flowStackDelta?.contentHashCode() ?: 0)
             return result
         }
     }
@@ -417,6 +463,7 @@ class DBCheckpointStorage(
         currentDBSession().save(blob)
         currentDBSession().save(metadata)
         dbFlowException?.let { currentDBSession().save(it) }
+        updateCheckpointBase(flowId, blob)
     }
 
     @Suppress("ComplexMethod")
@@ -436,18 +483,23 @@ class DBCheckpointStorage(
             // We need to update only the 'flowState' to null, and we don't want to update the checkpoint state
             // because we want to retain the last clean checkpoint state, therefore just use a query for that update.
             currentDBSession()
-                .createNativeQuery("Update ${NODE_DATABASE_PREFIX}checkpoint_blobs set flow_state = null where flow_id = :flow_id")
+                .createNativeQuery("Update ${NODE_DATABASE_PREFIX}checkpoint_blobs set flow_state = null, flow_state_delta = null where flow_id = :flow_id")
                 .setParameter("flow_id", flowId)
                 .executeUpdate()
+            checkpointBases.remove(flowId)
             null
         } else {
             checkpointPerformanceRecorder.record(serializedCheckpointState, serializedFlowState)
-            createDBCheckpointBlob(
-                flowId,
-                serializedCheckpointState,
-                serializedFlowState,
-                now
-            )
+            if (updateCheckpointDelta(flowId, serializedCheckpointState, serializedFlowState, now)) {
+                null
+            } else {
+                createDBCheckpointBlob(
+                    flowId,
+                    serializedCheckpointState,
+                    serializedFlowState,
+                    now
+                ).also { updateCheckpointBase(flowId, it) }
+            }
         }
 
         val dbFlowResult = if (checkpoint.status == FlowStatus.COMPLETED) {
@@ -503,6 +555,7 @@ class DBCheckpointStorage(
     override fun removeCheckpoint(id: StateMachineRunId, mayHavePersistentResults: Boolean): Boolean {
         var deletedRows = 0
         val flowId = id.uuid.toString()
+        checkpointBases.remove(flowId)
         deletedRows += deleteRow(DBFlowCheckpoint::class.java, DBFlowCheckpoint::flowId.name, flowId)
         deletedRows += deleteRow(DBFlowCheckpointBlob::class.java, DBFlowCheckpointBlob::flowId.name, flowId)
         if (mayHavePersistentResults) {
@@ -558,7 +611,7 @@ class DBCheckpointStorage(
 
     override fun getPausedCheckpoints(): Stream<Triple<StateMachineRunId, Checkpoint.Serialized, Boolean>> {
         val session = currentDBSession()
-        val jpqlQuery = """select new ${DBPausedFields::class.java.name}(checkpoint.id, blob.checkpoint, checkpoint.status,
+        val jpqlQuery = """select new ${DBPausedFields::class.java.name}(checkpoint.id, blob.checkpoint, blob.checkpointDelta, checkpoint.status,
                 checkpoint.progressStep, checkpoint.ioRequestType, checkpoint.compatible, exception.id) 
                 from ${DBFlowCheckpoint::class.java.name} checkpoint 
                 join ${DBFlowCheckpointBlob::class.java.name} blob on checkpoint.blob = blob.id
@@ -670,6 +723,57 @@ class DBCheckpointStorage(
         )
     }
 
+    /**
+     * Writes the checkpoint as a delta against the flow's base snapshot, if delta encoding is enabled, the base is known and the delta is
+     * small enough. Returns false if the full checkpoint needs to be written instead.
+     */
+    private fun updateCheckpointDelta(
+        flowId: String,
+        serializedCheckpointState: SerializedBytes<CheckpointState>,
+        serializedFlowState: SerializedBytes<FlowState>?,
+        now: Instant
+    ): Boolean {
+        val compactionThreshold = deltaEncoding?.compactionThreshold ?: return false
+        val base = checkpointBases[flowId] ?: return false
+        val flowState = serializedFlowState?.bytes ?: return false
+
+        val checkpointDelta = CheckpointDeltaCodec.encode(base.checkpoint, serializedCheckpointState.bytes)
+        val flowStateDelta = CheckpointDeltaCodec.encode(base.flowState, flowState)
+        val fullSize = serializedCheckpointState.size.toLong() + flowState.size
+        val deltaSize = checkpointDelta.size.toLong() + flowStateDelta.size
+        if (deltaSize > fullSize * compactionThreshold) {
+            return false
+        }
+
+        currentDBSession()
+            .createQuery("""update ${DBFlowCheckpointBlob::class.java.name} 
+                set checkpointDelta = :checkpointDelta, flowStackDelta = :flowStackDelta, persistedInstant = :persistedInstant 
+                where flowId = :flowId""".trimIndent())
+            .setParameter("checkpointDelta", checkpointDelta)
+            .setParameter("flowStackDelta", flowStateDelta)
+            .setParameter("persistedInstant", now)
+            .setParameter("flowId", flowId)
+            .executeUpdate()
+        checkpointPerformanceRecorder.recordDelta(fullSize, deltaSize)
+        return true
+    }
+
+    /**
+     * Remembers the base snapshot just written for the flow, so that later checkpoints can be written as deltas against it. The base is
+     * forgotten if the transaction rolls back, which means the next checkpoint is written in full.
+     */
+    private fun updateCheckpointBase(flowId: String, blob: DBFlowCheckpointBlob) {
+        if (deltaEncoding == null) return
+        val flowStack = blob.flowStack
+        if (flowStack == null) {
+            checkpointBases.remove(flowId)
+            return
+        }
+        val base = CheckpointBase(blob.checkpoint, flowStack)
+        checkpointBases[flowId] = base
+        contextTransaction.onRollback { checkpointBases.remove(flowId, base) }
+    }
+
     private fun createDBFlowResult(flowId: String, result: Any?, now: Instant): DBFlowResult {
         return DBFlowResult(
             flow_id = flowId,
@@ -720,9 +824,9 @@ class DBCheckpointStorage(
     }
 
     private fun DBFlowCheckpoint.toSerializedCheckpoint(): Checkpoint.Serialized {
-        val serialisedFlowState = blob!!.flowStack?.let { SerializedBytes<FlowState>(it) }
+        val serialisedFlowState = blob!!.currentFlowStack?.let { SerializedBytes<FlowState>(it) }
         return Checkpoint.Serialized(
-            serializedCheckpointState = SerializedBytes(blob!!.checkpoint),
+            serializedCheckpointState = SerializedBytes(blob!!.currentCheckpoint),
             serializedFlowState = serialisedFlowState,
             // Always load as a [Clean] checkpoint to represent that the checkpoint is the last _good_ checkpoint
             errorState = ErrorState.Clean,
@@ -738,6 +842,7 @@ class DBCheckpointStorage(
     private class DBPausedFields(
         val id: String,
         val checkpoint: ByteArray = EMPTY_BYTE_ARRAY,
+        val checkpointDelta: ByteArray?,
         val status: FlowStatus,
         val progressStep: String?,
         val ioRequestType: String?,
@@ -747,7 +852,7 @@ class DBCheckpointStorage(
         val wasHospitalized = exception != null
         fun toSerializedCheckpoint(): Checkpoint.Serialized {
             return Checkpoint.Serialized(
-                serializedCheckpointState = SerializedBytes(checkpoint),
+                serializedCheckpointState = SerializedBytes(checkpointDelta?.let { CheckpointDeltaCodec.apply(checkpoint, it) } ?: checkpoint),
                 serializedFlowState = null,
                 // Always load as a [Clean] checkpoint to represent that the checkpoint is the last _good_ checkpoint
                 errorState = ErrorState.Clean,
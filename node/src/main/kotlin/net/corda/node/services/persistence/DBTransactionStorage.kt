@@ -316,6 +316,12 @@ open class DBTransactionStorage(private val database: CordaPersistence, cacheFac
         }
     }
 
+    override fun getTransactions(ids: Collection<SecureHash>): Map<SecureHash, SignedTransaction> {
+        return database.transaction {
+            txStorage.content.getAll(ids).filterValues { it.status.isVerified() }.mapValues { it.value.toSignedTx() }
+        }
+    }
+
     override fun getTransactionWithStatus(id: SecureHash): SignedTransactionWithStatus? =
             database.transaction {
                 txStorage.content[id]?.let { SignedTransactionWithStatus(it.toSignedTx(), it.status.toTransactionStatus()) }
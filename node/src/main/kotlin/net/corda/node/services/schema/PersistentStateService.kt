@@ -1,15 +1,22 @@
 package net.corda.node.services.schema
 
+import com.codahale.metrics.MetricRegistry
+import com.google.common.util.concurrent.ThreadFactoryBuilder
 import net.corda.core.contracts.ContractState
 import net.corda.core.contracts.StateAndRef
 import net.corda.core.contracts.StateRef
 import net.corda.core.internal.VisibleForTesting
 import net.corda.core.schemas.MappedSchema
+import net.corda.core.schemas.PersistentState
 import net.corda.core.schemas.PersistentStateRef
 import net.corda.core.utilities.contextLogger
 import net.corda.core.utilities.debug
+import net.corda.core.utilities.getOrThrow
 import net.corda.node.services.api.SchemaService
 import net.corda.nodeapi.internal.persistence.currentDBSession
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
 
 /**
  * Small data class bundling together a ContractState and a StateRef (as opposed to a TransactionState and StateRef
@@ -19,33 +26,99 @@ data class ContractStateAndRef(val state: ContractState, val ref: StateRef)
 
 /**
  * A vault observer that extracts Object Relational Mappings for contract states that support it, and persists them with Hibernate.
+ *
+ * All the mapped objects for a batch of states are generated before any are persisted, and they are then persisted an entity class at a
+ * time, so that Hibernate can write them in JDBC batches. If [mappingParallelism] is greater than one then large batches of states are
+ * mapped on that many threads.
  */
 // TODO: Manage version evolution of the schemas via additional tooling.
-class PersistentStateService(private val schemaService: SchemaService) {
+class PersistentStateService(private val schemaService: SchemaService,
+                             private val metrics: MetricRegistry? = null,
+                             private val mappingParallelism: Int = 1) {
     companion object {
         private val log = contextLogger()
+
+        /** The fewest mapped objects worth generating on more than one thread. */
+        private const val MIN_PARALLEL_MAPPINGS = 32
+
+        /** The JDBC batch size used when persisting the mapped objects, so that they are written in a few round trips. */
+        private const val PERSIST_JDBC_BATCH_SIZE = 100
+    }
+
+    private val mappingExecutor: ExecutorService? = if (mappingParallelism > 1) {
+        Executors.newFixedThreadPool(mappingParallelism, ThreadFactoryBuilder().setNameFormat("Vault state mapper-%d").setDaemon(true).build())
+    } else {
+        null
     }
 
     fun persist(produced: Set<StateAndRef<ContractState>>) {
-        val stateBySchema: MutableMap<MappedSchema, MutableList<ContractStateAndRef>> = mutableMapOf()
+        val mappings = ArrayList<Pair<ContractStateAndRef, MappedSchema>>()
         // map all states by their referenced schemas
         produced.forEach {
             val contractStateAndRef = ContractStateAndRef(it.state.data, it.ref)
             log.debug { "Asked to persist state ${it.ref}" }
-            schemaService.selectSchemas(contractStateAndRef.state).forEach {
-                stateBySchema.getOrPut(it) { mutableListOf() }.add(contractStateAndRef)
+            schemaService.selectSchemas(contractStateAndRef.state).forEach { schema ->
+                mappings += Pair(contractStateAndRef, schema)
             }
         }
-        // then persist all states for each schema
-        stateBySchema.forEach { persistStatesWithSchema(it.value, it.key) }
+        persistMappedObjects(generateMappedObjects(mappings))
     }
 
     @VisibleForTesting
     internal fun persistStatesWithSchema(statesAndRefs: List<ContractStateAndRef>, schema: MappedSchema) {
-        statesAndRefs.forEach {
-            val mappedObject = schemaService.generateMappedObject(it.state, schema)
-            mappedObject.stateRef = PersistentStateRef(it.ref)
-            currentDBSession().persist(mappedObject)
+        persistMappedObjects(generateMappedObjects(statesAndRefs.map { Pair(it, schema) }))
+    }
+
+    /** Stops the threads which map states, if there are any. The node calls this when it stops. */
+    fun close() {
+        mappingExecutor?.shutdown()
+    }
+
+    private fun generateMappedObjects(mappings: List<Pair<ContractStateAndRef, MappedSchema>>): List<PersistentState> {
+        val executor = mappingExecutor
+        if (executor == null || mappings.size < MIN_PARALLEL_MAPPINGS) {
+            return mappings.map { (stateAndRef, schema) -> generateMappedObject(stateAndRef, schema) }
+        }
+        // The states may have been loaded by the CorDapp class loader, which the mapping threads must use too.
+        val contextClassLoader = Thread.currentThread().contextClassLoader
+        val chunkSize = (mappings.size + mappingParallelism - 1) / mappingParallelism
+        val futures = mappings.chunked(chunkSize).map { chunk ->
+            executor.submit(Callable {
+                val thread = Thread.currentThread()
+                val previousClassLoader = thread.contextClassLoader
+                thread.contextClassLoader = contextClassLoader
+                try {
+                    chunk.map { (stateAndRef, schema) -> generateMappedObject(stateAndRef, schema) }
+                } finally {
+                    thread.contextClassLoader = previousClassLoader
+                }
+            })
+        }
+        return futures.flatMap { it.getOrThrow() }
+    }
+
+    private fun generateMappedObject(stateAndRef: ContractStateAndRef, schema: MappedSchema): PersistentState {
+        val mappedObject = schemaService.generateMappedObject(stateAndRef.state, schema)
+        mappedObject.stateRef = PersistentStateRef(stateAndRef.ref)
+        return mappedObject
+    }
+
+    private fun persistMappedObjects(mappedObjects: List<PersistentState>) {
+        if (mappedObjects.isEmpty()) return
+        // The session is shared with the rest of the transaction, so the batch size only applies to the mapped objects, which are flushed
+        // before it is restored.
+        val session = currentDBSession()
+        val previousJdbcBatchSize = session.jdbcBatchSize
+        session.jdbcBatchSize = previousJdbcBatchSize ?: PERSIST_JDBC_BATCH_SIZE
+        try {
+            // Hibernate can only batch consecutive inserts into the same table.
+            mappedObjects.groupBy { it.javaClass }.values.forEach { objects ->
+                objects.forEach { session.persist(it) }
+            }
+            session.flush()
+        } finally {
+            session.jdbcBatchSize = previousJdbcBatchSize
         }
+        metrics?.histogram("Vault.MappedStates.RowsPerWrite")?.update(mappedObjects.size)
     }
 }
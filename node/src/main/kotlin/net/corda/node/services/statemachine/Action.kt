@@ -164,6 +164,21 @@ sealed class Action {
         override fun toString() = "CommitTransaction"
     }
 
+    /**
+     * Execute [persistActions] in a database transaction shared with other flows and wait for it to commit, then carry on as [commit]
+     * would. This stands in for a [CreateTransaction], [PersistCheckpoint], [PersistDeduplicationFacts], [CommitTransaction] sequence
+     * when checkpoint group commit is enabled, see [CheckpointGroupCommitter].
+     */
+    data class GroupCommitCheckpoint(val persistActions: List<Action>, val commit: CommitTransaction) : Action() {
+        init {
+            require(persistActions.all { it is PersistCheckpoint || it is PersistDeduplicationFacts }) {
+                "Only checkpoints and deduplication facts can be group committed"
+            }
+        }
+
+        override fun toString() = "GroupCommitCheckpoint($persistActions)"
+    }
+
     /**
      * Execute the specified [operation].
      */
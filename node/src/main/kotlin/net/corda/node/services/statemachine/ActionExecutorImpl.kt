@@ -1,15 +1,18 @@
 package net.corda.node.services.statemachine
 
 import co.paralleluniverse.fibers.Suspendable
+import co.paralleluniverse.strands.SettableFuture
 import com.codahale.metrics.Gauge
 import com.codahale.metrics.Reservoir
 import net.corda.core.serialization.SerializedBytes
 import net.corda.core.serialization.internal.CheckpointSerializationContext
 import net.corda.core.serialization.internal.checkpointSerialize
 import net.corda.core.utilities.contextLogger
+import net.corda.core.utilities.getOrThrow
 import net.corda.core.utilities.trace
 import net.corda.node.services.api.CheckpointStorage
 import net.corda.node.services.api.ServiceHubInternal
+import net.corda.node.services.messaging.DeduplicationHandler
 import net.corda.nodeapi.internal.persistence.contextDatabase
 import net.corda.nodeapi.internal.persistence.contextTransaction
 import net.corda.nodeapi.internal.persistence.contextTransactionOrNull
@@ -24,7 +27,8 @@ internal class ActionExecutorImpl(
     private val flowMessaging: FlowMessaging,
     private val stateMachineManager: StateMachineManagerInternal,
     private val actionFutureExecutor: ActionFutureExecutor,
-    private val checkpointSerializationContext: CheckpointSerializationContext
+    private val checkpointSerializationContext: CheckpointSerializationContext,
+    private val checkpointGroupCommitter: CheckpointGroupCommitter? = null
 ) : ActionExecutor {
 
     private companion object {
@@ -62,6 +66,7 @@ internal class ActionExecutorImpl(
             is Action.CreateTransaction -> executeCreateTransaction()
             is Action.RollbackTransaction -> executeRollbackTransaction()
             is Action.CommitTransaction -> executeCommitTransaction(action)
+            is Action.GroupCommitCheckpoint -> executeGroupCommitCheckpoint(action)
             is Action.ExecuteAsyncOperation -> executeAsyncOperation(fiber, action)
             is Action.ReleaseSoftLocks -> executeReleaseSoftLocks(action)
             is Action.RetryFlowFromSafePoint -> executeRetryFlowFromSafePoint(action)
@@ -84,6 +89,15 @@ internal class ActionExecutorImpl(
 
     @Suspendable
     private fun executePersistCheckpoint(action: Action.PersistCheckpoint) {
+        serializeCheckpoint(action)()
+    }
+
+    /**
+     * Serialize the checkpoint of [action] and return the database write which persists it. The serialization is done up front so that
+     * the write can be run on a different thread.
+     */
+    @Suspendable
+    private fun serializeCheckpoint(action: Action.PersistCheckpoint): () -> Unit {
         val checkpoint = action.checkpoint
         val flowState = checkpoint.flowState
         val serializedFlowState = when(flowState) {
@@ -93,10 +107,12 @@ internal class ActionExecutorImpl(
         }
         // upon implementing CORDA-3816: If we have errored or hospitalized then we don't need to serialize the serializedCheckpointState as it will not get saved in the DB
         val serializedCheckpointState: SerializedBytes<CheckpointState> = checkpoint.checkpointState.checkpointSerialize(checkpointSerializationContext)
-        if (action.isCheckpointUpdate) {
-            checkpointStorage.updateCheckpoint(action.id, checkpoint, serializedFlowState, serializedCheckpointState)
-        } else {
-            checkpointStorage.addCheckpoint(action.id, checkpoint, serializedFlowState, serializedCheckpointState)
+        return {
+            if (action.isCheckpointUpdate) {
+                checkpointStorage.updateCheckpoint(action.id, checkpoint, serializedFlowState, serializedCheckpointState)
+            } else {
+                checkpointStorage.addCheckpoint(action.id, checkpoint, serializedFlowState, serializedCheckpointState)
+            }
         }
     }
 
@@ -230,6 +246,29 @@ internal class ActionExecutorImpl(
         action.currentState.run { numberOfCommits = checkpoint.checkpointState.numberOfCommits }
     }
 
+    @Suspendable
+    @Throws(SQLException::class)
+    private fun executeGroupCommitCheckpoint(action: Action.GroupCommitCheckpoint) {
+        val writes: List<() -> Unit> = action.persistActions.map { persistAction ->
+            when (persistAction) {
+                is Action.PersistCheckpoint -> serializeCheckpoint(persistAction)
+                is Action.PersistDeduplicationFacts -> {
+                    { persistAction.deduplicationHandlers.forEach(DeduplicationHandler::insideDatabaseTransaction) }
+                }
+                else -> throw IllegalArgumentException("Unable to group commit $persistAction")
+            }
+        }
+        val committer = checkNotNull(checkpointGroupCommitter) { "Checkpoint group commit is not enabled" }
+        val committed = committer.commit { writes.forEach { it() } }
+        // Park the flow's fiber, rather than block its thread, until the group has committed so that the flow thread pool doesn't limit
+        // how many flows can share a group.
+        val groupCommitted = SettableFuture<Unit>()
+        committed.then { groupCommitted.set(Unit) }
+        groupCommitted.get()
+        committed.getOrThrow()
+        action.commit.currentState.run { numberOfCommits = checkpoint.checkpointState.numberOfCommits }
+    }
+
     @Suspendable
     private fun executeAsyncOperation(fiber: FlowFiber, action: Action.ExecuteAsyncOperation) {
         try {
@@ -87,7 +87,7 @@ internal class ActionFutureExecutor(
     }
 
     private fun scheduleWakeUpEvent(instance: StateMachineInstanceId, event: Event) {
-        innerState.withLock {
+        innerState.withShardLock(instance.runId) {
             flows[instance.runId]?.let { flow ->
                 // Only schedule a wake up event if the fiber the flow is executing on has not changed
                 if (flow.fiber.instanceId == instance) {
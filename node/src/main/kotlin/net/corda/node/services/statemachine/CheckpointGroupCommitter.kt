@@ -0,0 +1,143 @@
+package net.corda.node.services.statemachine
+
+import com.codahale.metrics.Gauge
+import com.codahale.metrics.MetricRegistry
+import net.corda.core.concurrent.CordaFuture
+import net.corda.core.internal.concurrent.OpenFuture
+import net.corda.core.internal.concurrent.openFuture
+import net.corda.core.utilities.contextLogger
+import net.corda.node.services.config.CheckpointGroupCommitConfiguration
+import net.corda.nodeapi.internal.persistence.CordaPersistence
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+
+/**
+ * Writes the checkpoint-only database transactions of many flows in a single transaction, so that they share a single commit (and the
+ * database's flush to disk) rather than each flow paying for its own.
+ *
+ * Flows hand over their writes with [commit], and wait on the returned future for the shared transaction to commit. The committer
+ * thread takes the first pending write and then collects any others which arrive within [CheckpointGroupCommitConfiguration.maxDelay],
+ * up to [CheckpointGroupCommitConfiguration.maxBatchSize] of them. If the shared transaction fails then each write in the group is
+ * retried in its own transaction, so that one bad checkpoint only fails its own flow.
+ */
+class CheckpointGroupCommitter(
+        private val database: CordaPersistence,
+        private val config: CheckpointGroupCommitConfiguration,
+        metrics: MetricRegistry
+) : AutoCloseable {
+    private companion object {
+        private val log = contextLogger()
+        private const val SHUTDOWN_TIMEOUT_SECONDS = 30L
+    }
+
+    private class PendingWrite(val write: () -> Unit) {
+        val committed: OpenFuture<Unit> = openFuture()
+    }
+
+    private val pendingWrites = LinkedBlockingQueue<PendingWrite>()
+    private val groupSizes = metrics.histogram("Flows.CheckpointGroupCommit.GroupSize")
+    private val commitTimer = metrics.timer("Flows.CheckpointGroupCommit.CommitDuration")
+    private val failedGroups = metrics.counter("Flows.CheckpointGroupCommit.FailedGroups")
+    @Volatile
+    private var running = true
+    private val committerThread = thread(name = "Checkpoint group committer", isDaemon = true) { processWrites() }
+
+    init {
+        metrics.register("Flows.CheckpointGroupCommit.QueueDepth", Gauge { pendingWrites.size })
+    }
+
+    /**
+     * Run [write] inside the next group transaction. The returned future completes once that transaction has committed, or with the
+     * exception thrown by [write] or by the commit.
+     */
+    fun commit(write: () -> Unit): CordaFuture<Unit> {
+        check(running) { "Checkpoint group committer has been shutdown" }
+        val pendingWrite = PendingWrite(write)
+        pendingWrites.put(pendingWrite)
+        // The write may have been queued after close() failed the pending writes.
+        if (!running && pendingWrites.remove(pendingWrite)) {
+            pendingWrite.committed.setException(shutdownException())
+        }
+        return pendingWrite.committed
+    }
+
+    private fun processWrites() {
+        val group = ArrayList<PendingWrite>(config.maxBatchSize)
+        while (running) {
+            try {
+                nextGroup(group)
+            } catch (e: InterruptedException) {
+                // Don't lose the writes which have already been taken off the queue.
+                val shutdownException = shutdownException()
+                group.forEach { it.committed.setException(shutdownException) }
+                break
+            }
+            commitGroup(group)
+            group.clear()
+        }
+    }
+
+    private fun nextGroup(group: MutableList<PendingWrite>) {
+        group += pendingWrites.take()
+        val deadline = System.nanoTime() + config.maxDelay.toNanos()
+        while (group.size < config.maxBatchSize) {
+            val remaining = deadline - System.nanoTime()
+            val next = if (remaining > 0) pendingWrites.poll(remaining, TimeUnit.NANOSECONDS) else pendingWrites.poll()
+            group += next ?: break
+        }
+    }
+
+    @Suppress("TooGenericExceptionCaught")
+    private fun commitGroup(group: List<PendingWrite>) {
+        groupSizes.update(group.size)
+        val context = commitTimer.time()
+        try {
+            database.transaction {
+                group.forEach { it.write() }
+            }
+            group.forEach { it.committed.set(Unit) }
+        } catch (e: Exception) {
+            failedGroups.inc()
+            if (group.size == 1) {
+                group[0].committed.setException(e)
+            } else {
+                log.info("Unable to commit group of ${group.size} checkpoints, committing each one separately", e)
+                group.forEach(::commitSeparately)
+            }
+        } finally {
+            context.stop()
+        }
+    }
+
+    @Suppress("TooGenericExceptionCaught")
+    private fun commitSeparately(pendingWrite: PendingWrite) {
+        try {
+            database.transaction {
+                pendingWrite.write()
+            }
+            pendingWrite.committed.set(Unit)
+        } catch (e: Exception) {
+            pendingWrite.committed.setException(e)
+        }
+    }
+
+    private fun shutdownException() = IllegalStateException("Checkpoint group committer has been shutdown")
+
+    /**
+     * Stops the committer thread, failing the writes which it hasn't started to commit, and then fails any writes still queued.
+     */
+    override fun close() {
+        running = false
+        committerThread.interrupt()
+        committerThread.join(TimeUnit.SECONDS.toMillis(SHUTDOWN_TIMEOUT_SECONDS))
+        if (committerThread.isAlive) {
+            log.warn("Checkpoint group committer did not stop within $SHUTDOWN_TIMEOUT_SECONDS seconds")
+        }
+        val shutdownException = shutdownException()
+        while (true) {
+            val pendingWrite = pendingWrites.poll() ?: break
+            pendingWrite.committed.setException(shutdownException)
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package net.corda.node.services.statemachine
+
+import com.codahale.metrics.Gauge
+import com.codahale.metrics.MetricRegistry
+import com.google.common.util.concurrent.ThreadFactoryBuilder
+import net.corda.core.utilities.contextLogger
+import java.util.ArrayDeque
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Restores flows from their checkpoints on a pool of [parallelism] threads, while the checkpoints are still being streamed from the
+ * database.
+ *
+ * Restore tasks are handed over with [submit] and their results are passed to [consumer] on the submitting thread, in the order they
+ * were submitted. At most [parallelism] * [IN_FLIGHT_PER_THREAD] tasks are in flight at a time, so that only a bounded number of
+ * serialized checkpoints are held in memory on top of the restored flows. With a [parallelism] of one the tasks are run directly on the
+ * submitting thread.
+ */
+internal class CheckpointRestorePipeline<T : Any>(
+        private val parallelism: Int,
+        metrics: MetricRegistry,
+        private val consumer: (T) -> Unit
+) : AutoCloseable {
+    private companion object {
+        private val log = contextLogger()
+        private const val IN_FLIGHT_PER_THREAD = 4
+        private const val PROGRESS_LOG_INTERVAL = 1000
+    }
+
+    private val executor: ExecutorService? = if (parallelism > 1) {
+        Executors.newFixedThreadPool(parallelism, ThreadFactoryBuilder().setNameFormat("checkpoint-restore-thread-%d").setDaemon(true).build())
+    } else {
+        null
+    }
+    private val inFlight = ArrayDeque<Future<T?>>()
+    private val inFlightCount = AtomicInteger()
+    private val restoredCount = metrics.counter("Flows.Restore.Restored")
+    private val failedCount = metrics.counter("Flows.Restore.Failed")
+    private val restoreTimer = metrics.timer("Flows.Restore.Duration")
+    private val startTime = System.nanoTime()
+
+    init {
+        metrics.register("Flows.Restore.InFlight", Gauge { inFlightCount.get() })
+    }
+
+    /**
+     * Queue [task] for restoring a single checkpoint. A null result means the checkpoint could not be restored and is not passed on to
+     * the [consumer]. This may block while earlier tasks complete.
+     */
+    fun submit(task: () -> T?) {
+        if (executor == null) {
+            complete(timed(task))
+            return
+        }
+        while (inFlight.size >= parallelism * IN_FLIGHT_PER_THREAD) {
+            completeNext()
+        }
+        inFlightCount.incrementAndGet()
+        inFlight.addLast(executor.submit<T?> { timed(task) })
+    }
+
+    /**
+     * Wait for all submitted tasks to complete and pass their results to the [consumer].
+     */
+    fun finish() {
+        while (inFlight.isNotEmpty()) {
+            completeNext()
+        }
+        val restored = restoredCount.count
+        if (restored > 0) {
+            log.info("Restored $restored flows from their checkpoints in ${(System.nanoTime() - startTime) / 1_000_000} ms " +
+                    "using $parallelism threads")
+        }
+    }
+
+    private fun timed(task: () -> T?): T? = restoreTimer.time().use { task() }
+
+    private fun completeNext() {
+        val next = inFlight.removeFirst()
+        val result = try {
+            next.get()
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        } finally {
+            inFlightCount.decrementAndGet()
+        }
+        complete(result)
+    }
+
+    private fun complete(result: T?) {
+        if (result == null) {
+            failedCount.inc()
+            return
+        }
+        consumer(result)
+        restoredCount.inc()
+        if (restoredCount.count % PROGRESS_LOG_INTERVAL == 0L) {
+            log.info("Restored ${restoredCount.count} flows from their checkpoints so far")
+        }
+    }
+
+    override fun close() {
+        executor?.shutdownNow()
+    }
+}
@@ -84,6 +84,10 @@ class FlowCreator(
         )
     }
 
+    /**
+     * Create the flow [runId] from its checkpoint. A change in whether the checkpoint is [Checkpoint.compatible] is passed to
+     * [updateCompatible], which by default writes it to the database in its own transaction, or the caller's if it has one.
+     */
     @Suppress("LongParameterList")
     fun createFlowFromCheckpoint(
         runId: StateMachineRunId,
@@ -93,15 +97,16 @@ class FlowCreator(
         resultFuture: OpenFuture<Any?> = openFuture(),
         firstRestore: Boolean = true,
         isKilled: Boolean = false,
-        progressTracker: ProgressTracker? = null
+        progressTracker: ProgressTracker? = null,
+        updateCompatible: (Boolean) -> Unit = { updateCompatibleInDb(runId, it) }
     ): Flow<*>? {
         val fiber = oldCheckpoint.getFiberFromCheckpoint(runId, firstRestore)
         var checkpoint = oldCheckpoint
         if (fiber == null) {
-            updateCompatibleInDb(runId, false)
+            updateCompatible(false)
             return null
         } else if (!oldCheckpoint.compatible) {
-            updateCompatibleInDb(runId, true)
+            updateCompatible(true)
             checkpoint = checkpoint.copy(compatible = true)
         }
 
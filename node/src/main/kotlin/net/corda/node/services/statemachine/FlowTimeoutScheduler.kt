@@ -40,7 +40,7 @@ internal class FlowTimeoutScheduler(
      * @param flowId The flow's id
      */
     fun cancel(flowId: StateMachineRunId) {
-        innerState.withLock {
+        innerState.withShardLock(flowId) {
             timedFlows[flowId]?.let { (future, _) ->
                 future.cancelIfRunning()
                 timedFlows.remove(flowId)
@@ -66,8 +66,8 @@ internal class FlowTimeoutScheduler(
         }
     }
 
-    private inline fun timeout(flowId: StateMachineRunId, timeout: (flow: Flow<*>, retryCount: Int) -> ScheduledTimeout) {
-        innerState.withLock {
+    private inline fun timeout(flowId: StateMachineRunId, crossinline timeout: (flow: Flow<*>, retryCount: Int) -> ScheduledTimeout) {
+        innerState.withShardLock(flowId) {
             val flow = flows[flowId]
             if (flow != null) {
                 val retryCount = timedFlows[flowId]?.let { (future, retryCount) ->
@@ -95,7 +95,9 @@ internal class SingleThreadedStateMachineManager(
         var onStartFlowInternalThrewAndAboutToRemove: (() -> Unit)? = null
     }
 
-    private val innerState = StateMachineInnerStateImpl()
+    private val innerState: StateMachineInnerState = serviceHub.configuration.stateMachineShards.let { shards ->
+        if (shards > 1) ShardedStateMachineInnerState(shards) else StateMachineInnerStateImpl()
+    }
     private val scheduler = FiberExecutorScheduler("Same thread scheduler", executor)
     private val scheduledFutureExecutor = Executors.newSingleThreadScheduledExecutor(
             ThreadFactoryBuilder().setNameFormat("flow-scheduled-future-thread").setDaemon(true).build()
@@ -109,6 +111,9 @@ internal class SingleThreadedStateMachineManager(
     private val actionFutureExecutor = ActionFutureExecutor(innerState, serviceHub, scheduledFutureExecutor)
     private val flowTimeoutScheduler = FlowTimeoutScheduler(innerState, scheduledFutureExecutor, serviceHub)
     private val ourSenderUUID = serviceHub.networkService.ourSenderUUID
+    private val checkpointGroupCommitter = serviceHub.configuration.checkpointGroupCommit?.let {
+        CheckpointGroupCommitter(database, it, metrics)
+    }
 
     private lateinit var checkpointSerializationContext: CheckpointSerializationContext
     private lateinit var flowCreator: FlowCreator
@@ -283,6 +288,7 @@ internal class SingleThreadedStateMachineManager(
         liveFibers.countDown(allowedUnsuspendedFiberCount)
         awaitShutdownOfFlows()
         flowHospital.close()
+        checkpointGroupCommitter?.close()
         scheduledFutureExecutor.shutdown()
         scheduler.shutdown()
     }
@@ -335,7 +341,7 @@ internal class SingleThreadedStateMachineManager(
         val clientId = context.clientId
         if (clientId != null) {
             var existingStatus: FlowWithClientIdStatus? = null
-            innerState.withLock {
+            innerState.withShardLock(flowId) {
                 clientIdsToFlowIds.compute(clientId) { _, status ->
                     if (status != null) {
                         existingStatus = status
@@ -378,10 +384,10 @@ internal class SingleThreadedStateMachineManager(
             }
         } catch (t: Throwable) {
             onStartFlowInternalThrewAndAboutToRemove?.invoke()
-            innerState.withLock {
-                clientIdsToFlowIds.remove(clientId)
-                newFuture?.setException(t)
+            innerState.withShardLock(flowId) {
+                clientId?.let { clientIdsToFlowIds.remove(it) }
             }
+            newFuture?.setException(t)
             // Throwing the exception plain here is the same as to return an exceptionally completed future since the caller calls
             // getOrThrow() on the returned future at [CordaRPCOpsImpl.startFlow].
             throw t
@@ -558,7 +564,7 @@ internal class SingleThreadedStateMachineManager(
     }
 
     override fun removeFlow(flowId: StateMachineRunId, removalReason: FlowRemovalReason, lastState: StateMachineState) {
-        innerState.withLock {
+        val notifyRemoval = innerState.withShardLock(flowId) {
             flowTimeoutScheduler.cancel(flowId)
             lastState.cancelFutureIfRunning()
             val flow = flows.remove(flowId)
@@ -568,21 +574,24 @@ internal class SingleThreadedStateMachineManager(
                 when (removalReason) {
                     is FlowRemovalReason.OrderlyFinish -> removeFlowOrderly(flow, removalReason, lastState)
                     is FlowRemovalReason.ErrorFinish -> removeFlowError(flow, removalReason, lastState)
-                    FlowRemovalReason.SoftShutdown -> { /* No further tidy up is required */ }
+                    FlowRemovalReason.SoftShutdown -> null // No further tidy up is required
                 }
             } else {
                 logger.warn("Flow $flowId re-finished")
+                null
             }
         }
+        // The callbacks of the flow's futures and the subscribers to its changes may call back into the state machine, which can't take
+        // its lock while the flow's shard lock is held, so they're run once it has been released.
+        notifyRemoval?.invoke()
     }
 
     override fun signalFlowHasStarted(flowId: StateMachineRunId) {
-        innerState.withLock {
-            startedFutures.remove(flowId)?.set(Unit)
-            flows[flowId]?.let { flow ->
-                changesPublisher.onNext(StateMachineManager.Change.Add(flow.fiber.logic))
-            }
+        val (startedFuture, change) = innerState.withShardLock(flowId) {
+            Pair(startedFutures.remove(flowId), flows[flowId]?.let { flow -> StateMachineManager.Change.Add(flow.fiber.logic) })
         }
+        startedFuture?.set(Unit)
+        change?.let(innerState::publishChange)
     }
 
     private fun checkQuasarJavaAgentPresence() {
@@ -603,16 +612,15 @@ internal class SingleThreadedStateMachineManager(
     private fun restoreFlowsFromCheckpoints(): Pair<MutableMap<StateMachineRunId, Flow<*>>, MutableMap<StateMachineRunId, NonResidentFlow>> {
         val flows = mutableMapOf<StateMachineRunId, Flow<*>>()
         val pausedFlows = mutableMapOf<StateMachineRunId, NonResidentFlow>()
-        checkpointStorage.getCheckpointsToRun().forEach Checkpoints@{(id, serializedCheckpoint) ->
-            // If a flow is added before start() then don't attempt to restore it
-            innerState.withLock { if (id in flows) return@Checkpoints }
-            val checkpoint = tryDeserializeCheckpoint(serializedCheckpoint, id)?.also {
-                if (it.status == Checkpoint.FlowStatus.HOSPITALIZED) {
-                    checkpointStorage.removeFlowException(id)
-                    checkpointStorage.updateStatus(id, Checkpoint.FlowStatus.RUNNABLE)
-                }
-            } ?: return@Checkpoints
-            val flow = flowCreator.createFlowFromCheckpoint(id, checkpoint)
+        // Deserializing the checkpoint and its fiber is done by the pipeline, possibly on other threads, while the database updates
+        // remain in this thread's transaction.
+        val restoreParallelism = serviceHub.configuration.checkpointRestoreParallelism
+        val pipeline = CheckpointRestorePipeline<RestoredCheckpoint>(restoreParallelism, metrics) { (id, checkpoint, flow, compatible) ->
+            compatible?.let { checkpointStorage.updateCompatible(id, it) }
+            if (checkpoint.status == Checkpoint.FlowStatus.HOSPITALIZED) {
+                checkpointStorage.removeFlowException(id)
+                checkpointStorage.updateStatus(id, Checkpoint.FlowStatus.RUNNABLE)
+            }
             if (flow == null) {
                 // Set the flowState to paused so we don't waste memory storing it anymore.
                 pausedFlows[id] = NonResidentFlow(id, checkpoint.copy(flowState = FlowState.Paused), resumable = false)
@@ -620,6 +628,20 @@ internal class SingleThreadedStateMachineManager(
                 flows[id] = flow
             }
         }
+        pipeline.use {
+            checkpointStorage.getCheckpointsToRun().forEach Checkpoints@{(id, serializedCheckpoint) ->
+                // If a flow is added before start() then don't attempt to restore it
+                innerState.withLock { if (id in flows) return@Checkpoints }
+                pipeline.submit {
+                    tryDeserializeCheckpoint(serializedCheckpoint, id)?.let { checkpoint ->
+                        var compatible: Boolean? = null
+                        val flow = flowCreator.createFlowFromCheckpoint(id, checkpoint, updateCompatible = { compatible = it })
+                        RestoredCheckpoint(id, checkpoint, flow, compatible)
+                    }
+                }
+            }
+            pipeline.finish()
+        }
         checkpointStorage.getPausedCheckpoints().forEach Checkpoints@{ (id, serializedCheckpoint, hospitalised) ->
             val checkpoint = tryDeserializeCheckpoint(serializedCheckpoint, id) ?: return@Checkpoints
             pausedFlows[id] = NonResidentFlow(id, checkpoint, hospitalized = hospitalised)
@@ -627,6 +649,9 @@ internal class SingleThreadedStateMachineManager(
         return Pair(flows, pausedFlows)
     }
 
+    /** A restored flow, along with the change to its checkpoint's compatibility flag which is yet to be written to the database. */
+    private data class RestoredCheckpoint(val id: StateMachineRunId, val checkpoint: Checkpoint, val flow: Flow<*>?, val compatible: Boolean?)
+
     private fun resumeRestoredFlows(flows: Map<StateMachineRunId, Flow<*>>) {
         for ((id, flow) in flows.entries) {
             addAndStartFlow(id, flow)
@@ -780,7 +805,7 @@ internal class SingleThreadedStateMachineManager(
     }
 
     override fun deliverExternalEvent(event: ExternalEvent) {
-        innerState.withLock {
+        innerState.withSharedLock {
             if (!stopping) {
                 when (event) {
                     is ExternalEvent.ExternalMessageEvent -> onSessionMessage(event)
@@ -845,7 +870,7 @@ internal class SingleThreadedStateMachineManager(
                 }
             } else {
                 val event = Event.DeliverSessionMessage(sessionMessage, deduplicationHandler, sender)
-                innerState.withLock {
+                innerState.withShardLock(flowId) {
                     flows[flowId]?.run { fiber.scheduleEvent(event) }
                         // If flow is not running add it to the list of external events to be processed if/when the flow resumes.
                         ?: pausedFlows[flowId]?.run { addExternalEvent(externalEvent) }
@@ -942,7 +967,7 @@ internal class SingleThreadedStateMachineManager(
     ): CordaFuture<FlowStateMachine<A>> {
         onCallingStartFlowInternal?.invoke()
 
-        val existingCheckpoint = if (innerState.withLock { flows[flowId] != null }) {
+        val existingCheckpoint = if (innerState.withShardLock(flowId) { flows[flowId] != null }) {
             // Load the flow's checkpoint
             // The checkpoint will be missing if the flow failed before persisting the original checkpoint
             // CORDA-3359 - Do not start/retry a flow that failed after deleting its checkpoint (the whole of the flow might replay)
@@ -968,7 +993,7 @@ internal class SingleThreadedStateMachineManager(
             ourSenderUUID
         )
         val startedFuture = openFuture<Unit>()
-        innerState.withLock {
+        innerState.withShardLock(flowId) {
             startedFutures[flowId] = startedFuture
         }
         totalStartedFlows.inc()
@@ -1032,10 +1057,10 @@ internal class SingleThreadedStateMachineManager(
         for (sessionId in getFlowSessionIds(checkpoint)) {
             sessionToFlow[sessionId] = id
         }
-        innerState.withLock {
+        val notStartedFuture = innerState.withShardLock(id) {
             if (stopping) {
-                startedFutures[id]?.setException(IllegalStateException("Will not start flow as SMM is stopping"))
                 logger.trace("Not resuming as SMM is stopping.")
+                startedFutures[id]
             } else {
                 val oldFlow = flows.put(id, flow)
                 if (oldFlow == null) {
@@ -1048,8 +1073,10 @@ internal class SingleThreadedStateMachineManager(
                 if (flowLogic.isEnabledTimedFlow()) flowTimeoutScheduler.timeout(id)
                 flow.fiber.scheduleEvent(Event.DoRemainingWork)
                 startOrResume(checkpoint, flow)
+                null
             }
         }
+        notStartedFuture?.setException(IllegalStateException("Will not start flow as SMM is stopping"))
     }
 
     private fun startOrResume(checkpoint: Checkpoint, flow: Flow<*>) {
@@ -1081,7 +1108,8 @@ internal class SingleThreadedStateMachineManager(
             flowMessaging,
             this,
             actionFutureExecutor,
-            checkpointSerializationContext
+            checkpointSerializationContext,
+            checkpointGroupCommitter
         )
     }
 
@@ -1094,7 +1122,7 @@ internal class SingleThreadedStateMachineManager(
         if (logger.isDebugEnabled) {
             interceptors.add { PrintingInterceptor(it) }
         }
-        val transitionExecutor: TransitionExecutor = TransitionExecutorImpl(secureRandom, database)
+        val transitionExecutor: TransitionExecutor = TransitionExecutorImpl(secureRandom, database, checkpointGroupCommitter != null)
         return interceptors.fold(transitionExecutor) { executor, interceptor -> interceptor(executor) }
     }
 
@@ -1104,11 +1132,12 @@ internal class SingleThreadedStateMachineManager(
         return StaffedFlowHospital(flowMessaging, serviceHub.clock, ourSenderUUID)
     }
 
+    /** Removes the state of the finished [flow], returning the notification of its result to run once the lock has been released. */
     private fun StateMachineInnerState.removeFlowOrderly(
             flow: Flow<*>,
             removalReason: FlowRemovalReason.OrderlyFinish,
             lastState: StateMachineState
-    ) {
+    ): () -> Unit {
         drainFlowEventQueue(flow)
         // final sanity checks
         require(lastState.pendingDeduplicationHandlers.isEmpty()) { "Flow cannot be removed until all pending deduplications have completed" }
@@ -1116,16 +1145,19 @@ internal class SingleThreadedStateMachineManager(
         require(lastState.checkpoint.checkpointState.subFlowStack.size == 1) { "Checkpointed stack must be empty" }
         require(flow.fiber.id !in sessionToFlow.values) { "Flow fibre must not be needed by an existing session" }
         flow.fiber.clientId?.let { setClientIdAsSucceeded(it, flow.fiber.id) }
-        flow.resultFuture.set(removalReason.flowReturnValue)
-        lastState.flowLogic.progressTracker?.currentStep = ProgressTracker.DONE
-        changesPublisher.onNext(StateMachineManager.Change.Removed(lastState.flowLogic, Try.Success(removalReason.flowReturnValue)))
+        return {
+            flow.resultFuture.set(removalReason.flowReturnValue)
+            lastState.flowLogic.progressTracker?.currentStep = ProgressTracker.DONE
+            publishChange(StateMachineManager.Change.Removed(lastState.flowLogic, Try.Success(removalReason.flowReturnValue)))
+        }
     }
 
+    /** Removes the state of the failed [flow], returning the notification of its error to run once the lock has been released. */
     private fun StateMachineInnerState.removeFlowError(
             flow: Flow<*>,
             removalReason: FlowRemovalReason.ErrorFinish,
             lastState: StateMachineState
-    ) {
+    ): () -> Unit {
         drainFlowEventQueue(flow)
         flow.fiber.clientId?.let {
             // If the flow was killed before fully initialising and persisting its initial checkpoint,
@@ -1135,14 +1167,17 @@ internal class SingleThreadedStateMachineManager(
             } else {
                 setClientIdAsFailed(it, flow.fiber.id) }
         }
-        // Complete the started future, needed when the flow fails during flow init (before completing an [UnstartedFlowTransition])
-        startedFutures.remove(flow.fiber.id)?.set(Unit)
+        val startedFuture = startedFutures.remove(flow.fiber.id)
         val flowError = removalReason.flowErrors[0] // TODO what to do with several?
         val exception = flowError.exception
         (exception as? FlowException)?.originalErrorId = flowError.errorId
-        flow.resultFuture.setException(exception)
-        lastState.flowLogic.progressTracker?.endWithError(exception)
-        changesPublisher.onNext(StateMachineManager.Change.Removed(lastState.flowLogic, Try.Failure<Nothing>(exception)))
+        return {
+            // Complete the started future, needed when the flow fails during flow init (before completing an [UnstartedFlowTransition])
+            startedFuture?.set(Unit)
+            flow.resultFuture.setException(exception)
+            lastState.flowLogic.progressTracker?.endWithError(exception)
+            publishChange(StateMachineManager.Change.Removed(lastState.flowLogic, Try.Failure<Nothing>(exception)))
+        }
     }
 
     // The flow's event queue may be non-empty in case it shut down abruptly. We handle outstanding events here.
@@ -4,12 +4,16 @@ import net.corda.core.flows.StateMachineRunId
 import net.corda.core.internal.concurrent.OpenFuture
 import net.corda.node.services.statemachine.StateMachineManager.Change
 import rx.subjects.PublishSubject
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.ScheduledFuture
 import java.util.concurrent.locks.Lock
 import java.util.concurrent.locks.ReentrantLock
+import java.util.concurrent.locks.ReentrantReadWriteLock
 import kotlin.concurrent.withLock
 
 internal interface StateMachineInnerState {
+    /** True if we're shutting down, so don't resume anything. */
+    var stopping: Boolean
     val lock: Lock
     val flows: MutableMap<StateMachineRunId, Flow<*>>
     val pausedFlows: MutableMap<StateMachineRunId, NonResidentFlow>
@@ -20,11 +24,27 @@ internal interface StateMachineInnerState {
     val clientIdsToFlowIds: MutableMap<String, FlowWithClientIdStatus>
 
     fun <R> withMutex(block: StateMachineInnerState.() -> R): R
+
+    /**
+     * Run [block] holding a lock which is enough to read and update the state of the single flow [id], such as its entries in [flows],
+     * [pausedFlows], [startedFutures] and [timedFlows]. By default this is the same lock as [withMutex].
+     */
+    fun <R> withShardLock(id: StateMachineRunId, block: StateMachineInnerState.() -> R): R = withMutex(block)
+
+    /**
+     * Run [block] holding a lock which only excludes [withMutex], for work which needs [stopping] to not change underneath it but which
+     * otherwise only touches individual flows under [withShardLock]. By default this is the same lock as [withMutex].
+     */
+    fun <R> withSharedLock(block: StateMachineInnerState.() -> R): R = withMutex(block)
+
+    /** Publish [change] to the subscribers of [changesPublisher]. */
+    fun publishChange(change: Change) {
+        changesPublisher.onNext(change)
+    }
 }
 
 internal class StateMachineInnerStateImpl : StateMachineInnerState {
-    /** True if we're shutting down, so don't resume anything. */
-    var stopping = false
+    override var stopping = false
     override val lock = ReentrantLock()
     override val changesPublisher = PublishSubject.create<Change>()!!
     override val flows = HashMap<StateMachineRunId, Flow<*>>()
@@ -36,6 +56,57 @@ internal class StateMachineInnerStateImpl : StateMachineInnerState {
     override fun <R> withMutex(block: StateMachineInnerState.() -> R): R = lock.withLock { block(this) }
 }
 
+/**
+ * A [StateMachineInnerState] which splits the flows between [shardCount] locks, so that operations on different flows, such as
+ * delivering session messages and starting or removing flows, don't all contend on a single lock.
+ *
+ * [withShardLock] holds the read side of a read-write lock plus the lock of the flow's shard, while [withSharedLock] holds just the read
+ * side. [withMutex] and [withLock] take the write side, and so still exclude every shard, as needed by operations across all flows such
+ * as stopping the state machine or taking the snapshot for a [StateMachineManager.track]. A read lock cannot be upgraded, so taking the
+ * write side while only holding a shard lock fails rather than deadlocking.
+ */
+internal class ShardedStateMachineInnerState(shardCount: Int) : StateMachineInnerState {
+    private val globalLock = ReentrantReadWriteLock()
+    private val shardLocks = Array(shardCount) { ReentrantLock() }
+
+    @Volatile
+    override var stopping = false
+    override val lock: Lock = ExclusiveLock(globalLock.writeLock())
+    override val changesPublisher = PublishSubject.create<Change>()!!
+    override val flows = ConcurrentHashMap<StateMachineRunId, Flow<*>>()
+    override val pausedFlows = ConcurrentHashMap<StateMachineRunId, NonResidentFlow>()
+    override val startedFutures = ConcurrentHashMap<StateMachineRunId, OpenFuture<Unit>>()
+    override val timedFlows = ConcurrentHashMap<StateMachineRunId, ScheduledTimeout>()
+    override val clientIdsToFlowIds = ConcurrentHashMap<String, FlowWithClientIdStatus>()
+
+    override fun <R> withMutex(block: StateMachineInnerState.() -> R): R = lock.withLock { block(this) }
+
+    override fun <R> withShardLock(id: StateMachineRunId, block: StateMachineInnerState.() -> R): R {
+        val shardLock = shardLocks[Math.floorMod(id.uuid.hashCode(), shardLocks.size)]
+        return globalLock.readLock().withLock {
+            shardLock.withLock { block(this) }
+        }
+    }
+
+    override fun <R> withSharedLock(block: StateMachineInnerState.() -> R): R = globalLock.readLock().withLock { block(this) }
+
+    override fun publishChange(change: Change) {
+        // Changes for flows in different shards can be published concurrently, but subscribers expect them one at a time.
+        synchronized(changesPublisher) {
+            changesPublisher.onNext(change)
+        }
+    }
+
+    private inner class ExclusiveLock(private val writeLock: Lock) : Lock by writeLock {
+        override fun lock() {
+            check(globalLock.isWriteLockedByCurrentThread || globalLock.readHoldCount == 0) {
+                "Cannot take the state machine lock while holding a flow shard lock"
+            }
+            writeLock.lock()
+        }
+    }
+}
+
 internal inline fun <reified T : StateMachineInnerState, R> T.withLock(block: T.() -> R): R = lock.withLock { block(this) }
 
 internal data class ScheduledTimeout(
@@ -19,10 +19,14 @@ import javax.persistence.OptimisticLockException
  *
  * If a failure happens when we're already transitioning into a errored state then the transition and the flow fiber is
  * completely aborted to avoid error loops.
+ *
+ * If [groupCommitCheckpoints] is true then database transactions which do nothing more than persist the flow's checkpoint are replaced
+ * with [Action.GroupCommitCheckpoint].
  */
 class TransitionExecutorImpl(
     val secureRandom: SecureRandom,
-    val database: CordaPersistence
+    val database: CordaPersistence,
+    private val groupCommitCheckpoints: Boolean = false
 ) : TransitionExecutor {
 
     private companion object {
@@ -39,7 +43,8 @@ class TransitionExecutorImpl(
         actionExecutor: ActionExecutor
     ): Pair<FlowContinuation, StateMachineState> {
         contextDatabase = database
-        for (action in transition.actions) {
+        val actions = if (groupCommitCheckpoints) groupCheckpointCommits(transition.actions) else transition.actions
+        for (action in actions) {
             try {
                 actionExecutor.executeAction(fiber, action)
             } catch (exception: Exception) {
@@ -92,6 +97,34 @@ class TransitionExecutorImpl(
         return Pair(transition.continuation, transition.newState)
     }
 
+    /**
+     * Replace each [Action.CreateTransaction] which is followed only by [Action.PersistCheckpoint]s and [Action.PersistDeduplicationFacts]
+     * before its [Action.CommitTransaction] with an equivalent [Action.GroupCommitCheckpoint].
+     */
+    private fun groupCheckpointCommits(actions: List<Action>): List<Action> {
+        if (Action.CreateTransaction !in actions) return actions
+        val grouped = ArrayList<Action>(actions.size)
+        var index = 0
+        while (index < actions.size) {
+            val action = actions[index]
+            if (action === Action.CreateTransaction) {
+                var end = index + 1
+                while (end < actions.size && (actions[end] is Action.PersistCheckpoint || actions[end] is Action.PersistDeduplicationFacts)) {
+                    end++
+                }
+                val commit = actions.getOrNull(end)
+                if (end > index + 1 && commit is Action.CommitTransaction) {
+                    grouped += Action.GroupCommitCheckpoint(actions.subList(index + 1, end).toList(), commit)
+                    index = end + 1
+                    continue
+                }
+            }
+            grouped += action
+            index++
+        }
+        return grouped
+    }
+
     private fun rollbackTransactionOnError() {
         contextTransactionOrNull?.run {
             try {
@@ -2,6 +2,7 @@ package net.corda.node.services.vault
 
 import co.paralleluniverse.fibers.Suspendable
 import co.paralleluniverse.strands.Strand
+import com.codahale.metrics.MetricRegistry
 import net.corda.core.CordaRuntimeException
 import net.corda.core.contracts.Amount
 import net.corda.core.contracts.ContractState
@@ -40,6 +41,7 @@ import net.corda.core.node.services.vault.Sort
 import net.corda.core.node.services.vault.SortAttribute
 import net.corda.core.observable.internal.OnResilientSubscribe
 import net.corda.core.schemas.PersistentStateRef
+import net.corda.core.schemas.StatePersistable
 import net.corda.core.serialization.SingletonSerializeAsToken
 import net.corda.core.transactions.ContractUpgradeWireTransaction
 import net.corda.core.transactions.CoreTransaction
@@ -62,6 +64,7 @@ import net.corda.nodeapi.internal.persistence.contextTransactionOrNull
 import net.corda.nodeapi.internal.persistence.currentDBSession
 import net.corda.nodeapi.internal.persistence.wrapWithDatabaseTransaction
 import org.hibernate.Session
+import org.hibernate.internal.SessionImpl
 import org.hibernate.query.Query
 import rx.Observable
 import rx.exceptions.OnErrorNotImplementedException
@@ -70,10 +73,13 @@ import java.security.PublicKey
 import java.sql.SQLException
 import java.time.Clock
 import java.time.Instant
+import java.util.Spliterator
+import java.util.Spliterators
 import java.util.UUID
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.CopyOnWriteArraySet
 import java.util.stream.Stream
+import java.util.stream.StreamSupport
 import javax.persistence.PersistenceException
 import javax.persistence.Tuple
 import javax.persistence.criteria.CriteriaBuilder
@@ -99,16 +105,24 @@ class NodeVaultService(
         private val keyManagementService: KeyManagementService,
         private val serviceHub: VerifyingServiceHub,
         private val database: CordaPersistence,
-        schemaService: SchemaService,
-        private val appClassloader: ClassLoader
+        private val schemaService: SchemaService,
+        private val appClassloader: ClassLoader,
+        metrics: MetricRegistry? = null,
+        stateMappingParallelism: Int = 1
 ) : SingletonSerializeAsToken(), VaultServiceInternal {
     companion object {
         private val log = contextLogger()
 
         const val DEFAULT_SOFT_LOCKING_SQL_IN_CLAUSE_SIZE = 16
 
+        /** The JDBC batch size used when recording vault updates, so that the rows for many states are written in a few round trips. */
+        private const val RECORD_UPDATE_JDBC_BATCH_SIZE = 100
+
         private val IGNORE_TRANSACTION_DESERIALIZATION_ERRORS = java.lang.Boolean.getBoolean("net.corda.vaultupdate.ignore.transaction.deserialization.errors")
 
+        /** The order of the pages requested with [PageSpecification.afterStateRef]. */
+        private val STATE_REF_ORDER = Sort.SortColumn(SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF), Sort.Direction.ASC)
+
         /**
          * Establish whether a given state is relevant to a node, given the node's public keys.
          *
@@ -135,7 +149,7 @@ class NodeVaultService(
 
     private val mutex = ThreadBox(InnerState())
     private val criteriaBuilder: CriteriaBuilder by lazy { database.hibernateConfig.sessionFactoryForRegisteredSchemas.criteriaBuilder }
-    private val persistentStateService = PersistentStateService(schemaService)
+    private val persistentStateService = PersistentStateService(schemaService, metrics, stateMappingParallelism)
 
     /**
      * Maintain a list of contract state interfaces to concrete types stored in the vault
@@ -162,7 +176,14 @@ class NodeVaultService(
         }
     }
 
+    /** Releases the threads used to map states for their schemas. The node calls this when it stops. */
+    fun close() {
+        persistentStateService.close()
+    }
+
     private fun saveStates(session: Session, states: Map<StateRef, StateAndRef<ContractState>>) {
+        // Each kind of row is saved together, so that Hibernate can send them to the database in JDBC batches.
+        val persistentParties = ArrayList<VaultSchemaV1.PersistentParty>()
         states.forEach { stateAndRef ->
             val stateOnly = stateAndRef.value.state.data
             // TODO: Optimise this.
@@ -193,10 +214,8 @@ class NodeVaultService(
             val isRelevant = isRelevant(stateOnly, keyManagementService.filterMyKeys(keys).toSet())
             val constraintInfo = Vault.ConstraintInfo(stateAndRef.value.state.constraint)
             // Save a row for each party in the state_party table.
-            // TODO: Perhaps these can be stored in a batch?
             stateOnly.participants.groupBy { it.owningKey }.forEach { participants ->
-                val persistentParty = VaultSchemaV1.PersistentParty(persistentStateRef, participants.value.first())
-                session.save(persistentParty)
+                persistentParties += VaultSchemaV1.PersistentParty(persistentStateRef, participants.value.first())
             }
             val stateToAdd = VaultSchemaV1.VaultStates(
                     notary = stateAndRef.value.state.notary,
@@ -210,6 +229,44 @@ class NodeVaultService(
             stateToAdd.stateRef = persistentStateRef
             session.save(stateToAdd)
         }
+        persistentParties.forEach { session.save(it) }
+    }
+
+    /**
+     * Marks the [consumedStateRefs] as consumed with set-based updates, one per consuming transaction and chunk of states, rather than
+     * loading and saving each state. States which have already been consumed are left alone, as the transaction may be being re-recorded,
+     * and any soft lock held on a consumed state is removed.
+     */
+    private fun consumeStates(session: Session, consumedStateRefs: List<StateRef>, consumingTxIds: Map<StateRef, SecureHash>) {
+        val consumedTime = clock.instant()
+        val criteriaBuilder = session.criteriaBuilder
+        consumedStateRefs.groupBy { consumingTxIds[it] }.forEach { (consumingTxId, stateRefs) ->
+            val updatedRows = criteriaBuilder.executeUpdate(session, NonEmptySet.copyOf(stateRefs)) { update, persistentStateRefs ->
+                val lockId = get<String>(VaultSchemaV1.VaultStates::lockId.name)
+                val lockUpdateTime = get<Instant>(VaultSchemaV1.VaultStates::lockUpdateTime.name)
+                update.set(get(VaultSchemaV1.VaultStates::stateStatus.name), Vault.StateStatus.CONSUMED)
+                update.set(get(VaultSchemaV1.VaultStates::consumedTime.name), consumedTime)
+                update.set(get<String>(VaultSchemaV1.VaultStates::consumingTxId.name), consumingTxId?.toString())
+                update.set(lockUpdateTime, criteriaBuilder.selectCase<Instant>().`when`(lockId.isNotNull, consumedTime).otherwise(lockUpdateTime))
+                update.set(lockId, criteriaBuilder.nullLiteral(String::class.java))
+                val compositeKey = get<PersistentStateRef>(VaultSchemaV1.VaultStates::stateRef.name)
+                update.where(
+                        criteriaBuilder.notEqual(get<Vault.StateStatus>(VaultSchemaV1.VaultStates::stateStatus.name), Vault.StateStatus.CONSUMED),
+                        compositeKey.`in`(persistentStateRefs)
+                )
+            }
+            log.trace { "Marked $updatedRows of ${stateRefs.size} states as consumed by $consumingTxId" }
+        }
+        detachStates(session, consumedStateRefs)
+    }
+
+    /** Detaches any of [stateRefs] already loaded by [session], as they are left stale by a set-based update. */
+    private fun detachStates(session: Session, stateRefs: List<StateRef>) {
+        if (session !is SessionImpl) return
+        val persister = session.factory.metamodel.entityPersister(VaultSchemaV1.VaultStates::class.java)
+        for (stateRef in stateRefs) {
+            session.persistenceContext.getEntity(session.generateEntityKey(PersistentStateRef(stateRef), persister))?.let(session::detach)
+        }
     }
 
     private fun recordUpdate(update: Vault.Update<ContractState>): Vault.Update<ContractState> {
@@ -220,35 +277,26 @@ class NodeVaultService(
             val referenceStateRefsMap = update.references.associateBy { it.ref }
             log.trace { "Removing $consumedStateRefs consumed contract states and adding $producedStateRefs produced contract states to the database." }
 
+            // The session is shared with the rest of the transaction, so the batch size only applies to the vault's own writes, which are
+            // flushed before it is restored.
             val session = currentDBSession()
+            val previousJdbcBatchSize = session.jdbcBatchSize
+            session.jdbcBatchSize = previousJdbcBatchSize ?: RECORD_UPDATE_JDBC_BATCH_SIZE
+            try {
+                // Persist the outputs.
+                saveStates(session, producedStateRefsMap)
 
-            // Persist the outputs.
-            saveStates(session, producedStateRefsMap)
-
-            // Persist the reference states.
-            saveStates(session, referenceStateRefsMap)
-
-            // Persist the consumed inputs.
-            consumedStateRefs.forEach { stateRef ->
-                val state = session.get(VaultSchemaV1.VaultStates::class.java, PersistentStateRef(stateRef))
-                state?.run {
-                    // Only update the state if it has not previously been consumed (this could have happened if the transaction is being
-                    // re-recorded.
-                    if (stateStatus != Vault.StateStatus.CONSUMED) {
-                        stateStatus = Vault.StateStatus.CONSUMED
-                        consumedTime = clock.instant()
-                        consumingTxId = update.consumingTxIds[stateRef]?.toString()
-                        // remove lock (if held)
-                        if (lockId != null) {
-                            lockId = null
-                            lockUpdateTime = clock.instant()
-                            log.trace { "Releasing soft lock on consumed state: $stateRef" }
-                        }
-                        session.save(state)
-                    }
+                // Persist the reference states.
+                saveStates(session, referenceStateRefsMap)
+
+                // Persist the consumed inputs.
+                if (consumedStateRefs.isNotEmpty()) {
+                    consumeStates(session, consumedStateRefs, update.consumingTxIds)
                 }
+                session.flush()
+            } finally {
+                session.jdbcBatchSize = previousJdbcBatchSize
             }
-
         }
         return update
     }
@@ -709,7 +757,14 @@ class NodeVaultService(
                 checkVaultQuery(paging.pageSize >= 1) { "Page specification: invalid page size ${paging.pageSize} [minimum is 1]" }
                 paging
             }
-            if (!validPaging.isDefault) {
+            if (validPaging.afterStateRef != null) {
+                checkVaultQuery(validPaging.pageNumber == -1 || validPaging.pageNumber == DEFAULT_PAGE_NUM) {
+                    "Page specification: page number ${validPaging.pageNumber} cannot be combined with afterStateRef"
+                }
+                checkVaultQuery(sorting.columns.all { it == STATE_REF_ORDER }) {
+                    "Page specification: pages requested with afterStateRef can only be sorted by ascending state ref"
+                }
+            } else if (!validPaging.isDefault) {
                 checkVaultQuery(validPaging.pageNumber >= DEFAULT_PAGE_NUM) {
                     "Page specification: invalid page number ${validPaging.pageNumber} [page numbers start from $DEFAULT_PAGE_NUM]"
                 }
@@ -729,11 +784,15 @@ class NodeVaultService(
                                             paging: PageSpecification,
                                             sorting: Sort,
                                             contractStateType: Class<out T>): Vault.Page<T> {
-        val (criteriaQuery, criteriaParser) = buildCriteriaQuery<Tuple>(criteria, contractStateType, sorting)
+        val afterStateRef = paging.afterStateRef
+        // Pages which start after a given state are in state ref order, so that the following page can start after their last state.
+        val pageSorting = if (afterStateRef == null) sorting else Sort(listOf(STATE_REF_ORDER))
+        val (criteriaQuery, criteriaParser) = buildCriteriaQuery<Tuple>(criteria, contractStateType, pageSorting)
+        afterStateRef?.let { criteriaQuery.restrictToStatesAfter(criteriaParser.vaultStates, it) }
         val query = getSession().createQuery(criteriaQuery)
         query.setResultWindow(paging)
 
-        var previousPageAnchor: StateRef? = null
+        var previousPageAnchor: StateRef? = afterStateRef
         val statesMetadata: MutableList<Vault.StateMetadata> = mutableListOf()
         val otherResults: MutableList<Any> = mutableListOf()
 
@@ -760,15 +819,66 @@ class NodeVaultService(
         val states: List<StateAndRef<T>> = serviceHub.loadStatesInternal(statesMetadata.mapToSet { it.ref }, ArrayList())
 
         val totalStatesAvailable = when {
-            paging.isDefault -> -1L
+            paging.isDefault || paging.skipTotalStateCount -> -1L
             // If the first page isn't full then we know that's all the states that are available
-            paging.pageNumber == DEFAULT_PAGE_NUM && states.size < paging.pageSize -> states.size.toLong()
+            paging.pageNumber == DEFAULT_PAGE_NUM && afterStateRef == null && states.size < paging.pageSize -> states.size.toLong()
             else -> queryTotalStateCount(criteria, contractStateType)
         }
 
         return Vault.Page(states, statesMetadata, totalStatesAvailable, criteriaParser.stateTypes, otherResults, previousPageAnchor)
     }
 
+    @Throws(VaultQueryException::class)
+    override fun <T : ContractState> _streamBy(criteria: QueryCriteria, sorting: Sort, contractStateType: Class<out T>): Stream<StateAndRef<T>> {
+        return streamPagesBy(criteria, sorting, DEFAULT_PAGE_SIZE, contractStateType).flatMap { it.states.stream() }
+    }
+
+    @Throws(VaultQueryException::class)
+    override fun <T : ContractState> streamPagesBy(criteria: QueryCriteria,
+                                                   sorting: Sort,
+                                                   pageSize: Int,
+                                                   contractStateType: Class<out T>): Stream<Vault.Page<T>> {
+        checkVaultQuery(pageSize >= 1) { "Page specification: invalid page size $pageSize [minimum is 1]" }
+        log.debug { "Vault Stream for contract type: $contractStateType, criteria: $criteria, page size: $pageSize, sorting: $sorting" }
+        val session = currentDBSession()
+        val (results, stateTypes) = wrapStreamErrors {
+            val (criteriaQuery, criteriaParser) = buildCriteriaQuery<Tuple>(criteria, contractStateType, sorting)
+            Pair(session.createQuery(criteriaQuery).setFetchSize(pageSize).stream(), criteriaParser.stateTypes)
+        }
+        val rows = results.iterator()
+        // The rows are read from the database as the stream is consumed, so errors doing so are wrapped in the same way as the query's.
+        val pages = object : Iterator<Vault.Page<T>> {
+            override fun hasNext(): Boolean = wrapStreamErrors { rows.hasNext() }
+
+            override fun next(): Vault.Page<T> {
+                val statesMetadata = ArrayList<Vault.StateMetadata>(pageSize)
+                wrapStreamErrors {
+                    while (statesMetadata.size < pageSize && rows.hasNext()) {
+                        val row = rows.next()
+                        val vaultState = row[0] as? VaultSchemaV1.VaultStates ?: throw VaultQueryException("Aggregate function queries cannot be streamed")
+                        statesMetadata += vaultState.toStateMetadata()
+                        // Otherwise every entity read would be kept in the session until the end of the transaction.
+                        row.toArray().forEach { if (it is StatePersistable) session.detach(it) }
+                    }
+                }
+                val states: List<StateAndRef<T>> = serviceHub.loadStatesInternal(statesMetadata.map { it.ref }, ArrayList())
+                return Vault.Page(states, statesMetadata, -1L, stateTypes, emptyList())
+            }
+        }
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(pages, Spliterator.ORDERED or Spliterator.NONNULL), false)
+                .onClose(results::close)
+    }
+
+    private inline fun <R> wrapStreamErrors(block: () -> R): R {
+        return try {
+            block()
+        } catch (e: VaultQueryException) {
+            throw e
+        } catch (e: Exception) {
+            throw VaultQueryException("An error occurred while attempting to query the vault: ${e.message}", e)
+        }
+    }
+
     private fun <R> Query<R>.resultStream(paging: PageSpecification): Stream<R> {
         return if (paging.isDefault) {
             val allResults = resultList
@@ -789,7 +899,8 @@ class NodeVaultService(
         if (paging.isDefault) {
             // Peek ahead and see if there are more results in case pagination should be done
             maxResults = paging.pageSize + 1
-        } else if (paging.pageNumber == DEFAULT_PAGE_NUM) {
+        } else if (paging.pageNumber == DEFAULT_PAGE_NUM || paging.afterStateRef != null) {
+            // Pages which start after a given state are located by the query's restriction rather than by an offset.
             maxResults = paging.pageSize
         } else {
             // In addition to aligning the query to the correct result window for the page, also include the previous page's last
@@ -799,6 +910,22 @@ class NodeVaultService(
         }
     }
 
+    /**
+     * Restricts the query to the states which come after [stateRef] when ordered by their [PersistentStateRef], so that the next page
+     * can be found using the index on the state ref rather than by skipping over all the preceding results.
+     */
+    @Suppress("SpreadOperator")
+    private fun CriteriaQuery<*>.restrictToStatesAfter(vaultStates: Root<VaultSchemaV1.VaultStates>, stateRef: StateRef) {
+        val txId = vaultStates.get<PersistentStateRef>("stateRef").get<String>("txId")
+        val index = vaultStates.get<PersistentStateRef>("stateRef").get<Int>("index")
+        val txIdString = stateRef.txhash.toString()
+        val afterStateRef = criteriaBuilder.or(
+                criteriaBuilder.greaterThan(txId, txIdString),
+                criteriaBuilder.and(criteriaBuilder.equal(txId, txIdString), criteriaBuilder.greaterThan(index, stateRef.index))
+        )
+        where(*listOfNotNull(restriction, afterStateRef).toTypedArray())
+    }
+
     private fun <T : ContractState> queryTotalStateCount(criteria: QueryCriteria, contractStateType: Class<out T>): Long {
         val (criteriaQuery, criteriaParser) = buildCriteriaQuery<Long>(criteria, contractStateType, null)
         criteriaQuery.select(criteriaBuilder.count(criteriaParser.vaultStates))
@@ -847,8 +974,10 @@ class NodeVaultService(
             val snapshotResults = _queryBy(criteria, paging, sorting, contractStateType)
             val snapshotStatesRefs = snapshotResults.statesMetadata.mapToSet { it.ref }
             val snapshotConsumedStatesRefs = snapshotResults.statesMetadata.filter { it.consumedTime != null }.mapToSet { it.ref }
+            val matcher = QueryCriteriaMatcher(criteria, serviceHub.identityService, schemaService)
             val filteredUpdates = updates.filter { it.containsType(contractStateType, snapshotResults.stateTypes) }
                     .map { filterContractStates(it, contractStateType) }
+                    .map { filterMatchingStates(it, matcher) }
                     .filter { !hasBeenSeen(it, snapshotStatesRefs, snapshotConsumedStatesRefs) }
 
             DataFeed(snapshotResults, filteredUpdates)
@@ -868,6 +997,11 @@ class NodeVaultService(
     private fun <T : ContractState> filterByContractState(contractStateType: Class<out T>, stateAndRefs: Set<StateAndRef<T>>) =
             stateAndRefs.filter { contractStateType.isAssignableFrom(it.state.data.javaClass) }.toSet()
 
+    /** Removes the states the tracked query could not select, leaving updates without any such states to be dropped by [hasBeenSeen]. */
+    private fun <T : ContractState> filterMatchingStates(update: Vault.Update<T>, matcher: QueryCriteriaMatcher) =
+            update.copy(consumed = update.consumed.filterTo(LinkedHashSet(), matcher::matches),
+                    produced = update.produced.filterTo(LinkedHashSet(), matcher::matches))
+
     /**
      * Filters out updates that have been seen, aka being reflected in the query's result snapshot.
      *
@@ -0,0 +1,291 @@
+package net.corda.node.services.vault
+
+import net.corda.core.contracts.ContractState
+import net.corda.core.contracts.FungibleAsset
+import net.corda.core.contracts.FungibleState
+import net.corda.core.contracts.LinearState
+import net.corda.core.contracts.StateAndRef
+import net.corda.core.identity.AbstractParty
+import net.corda.core.identity.CordaX500Name
+import net.corda.core.node.services.IdentityService
+import net.corda.core.node.services.Vault
+import net.corda.core.node.services.vault.BinaryComparisonOperator
+import net.corda.core.node.services.vault.BinaryLogicalOperator
+import net.corda.core.node.services.vault.CollectionOperator
+import net.corda.core.node.services.vault.ColumnPredicate
+import net.corda.core.node.services.vault.CriteriaExpression
+import net.corda.core.node.services.vault.EqualityComparisonOperator
+import net.corda.core.node.services.vault.LikenessOperator
+import net.corda.core.node.services.vault.NullOperator
+import net.corda.core.node.services.vault.QueryCriteria
+import net.corda.core.node.services.vault.QueryCriteria.CommonQueryCriteria
+import net.corda.core.node.services.vault.resolveEnclosingObjectFromExpression
+import net.corda.node.services.api.SchemaService
+import java.lang.reflect.Field
+import java.time.temporal.Temporal
+import java.util.UUID
+
+/**
+ * Evaluates [QueryCriteria] against individual states in memory, so that [NodeVaultService._trackBy] only publishes to a subscriber the
+ * updates its criteria would select, rather than every update of the tracked type.
+ *
+ * Evaluation is three-valued. Anything which cannot be decided from the state alone, such as soft locking, time conditions, relevancy,
+ * external ids, constraint data, aggregates or custom columns of entities the state does not map to, evaluates to `null`, and a state is
+ * only rejected when the criteria evaluate to `false`. Subscribers may therefore still receive some states a query would not return, but
+ * never miss one it would.
+ *
+ * As in [HibernateQueryCriteriaParser], the participants, exact participants and constraint types of a composite criteria apply to it as a
+ * whole rather than to the branch which specifies them. The state status is left to the caller, as it applies to an update as a whole.
+ */
+internal class QueryCriteriaMatcher(private val criteria: QueryCriteria,
+                                    private val identityService: IdentityService,
+                                    private val schemaService: SchemaService) {
+    private val commonCriteria = ArrayList<CommonQueryCriteria>().also { collectCommonCriteria(criteria, it) }
+    private val participants = commonCriteria.mapNotNull { it.participants }.takeIf { it.isNotEmpty() }?.flatten()
+    private val exactParticipants = commonCriteria.mapNotNull { it.exactParticipants }
+    private val constraintTypes = commonCriteria.flatMap { it.constraintTypes }.toSet()
+    private val hasUndecidableCriteria = commonCriteria.any {
+        it.relevancyStatus != Vault.RelevancyStatus.ALL || it.externalIds.isNotEmpty() || it.constraints.isNotEmpty()
+    }
+
+    /** The names the parties in the criteria are stored under, or null where they cannot be resolved. */
+    private val partyNames: Map<AbstractParty, CordaX500Name?> = commonCriteria.flatMap(::partiesOf).distinct().associateWith(::nameOf)
+
+    /** Returns false if the query for these criteria could not select [stateAndRef]. */
+    fun matches(stateAndRef: StateAndRef<ContractState>): Boolean {
+        val data = stateAndRef.state.data
+        return allOf(
+                participants?.let { matchesParticipants(data, it) } ?: true,
+                allOf(*exactParticipants.map { matchesExactParticipants(data, it) }.toTypedArray()),
+                constraintTypes.isEmpty() || Vault.ConstraintInfo(stateAndRef.state.constraint).type() in constraintTypes,
+                if (hasUndecidableCriteria) null else true,
+                evaluate(criteria, stateAndRef)
+        ) != false
+    }
+
+    private fun collectCommonCriteria(criteria: QueryCriteria, output: MutableList<CommonQueryCriteria>) {
+        when (criteria) {
+            is QueryCriteria.AndComposition -> {
+                collectCommonCriteria(criteria.a, output)
+                collectCommonCriteria(criteria.b, output)
+            }
+            is QueryCriteria.OrComposition -> {
+                collectCommonCriteria(criteria.a, output)
+                collectCommonCriteria(criteria.b, output)
+            }
+            is CommonQueryCriteria -> output += criteria
+        }
+    }
+
+    private fun partiesOf(criteria: CommonQueryCriteria): List<AbstractParty> {
+        val parties = ArrayList<AbstractParty>()
+        criteria.participants?.let { parties += it }
+        criteria.exactParticipants?.let { parties += it }
+        when (criteria) {
+            is QueryCriteria.VaultQueryCriteria -> criteria.notary?.let { parties += it }
+            is QueryCriteria.FungibleAssetQueryCriteria -> {
+                criteria.owner?.let { parties += it }
+                criteria.issuer?.let { parties += it }
+            }
+        }
+        return parties
+    }
+
+    /** The name [party] is stored under in the vault tables, as for [net.corda.node.services.persistence.AbstractPartyToX500NameAsStringConverter]. */
+    private fun nameOf(party: AbstractParty): CordaX500Name? = identityService.wellKnownPartyFromAnonymous(party)?.name
+
+    private fun namesOf(parties: List<AbstractParty>): Set<CordaX500Name> = parties.mapNotNullTo(HashSet()) { partyNames[it] }
+
+    private fun matchesParticipants(data: ContractState, criteriaParticipants: List<AbstractParty>): Boolean {
+        val names = namesOf(criteriaParticipants)
+        return data.participants.any { nameOf(it) in names }
+    }
+
+    private fun matchesExactParticipants(data: ContractState, criteriaParticipants: List<AbstractParty>): Boolean? {
+        if (criteriaParticipants.isEmpty()) return false
+        if (criteriaParticipants.any { partyNames[it] == null }) return null
+        val names = namesOf(criteriaParticipants)
+        val stateNames = data.participants.mapNotNullTo(HashSet(), ::nameOf)
+        return names.containsAll(stateNames) && (criteriaParticipants.size == 1 || stateNames.containsAll(names))
+    }
+
+    private fun evaluate(criteria: QueryCriteria, stateAndRef: StateAndRef<ContractState>): Boolean? {
+        val data = stateAndRef.state.data
+        return when (criteria) {
+            is QueryCriteria.AndComposition -> allOf(evaluate(criteria.a, stateAndRef), evaluate(criteria.b, stateAndRef))
+            is QueryCriteria.OrComposition -> anyOf(evaluate(criteria.a, stateAndRef), evaluate(criteria.b, stateAndRef))
+            is QueryCriteria.VaultQueryCriteria -> allOf(
+                    criteria.stateRefs?.let { stateAndRef.ref in it } ?: true,
+                    criteria.notary?.let { nameOf(stateAndRef.state.notary) in namesOf(it) } ?: true,
+                    if (criteria.softLockingCondition != null || criteria.timeCondition != null) null else true
+            )
+            is QueryCriteria.LinearStateQueryCriteria -> data is LinearState &&
+                    (criteria.uuid?.let { data.linearId.id in it } ?: true) &&
+                    (criteria.externalId?.let { data.linearId.externalId in it } ?: true)
+            is QueryCriteria.FungibleStateQueryCriteria -> if (data is FungibleState<*>) {
+                if (criteria.quantity == null) true else evaluate(data.amount.quantity, criteria.quantity!!)
+            } else {
+                false
+            }
+            is QueryCriteria.FungibleAssetQueryCriteria -> if (data is FungibleState<*>) {
+                val asset = data as? FungibleAsset<*>
+                allOf(
+                        criteria.owner?.let { asset != null && nameOf(asset.owner) in namesOf(it) } ?: true,
+                        if (criteria.quantity == null) true else evaluate(data.amount.quantity, criteria.quantity!!),
+                        criteria.issuer?.let { asset != null && nameOf(asset.amount.token.issuer.party) in namesOf(it) } ?: true,
+                        criteria.issuerRef?.let { asset != null && asset.amount.token.issuer.reference in it } ?: true
+                )
+            } else {
+                false
+            }
+            is QueryCriteria.VaultCustomQueryCriteria<*> -> evaluateCustom(criteria.expression, data)
+            else -> null
+        }
+    }
+
+    private fun evaluateCustom(expression: CriteriaExpression<*, Boolean>, data: ContractState): Boolean? {
+        if (expression is CriteriaExpression.AggregateFunctionExpression<*, *>) return null
+        val entityClass = resolveEnclosingObjectFromExpression(expression)
+        val entity = schemaService.selectSchemas(data).asSequence()
+                .map { schemaService.generateMappedObject(data, it) }
+                .firstOrNull { entityClass.isInstance(it) } ?: return null
+        return evaluate(expression, entity)
+    }
+
+    private fun evaluate(expression: CriteriaExpression<*, *>, entity: Any): Boolean? {
+        return when (expression) {
+            is CriteriaExpression.BinaryLogical<*> -> when (expression.operator) {
+                BinaryLogicalOperator.AND -> allOf(evaluate(expression.left, entity), evaluate(expression.right, entity))
+                BinaryLogicalOperator.OR -> anyOf(evaluate(expression.left, entity), evaluate(expression.right, entity))
+            }
+            is CriteriaExpression.Not<*> -> evaluate(expression.expression, entity)?.not()
+            is CriteriaExpression.ColumnPredicateExpression<*, *> -> {
+                val field = findField(entity.javaClass, expression.column.name) ?: return null
+                evaluate(field.get(entity), expression.predicate)
+            }
+            else -> null
+        }
+    }
+
+    private fun findField(entityClass: Class<*>, name: String): Field? {
+        var clazz: Class<*>? = entityClass
+        while (clazz != null) {
+            clazz.declaredFields.firstOrNull { it.name == name }?.let {
+                it.isAccessible = true
+                return it
+            }
+            clazz = clazz.superclass
+        }
+        return null
+    }
+
+    /**
+     * Evaluates [predicate] against a column [value]. Comparisons are only decided for types which compare the same way in the database,
+     * and string comparisons which only differ by case are left undecided as they depend on the database's collation.
+     */
+    private fun evaluate(value: Any?, predicate: ColumnPredicate<*>): Boolean? {
+        if (predicate is ColumnPredicate.NullExpression<*>) {
+            return when (predicate.operator) {
+                NullOperator.IS_NULL -> value == null
+                NullOperator.NOT_NULL -> value != null
+            }
+        }
+        // Any other comparison with NULL is unknown in SQL, which Not would leave unknown.
+        if (value == null) return null
+        return when (predicate) {
+            is ColumnPredicate.EqualityComparison<*> -> when (predicate.operator) {
+                EqualityComparisonOperator.EQUAL -> valueEquals(value, predicate.rightLiteral, false)
+                EqualityComparisonOperator.NOT_EQUAL -> valueEquals(value, predicate.rightLiteral, false)?.not()
+                EqualityComparisonOperator.EQUAL_IGNORE_CASE -> valueEquals(value, predicate.rightLiteral, true)
+                EqualityComparisonOperator.NOT_EQUAL_IGNORE_CASE -> valueEquals(value, predicate.rightLiteral, true)?.not()
+            }
+            is ColumnPredicate.BinaryComparison<*> -> compare(value, predicate.rightLiteral)?.let {
+                when (predicate.operator) {
+                    BinaryComparisonOperator.LESS_THAN -> it < 0
+                    BinaryComparisonOperator.LESS_THAN_OR_EQUAL -> it <= 0
+                    BinaryComparisonOperator.GREATER_THAN -> it > 0
+                    BinaryComparisonOperator.GREATER_THAN_OR_EQUAL -> it >= 0
+                }
+            }
+            is ColumnPredicate.Likeness -> if (value is String) {
+                when (predicate.operator) {
+                    LikenessOperator.LIKE -> like(value, predicate.rightLiteral, false)
+                    LikenessOperator.NOT_LIKE -> like(value, predicate.rightLiteral, false)?.not()
+                    LikenessOperator.LIKE_IGNORE_CASE -> like(value, predicate.rightLiteral, true)
+                    LikenessOperator.NOT_LIKE_IGNORE_CASE -> like(value, predicate.rightLiteral, true)?.not()
+                }
+            } else {
+                null
+            }
+            is ColumnPredicate.CollectionExpression<*> -> {
+                val ignoreCase = predicate.operator == CollectionOperator.IN_IGNORE_CASE || predicate.operator == CollectionOperator.NOT_IN_IGNORE_CASE
+                val contained = anyOf(*predicate.rightLiteral.map { valueEquals(value, it, ignoreCase) }.toTypedArray())
+                when (predicate.operator) {
+                    CollectionOperator.IN, CollectionOperator.IN_IGNORE_CASE -> contained
+                    CollectionOperator.NOT_IN, CollectionOperator.NOT_IN_IGNORE_CASE -> contained?.not()
+                }
+            }
+            is ColumnPredicate.Between<*> -> {
+                val from = compare(value, predicate.rightFromLiteral)
+                val to = compare(value, predicate.rightToLiteral)
+                if (from != null && to != null) from >= 0 && to <= 0 else null
+            }
+            else -> null
+        }
+    }
+
+    private fun valueEquals(value: Any, literal: Any?, ignoreCase: Boolean): Boolean? {
+        return when {
+            literal == null || literal.javaClass != value.javaClass -> null
+            value is String -> when {
+                value == literal -> true
+                value.equals(literal as String, ignoreCase = true) -> if (ignoreCase) true else null
+                else -> false
+            }
+            value is ByteArray -> value.contentEquals(literal as ByteArray)
+            value is Number || value is Boolean || value is Char || value is UUID || value is Enum<*> || value is Temporal -> value == literal
+            else -> null
+        }
+    }
+
+    private fun compare(value: Any, literal: Any?): Int? {
+        if (literal == null || literal.javaClass != value.javaClass || !(value is Number || value is Temporal) || value !is Comparable<*>) {
+            return null
+        }
+        @Suppress("UNCHECKED_CAST")
+        return (value as Comparable<Any>).compareTo(literal)
+    }
+
+    private fun like(value: String, pattern: String, ignoreCase: Boolean): Boolean? {
+        return when {
+            likeRegex(pattern, ignoreCase).matches(value) -> true
+            !ignoreCase && likeRegex(pattern, true).matches(value) -> null
+            else -> false
+        }
+    }
+
+    private fun likeRegex(pattern: String, ignoreCase: Boolean): Regex {
+        val regex = buildString {
+            for (c in pattern) {
+                when (c) {
+                    '%' -> append(".*")
+                    '_' -> append('.')
+                    else -> append(Regex.escape(c.toString()))
+                }
+            }
+        }
+        return Regex(regex, if (ignoreCase) setOf(RegexOption.DOT_MATCHES_ALL, RegexOption.IGNORE_CASE) else setOf(RegexOption.DOT_MATCHES_ALL))
+    }
+
+    private fun allOf(vararg results: Boolean?): Boolean? = when {
+        false in results -> false
+        null in results -> null
+        else -> true
+    }
+
+    private fun anyOf(vararg results: Boolean?): Boolean? = when {
+        true in results -> true
+        null in results -> null
+        else -> false
+    }
+}
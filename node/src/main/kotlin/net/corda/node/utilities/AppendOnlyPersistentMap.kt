@@ -41,6 +41,36 @@ abstract class AppendOnlyPersistentMapBase<K : Any, V, E, out EK>(
      */
     operator fun get(key: K): V? = cache.get(key)?.orElse(null)
 
+    /**
+     * Returns the values associated with those of the [keys] which are present. Values which are neither cached nor being written are loaded
+     * from the storage together, rather than one query per key.
+     */
+    fun getAll(keys: Collection<K>): Map<K, V> {
+        val result = LinkedHashMap<K, V>()
+        val toLoad = ArrayList<K>()
+        for (key in keys) {
+            if (cache.getIfPresent(key) != null || anyoneWriting(key) != -1) {
+                get(key)?.let { result[key] = it }
+            } else {
+                toLoad += key
+            }
+        }
+        if (toLoad.isNotEmpty()) {
+            val loaded = loadValues(toLoad)
+            for (key in toLoad) {
+                val value = loaded[key]
+                if (value != null) {
+                    // Only committed rows are visible to the query, so the value can be cached as such unless the key was loaded meanwhile.
+                    cache.asMap().putIfAbsent(key, Transactional.Committed(value))
+                    result[key] = value
+                } else {
+                    get(key)?.let { result[key] = it }
+                }
+            }
+        }
+        return result
+    }
+
     val size: Long get() = allPersisted.use { it.count() }
 
     /**
@@ -210,6 +240,19 @@ abstract class AppendOnlyPersistentMapBase<K : Any, V, E, out EK>(
         return result?.apply { if (isSafeToDetach) session.detach(result) }?.let(fromPersistentEntity)?.second
     }
 
+    private fun loadValues(keys: List<K>): Map<K, V> {
+        val session = currentDBSession()
+        val isSafeToDetach = isSafeToFlushAndDetach(session)
+        if (isSafeToDetach) {
+            session.flush()
+        }
+        val results = session.byMultipleIds(persistentEntityClass).multiLoad(keys.map(toPersistentEntityKey))
+        return results.filterNotNull().associate { result ->
+            if (isSafeToDetach) session.detach(result)
+            fromPersistentEntity(result)
+        }
+    }
+
     private fun isSafeToFlushAndDetach(session: Session): Boolean {
         if (session !is SessionImpl)
             return true
@@ -8,6 +8,7 @@ import com.github.benmanes.caffeine.cache.LoadingCache
 import net.corda.core.internal.NamedCacheFactory
 import net.corda.core.serialization.SerializeAsToken
 import net.corda.core.serialization.SingletonSerializeAsToken
+import net.corda.node.services.config.MB
 import net.corda.node.services.config.NodeConfiguration
 import java.util.concurrent.TimeUnit
 
@@ -43,6 +44,8 @@ open class DefaultNamedCacheFactory protected constructor(private val metricRegi
                 name == "SerializationScheme_attachmentClassloader" -> caffeine
                 name == "HibernateConfiguration_sessionFactories" -> caffeine.maximumSize(database.mappedSchemaCacheSize)
                 name == "DBTransactionStorage_transactions" -> caffeine.maximumWeight(transactionCacheSizeBytes)
+                name == "VerifiedSignatureCache_signatures" -> caffeine.maximumSize(verifiedSignatureCacheSize)
+                name == "TransactionStateCache_states" -> caffeine.maximumWeight(transactionStateCacheSizeMegaBytes.MB)
                 name == "NodeAttachmentService_attachmentContent" -> caffeine.maximumWeight(attachmentContentCacheSizeBytes)
                 name == "NodeAttachmentService_contractAttachmentVersions" -> caffeine.maximumSize(defaultCacheSize)
                 name == "PersistentIdentityService_keyToPartyAndCert" -> caffeine.maximumSize(defaultCacheSize)
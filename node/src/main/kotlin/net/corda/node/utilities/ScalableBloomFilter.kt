@@ -0,0 +1,47 @@
+package net.corda.node.utilities
+
+import com.google.common.hash.BloomFilter
+import com.google.common.hash.Funnel
+
+/**
+ * A bloom filter which grows with the number of elements put into it. If [mightContain] returns false then the element has definitely not
+ * been put into the filter.
+ *
+ * Rather than being sized up front for every element it will ever hold, the filter starts with a single bloom filter for
+ * [expectedInsertions] elements and adds another once that is full. Each additional filter is created with half the false positive
+ * probability of the previous one, so that the overall false positive probability stays below [falsePositiveProbability].
+ */
+class ScalableBloomFilter<T : Any>(
+        private val funnel: Funnel<in T>,
+        private val expectedInsertions: Long,
+        private val falsePositiveProbability: Double
+) {
+    private companion object {
+        private const val MAX_TIGHTENING_SHIFT = 30
+    }
+
+    @Volatile
+    private var filters: List<BloomFilter<T>> = listOf(newFilter(0))
+    // Guarded by this
+    private var insertionsInCurrentFilter = 0L
+
+    val filterCount: Int get() = filters.size
+
+    fun mightContain(element: T): Boolean = filters.any { it.mightContain(element) }
+
+    @Synchronized
+    fun put(element: T) {
+        if (insertionsInCurrentFilter >= expectedInsertions) {
+            filters = filters + newFilter(filters.size)
+            insertionsInCurrentFilter = 0
+        }
+        if (filters.last().put(element)) {
+            insertionsInCurrentFilter++
+        }
+    }
+
+    private fun newFilter(index: Int): BloomFilter<T> {
+        val probability = falsePositiveProbability / (1L shl minOf(index + 1, MAX_TIGHTENING_SHIFT))
+        return BloomFilter.create(funnel, expectedInsertions, probability)
+    }
+}
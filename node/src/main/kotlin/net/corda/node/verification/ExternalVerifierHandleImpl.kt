@@ -1,5 +1,7 @@
 package net.corda.node.verification
 
+import com.codahale.metrics.Gauge
+import com.codahale.metrics.MetricRegistry
 import net.corda.core.contracts.Attachment
 import net.corda.core.crypto.random63BitValue
 import net.corda.core.internal.AbstractAttachment
@@ -59,11 +61,15 @@ import kotlin.io.path.isExecutable
 import kotlin.io.path.isWritable
 
 /**
- * Handle to the node's external verifier. The verifier process is started lazily on the first verification request.
+ * Handle to the node's external verifiers. The node maintains a pool of up to [poolSize] verifier processes, each of which handles one
+ * verification request at a time. Verifier processes are started lazily, as and when verification requests need them. Requests are
+ * dispatched to an idle verifier, preferring one whose process is already running, and will wait if all the verifiers are busy.
  */
 class ExternalVerifierHandleImpl(
         private val verificationSupport: NodeVerificationSupport,
-        private val baseDirectory: Path
+        private val baseDirectory: Path,
+        poolSize: Int = 1,
+        metrics: MetricRegistry = MetricRegistry()
 ) : ExternalVerifierHandle {
     companion object {
         private val log = contextLogger()
@@ -81,10 +87,22 @@ class ExternalVerifierHandleImpl(
         }
     }
 
-    private lateinit var socketFile: Path
-    private lateinit var serverChannel: ServerSocketChannel
-    @Volatile
-    private var connection: Connection? = null
+    init {
+        require(poolSize > 0) { "The external verifier pool size must be positive" }
+    }
+
+    private val verifiers = List(poolSize) { Verifier(it) }
+    private val pool = ExternalVerifierPool(verifiers) { it.isRunning }
+
+    private val verificationTimer = metrics.timer("ExternalVerifier.VerificationDuration")
+    private val processStarts = metrics.counter("ExternalVerifier.ProcessStarts")
+    private val verifierFailures = metrics.counter("ExternalVerifier.Failures")
+
+    init {
+        metrics.register("ExternalVerifier.QueueDepth", Gauge { pool.waitingRequests })
+        metrics.register("ExternalVerifier.BusyVerifiers", Gauge { verifiers.size - pool.idleVerifiers })
+        metrics.register("ExternalVerifier.RunningProcesses", Gauge { verifiers.count { it.isRunning } })
+    }
 
     override fun verifyTransaction(ctx: CoreTransaction) {
         log.info("Verify ${ctx.toSimpleString()} externally")
@@ -94,75 +112,23 @@ class ExternalVerifierHandleImpl(
         val ctxInputsAndReferences = (ctx.inputs + ctx.references).associateWith(verificationSupport::getSerializedState)
         val request = VerificationRequest(ctx, ctxInputsAndReferences)
 
-        // To keep things simple the verifier only supports one verification request at a time.
-        synchronized(this) {
-            startServer()
-            var attempt = 1
-            while (true) {
-                val result = try {
-                    tryVerification(request)
-                } catch (e: Exception) {
-                    processError(attempt, e)
-                    attempt += 1
-                    continue
-                }
-                when (result) {
-                    is Try.Success -> return
-                    is Try.Failure -> throw result.exception
-                }
-            }
-        }
-    }
-
-    private fun startServer() {
-        if (::socketFile.isInitialized) return
-        // Try to create the UNIX domain file in /tmp to keep the full path under the 100 char limit. If we don't have access to it then
-        // fallback to the temp dir specified by the JVM and hope it's short enough.
-        val tempDir = Path("/tmp").takeIf { it.isWritable() && it.isExecutable() } ?: Path(System.getProperty("java.io.tmpdir"))
-        socketFile = tempDir / "corda-external-verifier-${random63BitValue().toString(MAX_RADIX)}.socket"
-        serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX)
-        log.debug { "Binding to UNIX domain file $socketFile" }
-        serverChannel.bind(UnixDomainSocketAddress.of(socketFile), 1)
-        // Lock down access to the file
-        socketFile.fileAttributesViewOrNull<PosixFileAttributeView>()?.setPermissions(fromString("rwx------"))
-        // Just in case...
-        Runtime.getRuntime().addShutdownHook(Thread(::close))
-    }
-
-    private fun processError(attempt: Int, e: Exception) {
-        if (attempt == MAX_ATTEMPTS) {
-            throw IOException("Unable to verify with external verifier", e)
-        } else {
-            log.warn("Unable to verify with external verifier, trying again...", e)
-        }
+        val verifier = pool.acquire()
         try {
-            connection?.close()
-        } catch (e: Exception) {
-            log.debug("Problem closing external verifier connection", e)
-        }
-        connection = null
-    }
-
-    private fun tryVerification(request: VerificationRequest): Try<Unit> {
-        val connection = getConnection()
-        connection.channel.writeCordaSerializable(request)
-        // Send the verification request and then wait for any requests from verifier for more information. The last message will either
-        // be a verification success or failure message.
-        while (true) {
-            val message = connection.channel.readCordaSerializable(ExternalVerifierOutbound::class)
-            log.debug { "Received from external verifier: $message" }
-            when (message) {
-                // Process the information the verifier needs and then loop back and wait for more messages
-                is VerifierRequest -> processVerifierRequest(message, connection)
-                is VerificationResult -> return message.result
+            val timerContext = verificationTimer.time()
+            val result = try {
+                verifier.verify(request)
+            } finally {
+                timerContext.stop()
             }
+            when (result) {
+                is Try.Success -> return
+                is Try.Failure -> throw result.exception
+            }
+        } finally {
+            pool.release(verifier)
         }
     }
 
-    private fun getConnection(): Connection {
-        return connection ?: Connection().also { connection = it }
-    }
-
     private fun processVerifierRequest(request: VerifierRequest, connection: Connection) {
         val result = when (request) {
             is GetParties -> PartiesResult(verificationSupport.getParties(request.keys))
@@ -187,20 +153,134 @@ class ExternalVerifierHandleImpl(
     }
 
     override fun close() {
-        connection?.close()
-        connection = null
-        if (::serverChannel.isInitialized) {
-            serverChannel.close()
+        pool.close()
+        for (verifier in verifiers) {
+            try {
+                verifier.close()
+            } catch (e: Exception) {
+                log.debug("Problem closing external verifier ${verifier.index}", e)
+            }
         }
-        if (::socketFile.isInitialized) {
-            socketFile.deleteIfExists()
+    }
+
+    /**
+     * A single slot in the pool, which owns its own UNIX domain socket and at most one verifier process. The slot is only ever used by
+     * the one thread which has acquired it from [pool].
+     */
+    private inner class Verifier(val index: Int) : AutoCloseable {
+        private lateinit var socketFile: Path
+        private lateinit var serverChannel: ServerSocketChannel
+        @Volatile
+        private var connection: Connection? = null
+        private var consecutiveFailures = 0
+
+        val isRunning: Boolean get() = connection != null
+
+        fun verify(request: VerificationRequest): Try<Unit> {
+            startServer()
+            var attempt = 1
+            while (true) {
+                try {
+                    val result = tryVerification(request)
+                    consecutiveFailures = 0
+                    return result
+                } catch (e: Exception) {
+                    processError(attempt, e)
+                    attempt += 1
+                }
+            }
+        }
+
+        private fun startServer() {
+            if (::socketFile.isInitialized) return
+            // Try to create the UNIX domain file in /tmp to keep the full path under the 100 char limit. If we don't have access to it
+            // then fallback to the temp dir specified by the JVM and hope it's short enough.
+            val tempDir = Path("/tmp").takeIf { it.isWritable() && it.isExecutable() } ?: Path(System.getProperty("java.io.tmpdir"))
+            socketFile = tempDir / "corda-external-verifier-${random63BitValue().toString(MAX_RADIX)}.socket"
+            serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX)
+            log.debug { "Binding to UNIX domain file $socketFile" }
+            serverChannel.bind(UnixDomainSocketAddress.of(socketFile), 1)
+            // Lock down access to the file
+            socketFile.fileAttributesViewOrNull<PosixFileAttributeView>()?.setPermissions(fromString("rwx------"))
+            // Just in case...
+            Runtime.getRuntime().addShutdownHook(Thread(::close))
+        }
+
+        private fun processError(attempt: Int, e: Exception) {
+            consecutiveFailures += 1
+            verifierFailures.inc()
+            if (attempt == MAX_ATTEMPTS) {
+                throw IOException("Unable to verify with external verifier $index", e)
+            } else {
+                log.warn("Unable to verify with external verifier $index ($consecutiveFailures consecutive failures), trying again...", e)
+            }
+            closeConnection()
+        }
+
+        private fun tryVerification(request: VerificationRequest): Try<Unit> {
+            val connection = getConnection()
+            connection.channel.writeCordaSerializable(request)
+            // Send the verification request and then wait for any requests from verifier for more information. The last message will
+            // either be a verification success or failure message.
+            while (true) {
+                val message = connection.channel.readCordaSerializable(ExternalVerifierOutbound::class)
+                log.debug { "Received from external verifier $index: $message" }
+                when (message) {
+                    // Process the information the verifier needs and then loop back and wait for more messages
+                    is VerifierRequest -> processVerifierRequest(message, connection)
+                    is VerificationResult -> return message.result
+                }
+            }
+        }
+
+        private fun getConnection(): Connection {
+            return connection ?: Connection(this, socketFile, serverChannel).also {
+                connection = it
+                processStarts.inc()
+            }
+        }
+
+        fun onProcessExit(exited: Connection) {
+            if (connection === exited) {
+                log.warn("External verifier $index has unexpectedly terminated with error code ${exited.exitValue}. " +
+                        "Please check verifier logs for more details.")
+                // Allow a new process to be started on the next verification request
+                connection = null
+            }
+        }
+
+        private fun closeConnection() {
+            val toClose = connection
+            // Clear the connection first so that the process exit isn't reported as unexpected
+            connection = null
+            try {
+                toClose?.close()
+            } catch (e: Exception) {
+                log.debug("Problem closing external verifier $index connection", e)
+            }
+        }
+
+        override fun close() {
+            closeConnection()
+            if (::serverChannel.isInitialized) {
+                serverChannel.close()
+            }
+            if (::socketFile.isInitialized) {
+                socketFile.deleteIfExists()
+            }
         }
     }
 
-    private inner class Connection : AutoCloseable {
+    private inner class Connection(
+            verifier: Verifier,
+            socketFile: Path,
+            serverChannel: ServerSocketChannel
+    ) : AutoCloseable {
         private val verifierProcess: Process
         val channel: SocketChannel
 
+        val exitValue: Int get() = verifierProcess.exitValue()
+
         init {
             val inheritedJvmArgs = ManagementFactory.getRuntimeMXBean().inputArguments.filter { "--add-opens" in it }
             val command = ArrayList<String>()
@@ -219,16 +299,9 @@ class ExternalVerifierHandleImpl(
                     .redirectError(Redirect.appendTo((logsDirectory / "verifier-stderr.log").toFile()))
                     .directory(baseDirectory.toFile())
                     .start()
-            log.info("External verifier process started; PID ${verifierProcess.pid()}")
+            log.info("External verifier ${verifier.index} process started; PID ${verifierProcess.pid()}")
 
-            verifierProcess.onExit().whenComplete { _, _ ->
-                if (connection != null) {
-                    log.warn("The external verifier has unexpectedly terminated with error code ${verifierProcess.exitValue()}. " +
-                            "Please check verifier logs for more details.")
-                }
-                // Allow a new process to be started on the next verification request
-                connection = null
-            }
+            verifierProcess.onExit().whenComplete { _, _ -> verifier.onProcessExit(this) }
 
             channel = serverChannel.accept()
 
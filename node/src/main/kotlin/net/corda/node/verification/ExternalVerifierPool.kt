@@ -0,0 +1,67 @@
+package net.corda.node.verification
+
+import java.util.ArrayDeque
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * The idle verifiers of an [ExternalVerifierHandleImpl]. Each verifier is only ever held by one thread at a time, and [acquire] waits
+ * while they are all busy.
+ *
+ * Idle verifiers with a running process are put back at the front so that they're picked first, which means only as many processes are
+ * started as the concurrent load requires. A verifier whose process has stopped goes to the back, and will start a new process the next
+ * time it's needed.
+ */
+internal class ExternalVerifierPool<T : Any>(verifiers: List<T>, private val isRunning: (T) -> Boolean) : AutoCloseable {
+    private val lock = ReentrantLock()
+    private val available = lock.newCondition()
+    private val idle = ArrayDeque(verifiers)
+    private var waiting = 0
+    private var closed = false
+
+    /** The number of callers waiting in [acquire] for a verifier to become idle. */
+    val waitingRequests: Int get() = lock.withLock { waiting }
+
+    val idleVerifiers: Int get() = lock.withLock { idle.size }
+
+    /**
+     * Take an idle verifier, waiting for one to be released if they're all busy.
+     *
+     * @throws IllegalStateException if the pool has been closed, including while waiting.
+     */
+    fun acquire(): T {
+        return lock.withLock {
+            waiting++
+            try {
+                while (!closed && idle.isEmpty()) {
+                    available.await()
+                }
+            } finally {
+                waiting--
+            }
+            check(!closed) { "External verifier has been closed" }
+            idle.removeFirst()
+        }
+    }
+
+    fun release(verifier: T) {
+        lock.withLock {
+            if (isRunning(verifier)) {
+                idle.addFirst(verifier)
+            } else {
+                idle.addLast(verifier)
+            }
+            available.signal()
+        }
+    }
+
+    /**
+     * Fail any callers waiting in [acquire], and any which try to acquire a verifier from now on.
+     */
+    override fun close() {
+        lock.withLock {
+            closed = true
+            available.signalAll()
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package net.corda.node.verification
+
+import com.codahale.metrics.MetricRegistry
+import com.codahale.metrics.RatioGauge
+import com.github.benmanes.caffeine.cache.Cache
+import com.github.benmanes.caffeine.cache.Caffeine
+import net.corda.core.contracts.ContractState
+import net.corda.core.contracts.StateRef
+import net.corda.core.contracts.TransactionState
+import net.corda.core.internal.NamedCacheFactory
+import net.corda.core.internal.verification.TransactionStateCache
+import net.corda.core.serialization.SingletonSerializeAsToken
+
+/**
+ * A node-wide [TransactionStateCache], bounded by the node's `transactionStateCacheSizeMegaBytes` setting.
+ *
+ * Entries are weighed by the size of the state's serialized form, plus a fixed overhead, as an approximation of the deserialized state's
+ * size. The cached states are shared between all their readers.
+ */
+class TransactionStateCacheImpl(cacheFactory: NamedCacheFactory, metrics: MetricRegistry) : TransactionStateCache, SingletonSerializeAsToken() {
+    private companion object {
+        private const val ENTRY_OVERHEAD_BYTES = 256
+    }
+
+    private class Entry(val state: TransactionState<ContractState>, val weight: Int)
+
+    private val states: Cache<StateRef, Entry> = cacheFactory.buildNamed(
+            Caffeine.newBuilder().weigher<StateRef, Entry> { _, entry -> entry.weight },
+            "TransactionStateCache_states"
+    )
+    private val hits = metrics.counter("Vault.StateCache.Hits")
+    private val misses = metrics.counter("Vault.StateCache.Misses")
+
+    init {
+        metrics.register("Vault.StateCache.HitRate", object : RatioGauge() {
+            override fun getRatio(): Ratio = Ratio.of(hits.count.toDouble(), (hits.count + misses.count).toDouble())
+        })
+    }
+
+    override fun getIfPresent(stateRef: StateRef): TransactionState<ContractState>? {
+        val entry = states.getIfPresent(stateRef)
+        if (entry == null) {
+            misses.inc()
+        } else {
+            hits.inc()
+        }
+        return entry?.state
+    }
+
+    override fun put(stateRef: StateRef, state: TransactionState<ContractState>, serializedSize: Int) {
+        states.put(stateRef, Entry(state, ENTRY_OVERHEAD_BYTES + serializedSize))
+    }
+}
@@ -0,0 +1,41 @@
+package net.corda.node.verification
+
+import com.codahale.metrics.MetricRegistry
+import com.codahale.metrics.RatioGauge
+import com.github.benmanes.caffeine.cache.Cache
+import net.corda.core.crypto.Crypto
+import net.corda.core.crypto.PartialMerkleTree.PartialTree
+import net.corda.core.crypto.SecureHash
+import net.corda.core.crypto.TransactionSignature
+import net.corda.core.internal.NamedCacheFactory
+import net.corda.core.internal.verification.VerifiedSignatureCache
+import net.corda.core.serialization.SingletonSerializeAsToken
+
+/**
+ * A node-wide [VerifiedSignatureCache], sized by the node's `verifiedSignatureCacheSize` setting.
+ *
+ * Only signatures which verified successfully are cached. As [TransactionSignature.equals] ignores the signature's partial Merkle tree,
+ * the tree is made part of the cache key so that a valid signature cannot be reused with a different tree.
+ */
+class VerifiedSignatureCacheImpl(cacheFactory: NamedCacheFactory, metrics: MetricRegistry) : VerifiedSignatureCache, SingletonSerializeAsToken() {
+    private data class Key(val txId: SecureHash, val signature: TransactionSignature, val partialTree: PartialTree?)
+
+    private val verified: Cache<Key, Unit> = cacheFactory.buildNamed("VerifiedSignatureCache_signatures")
+    private val hits = metrics.counter("Transactions.SignatureCache.Hits")
+    private val misses = metrics.counter("Transactions.SignatureCache.Misses")
+
+    init {
+        metrics.register("Transactions.SignatureCache.HitRate", object : RatioGauge() {
+            override fun getRatio(): Ratio = Ratio.of(hits.count.toDouble(), (hits.count + misses.count).toDouble())
+        })
+    }
+
+    override fun verify(txId: SecureHash, signatures: List<TransactionSignature>) {
+        val unverified = signatures.associateBy { Key(txId, it, it.partialMerkleTree?.root) }.filterKeys { verified.getIfPresent(it) == null }
+        hits.inc((signatures.size - unverified.size).toLong())
+        if (unverified.isEmpty()) return
+        misses.inc(unverified.size.toLong())
+        Crypto.doVerify(txId, unverified.values.toList())
+        unverified.keys.forEach { verified.put(it, Unit) }
+    }
+}
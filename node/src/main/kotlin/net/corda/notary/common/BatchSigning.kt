@@ -1,8 +1,12 @@
 package net.corda.notary.common
 
+import com.codahale.metrics.MetricRegistry
 import net.corda.core.crypto.Crypto
+import net.corda.core.crypto.DigestService
 import net.corda.core.crypto.MerkleTree
+import net.corda.core.crypto.MerkleTreeException
 import net.corda.core.crypto.PartialMerkleTree
+import net.corda.core.crypto.PartialMerkleTree.PartialTree
 import net.corda.core.crypto.SecureHash
 import net.corda.core.crypto.SignableData
 import net.corda.core.crypto.SignatureMetadata
@@ -12,14 +16,19 @@ import net.corda.core.flows.NotaryError
 import net.corda.core.internal.digestService
 import net.corda.core.node.ServiceHub
 import java.security.PublicKey
+import java.util.stream.IntStream
 
 typealias BatchSigningFunction = (Iterable<SecureHash>) -> BatchSignature
 
+// Below this many nodes a level of the Merkle tree is hashed on the calling thread.
+private const val PARALLEL_HASHING_THRESHOLD = 512
+
 /** Generates a signature over the bach of [txIds]. */
 fun signBatch(
         txIds: Iterable<SecureHash>,
         notaryIdentityKey: PublicKey,
-        services: ServiceHub
+        services: ServiceHub,
+        metrics: MetricRegistry = MetricRegistry()
 ): BatchSignature {
     val algorithms = txIds.mapTo(HashSet(), SecureHash::algorithm)
     require(algorithms.size > 0) {
@@ -28,7 +37,9 @@ fun signBatch(
     require(algorithms.size == 1) {
         "Cannot sign a batch with multiple hash algorithms: $algorithms"
     }
-    val merkleTree = MerkleTree.getMerkleTree(txIds.map { it.reHash() }, services.digestService)
+    val merkleTree = metrics.timer("Notary.Batch.MerkleTree").time().use {
+        buildBatchMerkleTree(txIds.map { it.reHash() }, services.digestService)
+    }
     val merkleTreeRoot = merkleTree.hash
     val signableData = SignableData(
             merkleTreeRoot,
@@ -37,10 +48,36 @@ fun signBatch(
                     Crypto.findSignatureScheme(notaryIdentityKey).schemeNumberID
             )
     )
-    val sig = services.keyManagementService.sign(signableData, notaryIdentityKey)
+    val sig = metrics.timer("Notary.Batch.Sign").time().use {
+        services.keyManagementService.sign(signableData, notaryIdentityKey)
+    }
     return BatchSignature(sig, merkleTree)
 }
 
+/**
+ * Builds the same tree as [MerkleTree.getMerkleTree], but hashes the nodes of each level of a large tree in parallel.
+ */
+internal fun buildBatchMerkleTree(leafHashes: List<SecureHash>, digestService: DigestService): MerkleTree {
+    if (leafHashes.size < PARALLEL_HASHING_THRESHOLD) {
+        return MerkleTree.getMerkleTree(leafHashes, digestService)
+    }
+    val zeroHash = SecureHash.zeroHashFor(leafHashes[0].algorithm)
+    val paddedSize = Integer.highestOneBit(leafHashes.size - 1) shl 1
+    var level: List<MerkleTree> = List(paddedSize) { MerkleTree.Leaf(leafHashes.getOrElse(it) { zeroHash }) }
+    while (level.size > 1) {
+        val children = level
+        val parents = arrayOfNulls<MerkleTree>(children.size / 2)
+        val range = IntStream.range(0, parents.size)
+        (if (parents.size >= PARALLEL_HASHING_THRESHOLD) range.parallel() else range).forEach {
+            val left = children[2 * it]
+            val right = children[2 * it + 1]
+            parents[it] = MerkleTree.Node(digestService.hash(left.hash.bytes + right.hash.bytes), left, right)
+        }
+        level = parents.map { it!! }
+    }
+    return level[0]
+}
+
 /** The outcome of just committing a transaction. */
 sealed class InternalResult {
     object Success : InternalResult()
@@ -50,6 +87,33 @@ sealed class InternalResult {
 data class BatchSignature(
         val rootSignature: TransactionSignature,
         val fullMerkleTree: MerkleTree) {
+    // The index of each leaf, so that a participant's partial tree can be built by following a single path down from the root.
+    private val leafIndices: Map<SecureHash, Int> by lazy {
+        val indices = HashMap<SecureHash, Int>()
+        var position = 0
+        fun addLeaves(tree: MerkleTree) {
+            when (tree) {
+                is MerkleTree.Leaf -> indices.putIfAbsent(tree.hash, position++)
+                is MerkleTree.Node -> {
+                    addLeaves(tree.left)
+                    addLeaves(tree.right)
+                }
+            }
+        }
+        addLeaves(fullMerkleTree)
+        indices
+    }
+
+    private val treeHeight: Int by lazy {
+        var height = 0
+        var tree = fullMerkleTree
+        while (tree is MerkleTree.Node) {
+            tree = tree.left
+            height++
+        }
+        height
+    }
+
     /** Extracts a signature with a partial Merkle tree for the specified leaf in the batch signature. */
     fun forParticipant(txId: SecureHash): TransactionSignature {
         require(fullMerkleTree.hash.algorithm == txId.algorithm) {
@@ -59,7 +123,26 @@ data class BatchSignature(
                 rootSignature.bytes,
                 rootSignature.by,
                 rootSignature.signatureMetadata,
-                PartialMerkleTree.build(fullMerkleTree, listOf(txId.reHash()))
+                partialMerkleTree(txId.reHash())
         )
     }
-}
\ No newline at end of file
+
+    /**
+     * Builds the same tree as [PartialMerkleTree.build] for a single leaf, without visiting every node of the full tree.
+     */
+    private fun partialMerkleTree(leaf: SecureHash): PartialMerkleTree {
+        require(!leaf.isZero()) { "Zero hashes shouldn't be included in partial tree." }
+        val index = leafIndices[leaf] ?: throw MerkleTreeException("Some of the provided hashes are not in the tree.")
+        fun pathTo(tree: MerkleTree, remainingLevels: Int): PartialTree {
+            return when (tree) {
+                is MerkleTree.Leaf -> PartialTree.IncludedLeaf(tree.hash)
+                is MerkleTree.Node -> if ((index shr (remainingLevels - 1)) and 1 == 0) {
+                    PartialTree.Node(pathTo(tree.left, remainingLevels - 1), PartialTree.Leaf(tree.right.hash), tree.hash.algorithm)
+                } else {
+                    PartialTree.Node(PartialTree.Leaf(tree.left.hash), pathTo(tree.right, remainingLevels - 1), tree.hash.algorithm)
+                }
+            }
+        }
+        return PartialMerkleTree(pathTo(fullMerkleTree, treeHeight))
+    }
+}
@@ -1,9 +1,20 @@
 package net.corda.notary.jpa
 
+/**
+ * @property partitions The number of partitions the input and reference states are divided into, each with its own request processor.
+ * @property committedStatesCacheSize The number of recently committed states kept in memory along with the transaction which consumed
+ * them, so that conflicts with those states are found without querying the database. Zero disables the cache.
+ * @property committedStatesFilterSize If positive, a bloom filter of all committed states is kept in memory, sized for this many states
+ * and grown as needed, so that states which have definitely not been committed are not looked up in the database. This must only be
+ * enabled if this notary worker is the only one committing to its tables.
+ */
 data class JPANotaryConfiguration(
     val batchSize: Int = 32,
     val batchTimeoutMs: Long = 200L,
     val maxInputStates: Int = 2000,
     val maxDBTransactionRetryCount: Int = 10,
-    val backOffBaseMs: Long = 20L
+    val backOffBaseMs: Long = 20L,
+    val partitions: Int = 1,
+    val committedStatesCacheSize: Long = 0L,
+    val committedStatesFilterSize: Long = 0L
 )
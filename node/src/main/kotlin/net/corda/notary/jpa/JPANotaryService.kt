@@ -32,12 +32,13 @@ class JPANotaryService(
                 database,
                 jpaNotaryConfig,
                 configuration.myLegalName,
-                ::signTransactionBatch
+                ::signTransactionBatch,
+                monitoringService.metrics
         )
     }
 
     private fun signTransactionBatch(txIds: Iterable<SecureHash>)
-            = signBatch(txIds, notaryIdentityKey, services)
+            = signBatch(txIds, notaryIdentityKey, services, services.monitoringService.metrics)
 
     override fun createServiceFlow(otherPartySession: FlowSession): NotaryServiceFlow {
         return if (notaryConfig.validating) {
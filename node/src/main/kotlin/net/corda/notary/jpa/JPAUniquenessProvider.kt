@@ -1,6 +1,12 @@
 package net.corda.notary.jpa
 
+import com.codahale.metrics.Gauge
+import com.codahale.metrics.MetricRegistry
+import com.github.benmanes.caffeine.cache.Cache
+import com.github.benmanes.caffeine.cache.Caffeine
 import com.google.common.collect.Queues
+import com.google.common.hash.Funnel
+import com.google.common.util.concurrent.ThreadFactoryBuilder
 import net.corda.core.concurrent.CordaFuture
 import net.corda.core.contracts.StateRef
 import net.corda.core.contracts.TimeWindow
@@ -25,6 +31,7 @@ import net.corda.core.serialization.serialize
 import net.corda.core.utilities.contextLogger
 import net.corda.core.utilities.debug
 import net.corda.node.services.vault.toStateRef
+import net.corda.node.utilities.ScalableBloomFilter
 import net.corda.nodeapi.internal.persistence.CordaPersistence
 import net.corda.nodeapi.internal.persistence.NODE_DATABASE_PREFIX
 import net.corda.notary.common.BatchSigningFunction
@@ -36,8 +43,14 @@ import java.time.Clock
 import java.time.Instant
 import java.util.LinkedList
 import java.util.UUID
+import java.util.concurrent.ArrayBlockingQueue
 import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.RejectedExecutionHandler
+import java.util.concurrent.ThreadPoolExecutor
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantLock
 import javax.annotation.concurrent.ThreadSafe
 import javax.persistence.Column
 import javax.persistence.EmbeddedId
@@ -47,7 +60,21 @@ import javax.persistence.Lob
 import javax.persistence.NamedQuery
 import kotlin.concurrent.thread
 
-/** A JPA backed Uniqueness provider */
+/**
+ * A JPA backed Uniqueness provider.
+ *
+ * Requests are queued and processed in batches. By default a single processor thread handles all requests. If
+ * [JPANotaryConfiguration.partitions] is greater than one, the input and reference states are partitioned by the hash of their [StateRef],
+ * and each partition has its own queue and processor thread, so that requests for unrelated states are committed concurrently in separate
+ * database transactions. A request whose states fall in more than one partition is handled by a separate cross-partition processor, which
+ * holds the locks of all the partitions its batch touches while processing it.
+ *
+ * Once a batch has been committed, signing it and completing its requests is handed over to a separate pool of signing threads, so that the
+ * processor can go on to the next batch.
+ *
+ * Conflicts are looked up in the database, unless they can be ruled in by the cache of recently committed states, or ruled out by the
+ * bloom filter of all committed states, if these are enabled in the [JPANotaryConfiguration].
+ */
 @Suppress("MagicNumber") // database column length
 @ThreadSafe
 class JPAUniquenessProvider(
@@ -55,7 +82,8 @@ class JPAUniquenessProvider(
         val database: CordaPersistence,
         val config: JPANotaryConfiguration = JPANotaryConfiguration(),
         val notaryWorkerName: CordaX500Name,
-        val signBatch: BatchSigningFunction
+        val signBatch: BatchSigningFunction,
+        metrics: MetricRegistry = MetricRegistry()
 ) : UniquenessProvider, SingletonSerializeAsToken() {
 
     // This is the prefix of the ID in the request log table, to allow running multiple instances that access the
@@ -96,7 +124,8 @@ class JPAUniquenessProvider(
             val references: List<StateRef>,
             val future: OpenFuture<UniquenessProvider.Result>,
             val requestEntity: Request,
-            val committedStatesEntities: List<CommittedState>)
+            val committedStatesEntities: List<CommittedState>,
+            val partitions: Set<Int>)
 
     @Entity
     @javax.persistence.Table(name = "${NODE_DATABASE_PREFIX}notary_committed_states")
@@ -115,32 +144,129 @@ class JPAUniquenessProvider(
             val transactionId: String
     )
 
-    private val requestQueue = LinkedBlockingQueue<CommitRequest>(requestQueueSize)
+    /**
+     * A queue of requests and the thread which processes them. Single partition processors hold the lock of their partition while
+     * processing a batch, the cross-partition processor holds the locks of every partition in its batch.
+     */
+    private inner class RequestProcessor(name: String, private val locksFor: (List<CommitRequest>) -> List<ReentrantLock>) {
+        val requestQueue = LinkedBlockingQueue<CommitRequest>(requestQueueSize)
+
+        /** A requestEntity processor thread. */
+        val processorThread = thread(name = name, isDaemon = true) {
+            try {
+                val buffer = LinkedList<CommitRequest>()
+                while (!Thread.interrupted()) {
+                    val drainedSize = Queues.drain(requestQueue, buffer, config.batchSize, config.batchTimeoutMs, TimeUnit.MILLISECONDS)
+                    if (drainedSize == 0) continue
+                    processRequests(buffer, locksFor(buffer))
+                    buffer.clear()
+                }
+            } catch (_: InterruptedException) {
+                log.debug { "Process interrupted."}
+            }
+            log.debug { "Shutting down with ${requestQueue.size} in-flight requests unprocessed." }
+        }
+    }
+
+    init {
+        require(config.partitions > 0) { "The number of notary partitions must be positive" }
+    }
+
+    private val partitionLocks = List(config.partitions) { ReentrantLock() }
+
+    private val partitionProcessors = if (config.partitions == 1) {
+        listOf(RequestProcessor("Notary request queue processor") { emptyList() })
+    } else {
+        List(config.partitions) { partition ->
+            RequestProcessor("Notary request queue processor-$partition") { listOf(partitionLocks[partition]) }
+        }
+    }
+
+    private val crossPartitionProcessor = if (config.partitions == 1) {
+        null
+    } else {
+        // Locks are always taken in partition order, so that cross-partition batches cannot deadlock with each other.
+        RequestProcessor("Notary cross-partition request processor") { requests ->
+            requests.flatMapTo(sortedSetOf<Int>()) { it.partitions }.map { partitionLocks[it] }
+        }
+    }
+
+    private val recentlyCommittedStates: Cache<StateRef, SecureHash>? = if (config.committedStatesCacheSize > 0) {
+        Caffeine.newBuilder().maximumSize(config.committedStatesCacheSize).build()
+    } else {
+        null
+    }
+
+    // States are added once committed, but the filter is only consulted once all previously committed states have been loaded.
+    private val committedStatesFilter = if (config.committedStatesFilterSize > 0) {
+        ScalableBloomFilter(stateRefFunnel, config.committedStatesFilterSize, committedStatesFilterFalsePositiveProbability)
+    } else {
+        null
+    }
+    @Volatile
+    private var committedStatesFilterLoaded = false
 
-    /** A requestEntity processor thread. */
-    private val processorThread = thread(name = "Notary request queue processor", isDaemon = true) {
+    init {
+        if (committedStatesFilter != null) {
+            thread(name = "Notary committed states filter loader", isDaemon = true) { loadCommittedStatesFilter(committedStatesFilter) }
+        }
+    }
+
+    private fun loadCommittedStatesFilter(filter: ScalableBloomFilter<StateRef>) {
         try {
-            val buffer = LinkedList<CommitRequest>()
-            while (!Thread.interrupted()) {
-                val drainedSize = Queues.drain(requestQueue, buffer, config.batchSize, config.batchTimeoutMs, TimeUnit.MILLISECONDS)
-                if (drainedSize == 0) continue
-                processRequests(buffer)
-                buffer.clear()
+            val startTime = System.nanoTime()
+            var count = 0L
+            database.transaction {
+                session.createQuery("select c.id from ${CommittedState::class.java.name} c", PersistentStateRef::class.java)
+                        .resultStream
+                        .use { ids ->
+                            ids.forEach {
+                                filter.put(it.toStateRef())
+                                count++
+                            }
+                        }
             }
-        } catch (_: InterruptedException) {
-            log.debug { "Process interrupted."}
+            committedStatesFilterLoaded = true
+            log.info("Loaded $count committed states into ${filter.filterCount} filters in ${(System.nanoTime() - startTime) / 1_000_000} ms")
+        } catch (e: Exception) {
+            log.error("Failed to load the committed states filter, conflicts will continue to be looked up in the database", e)
         }
-        log.debug { "Shutting down with ${requestQueue.size} in-flight requests unprocessed." }
+    }
+
+    // If the signers fall behind, the processors sign their own batches until they catch up. Once the provider has been stopped, a batch
+    // which is still handed over fails its requests instead.
+    private val signingExecutor = ThreadPoolExecutor(
+            config.partitions,
+            config.partitions,
+            0L,
+            TimeUnit.MILLISECONDS,
+            ArrayBlockingQueue(signingQueueSize),
+            ThreadFactoryBuilder().setNameFormat("Notary batch signer-%d").setDaemon(true).build(),
+            CallerRunsUnlessShutdownPolicy()
+    )
+    private val commitTimer = metrics.timer("Notary.Batch.Commit")
+    private val signingTimer = metrics.timer("Notary.Batch.Signing")
+    private val partialProofsTimer = metrics.timer("Notary.Batch.PartialProofs")
+
+    init {
+        metrics.register("Notary.Batch.SigningQueueDepth", Gauge { signingExecutor.queue.size })
     }
 
     fun stop() {
-        processorThread.interrupt()
+        partitionProcessors.forEach { it.processorThread.interrupt() }
+        crossPartitionProcessor?.processorThread?.interrupt()
+        signingExecutor.shutdown()
     }
 
     companion object {
         private const val requestQueueSize = 100_000
+        private const val signingQueueSize = 16
         private const val jdbcBatchSize = 100_000
         private val log = contextLogger()
+        private const val committedStatesFilterFalsePositiveProbability = 0.01
+        private val stateRefFunnel = Funnel<StateRef> { stateRef, sink ->
+            sink.putBytes(stateRef.txhash.bytes).putInt(stateRef.index)
+        }
 
         fun encodeStateRef(s: StateRef): PersistentStateRef {
             return PersistentStateRef(s.txhash.toString(), s.index)
@@ -173,20 +299,32 @@ class JPAUniquenessProvider(
                     txId.toString()
             )
         }
-        val request = CommitRequest(states, txId, callerIdentity, requestSignature, timeWindow, references, future, requestEntities, stateEntities)
+        val request = CommitRequest(states, txId, callerIdentity, requestSignature, timeWindow, references, future, requestEntities, stateEntities,
+                partitionsOf(txId, states, references))
 
-        requestQueue.put(request)
+        val processor = request.partitions.singleOrNull()?.let { partitionProcessors[it] } ?: crossPartitionProcessor!!
+        processor.requestQueue.put(request)
 
         return future
     }
 
+    /**
+     * The partitions a request must be processed in. A request without any input or reference states, which can only conflict with
+     * another request for the same transaction, is assigned a partition by its transaction id.
+     */
+    private fun partitionsOf(txId: SecureHash, states: List<StateRef>, references: List<StateRef>): Set<Int> {
+        if (config.partitions == 1) return setOf(0)
+        if (states.isEmpty() && references.isEmpty()) return setOf(Math.floorMod(txId.hashCode(), config.partitions))
+        return (states + references).mapToSet { Math.floorMod(it.hashCode(), config.partitions) }
+    }
+
     // Safe up to 100k requests per second.
-    private var nextRequestId = System.currentTimeMillis() * 100
+    private val nextRequestId = AtomicLong(System.currentTimeMillis() * 100)
 
     private fun logRequests(requests: List<CommitRequest>) {
         database.transaction {
             for (request in requests) {
-                request.requestEntity.id = "$instanceId:${(nextRequestId++).toString(16)}"
+                request.requestEntity.id = "$instanceId:${nextRequestId.getAndIncrement().toString(16)}"
                 session.persist(request.requestEntity)
             }
         }
@@ -202,8 +340,16 @@ class JPAUniquenessProvider(
     }
 
     private fun findAlreadyCommitted(session: Session, states: List<StateRef>, references: List<StateRef>): Map<StateRef, StateConsumptionDetails> {
-        val persistentStateRefs = (states + references).mapToSet(::encodeStateRef)
-        val committedStates = mutableListOf<CommittedState>()
+        val committedStates = mutableMapOf<StateRef, SecureHash>()
+        val filter = committedStatesFilter?.takeIf { committedStatesFilterLoaded }
+        val persistentStateRefs = LinkedHashSet<PersistentStateRef>()
+        for (stateRef in states + references) {
+            val consumingTxId = recentlyCommittedStates?.getIfPresent(stateRef)
+            when {
+                consumingTxId != null -> committedStates[stateRef] = consumingTxId
+                filter == null || filter.mightContain(stateRef) -> persistentStateRefs += encodeStateRef(stateRef)
+            }
+        }
 
         for (idsBatch in persistentStateRefs.chunked(config.maxInputStates)) {
             @Suppress("UNCHECKED_CAST")
@@ -211,16 +357,34 @@ class JPAUniquenessProvider(
                     .createNamedQuery("CommittedState.select")
                     .setParameter("ids", idsBatch)
                     .resultList as List<CommittedState>
-            committedStates.addAll(existing)
+            for (committedState in existing) {
+                val stateRef = committedState.id.toStateRef()
+                val consumingTxId = SecureHash.create(committedState.consumingTxHash)
+                committedStates[stateRef] = consumingTxId
+                recentlyCommittedStates?.put(stateRef, consumingTxId)
+            }
         }
 
-        return committedStates.associate {
-            val stateRef = it.id.toStateRef()
-            val consumingTxId = SecureHash.create(it.consumingTxHash)
+        return committedStates.mapValues { (stateRef, consumingTxId) ->
             if (stateRef in references) {
-                stateRef to StateConsumptionDetails(consumingTxId.reHash(), type = StateConsumptionDetails.ConsumedStateType.REFERENCE_INPUT_STATE)
+                StateConsumptionDetails(consumingTxId.reHash(), type = StateConsumptionDetails.ConsumedStateType.REFERENCE_INPUT_STATE)
             } else {
-                stateRef to StateConsumptionDetails(consumingTxId.reHash())
+                StateConsumptionDetails(consumingTxId.reHash())
+            }
+        }
+    }
+
+    /**
+     * Records the input states of the successful [requests] as consumed, once their database transaction has committed. A successful
+     * request's states are always consumed by its transaction, whether they were committed in this batch or previously.
+     */
+    private fun recordCommittedStates(requests: List<CommitRequest>, results: List<InternalResult>) {
+        if (recentlyCommittedStates == null && committedStatesFilter == null) return
+        for ((request, result) in requests.zip(results)) {
+            if (result !is InternalResult.Success) continue
+            for (stateRef in request.states) {
+                recentlyCommittedStates?.put(stateRef, request.txId)
+                committedStatesFilter?.put(stateRef)
             }
         }
     }
@@ -339,34 +503,62 @@ class JPAUniquenessProvider(
         return session.find(CommittedTransaction::class.java, txId.toString()) != null
     }
 
-    private fun processRequests(requests: List<CommitRequest>) {
+    private fun processRequests(requests: List<CommitRequest>, locks: List<ReentrantLock>) {
         try {
             // Note that there is an additional retry mechanism within the transaction itself.
-            val res = withRetry {
-                database.transaction {
-                    val em = session.entityManagerFactory.createEntityManager()
-                    em.unwrap(Session::class.java).jdbcBatchSize = jdbcBatchSize
-
-                    val toCommit = mutableListOf<CommitRequest>()
-                    val consumedStates = findAllConflicts(session, requests)
-                    val processedTxIds = mutableMapOf<SecureHash, InternalResult>()
-
-                    val results = requests.map { request ->
-                        processRequest(session, request, consumedStates, processedTxIds, toCommit)
-                    }
-
-                    logRequests(requests)
-                    commitRequests(session, toCommit)
-
-                    results
+            val res = commitTimer.time().use {
+                withLocks(locks) {
+                    withRetry {
+                        database.transaction {
+                            val em = session.entityManagerFactory.createEntityManager()
+                            em.unwrap(Session::class.java).jdbcBatchSize = jdbcBatchSize
+
+                            val toCommit = mutableListOf<CommitRequest>()
+                            val consumedStates = findAllConflicts(session, requests)
+                            val processedTxIds = mutableMapOf<SecureHash, InternalResult>()
+
+                            val results = requests.map { request ->
+                                processRequest(session, request, consumedStates, processedTxIds, toCommit)
+                            }
+
+                            logRequests(requests)
+                            commitRequests(session, toCommit)
+
+                            results
+                        }
+                    }.also { recordCommittedStates(requests, it) }
                 }
             }
-            completeResponses(requests, res)
+            // The processor reuses its buffer for the next batch.
+            val batch = requests.toList()
+            signingExecutor.execute { signAndCompleteResponses(batch, res) }
         } catch (e: Exception) {
-            log.warn("Error processing commit requests", e)
-            for (request in requests) {
-                respondWithError(request, e)
-            }
+            respondWithError(requests, e)
+        }
+    }
+
+    private fun signAndCompleteResponses(requests: List<CommitRequest>, results: List<InternalResult>) {
+        try {
+            signingTimer.time().use { completeResponses(requests, results) }
+        } catch (e: Exception) {
+            respondWithError(requests, e)
+        }
+    }
+
+    private fun respondWithError(requests: List<CommitRequest>, exception: Exception) {
+        log.warn("Error processing commit requests", exception)
+        for (request in requests) {
+            respondWithError(request, exception)
+        }
+    }
+
+    /** Runs [block] holding all of [locks], which are released only after its database transaction has been committed. */
+    private fun <T> withLocks(locks: List<ReentrantLock>, block: () -> T): T {
+        locks.forEach { it.lock() }
+        try {
+            return block()
+        } finally {
+            locks.asReversed().forEach { it.unlock() }
         }
     }
 
@@ -380,14 +572,18 @@ class JPAUniquenessProvider(
             signBatch(successfulRequests)
         else null
 
-        var inputStateCount = 0
-        for ((request, result) in zippedResults) {
-            val resultToSet = when {
-                result is InternalResult.Failure -> UniquenessProvider.Result.Failure(result.error)
-                signature != null -> UniquenessProvider.Result.Success(signature.forParticipant(request.txId))
-                else -> throw IllegalStateException("Signature is required but not found")
+        val resultsToSet = partialProofsTimer.time().use {
+            zippedResults.map { (request, result) ->
+                when {
+                    result is InternalResult.Failure -> UniquenessProvider.Result.Failure(result.error)
+                    signature != null -> UniquenessProvider.Result.Success(signature.forParticipant(request.txId))
+                    else -> throw IllegalStateException("Signature is required but not found")
+                }
             }
+        }
 
+        var inputStateCount = 0
+        for ((request, resultToSet) in requests.zip(resultsToSet)) {
             request.future.set(resultToSet)
             inputStateCount += request.states.size
         }
@@ -402,3 +598,17 @@ class JPAUniquenessProvider(
         }
     }
 }
+
+/**
+ * Runs a rejected task on the calling thread, as [ThreadPoolExecutor.CallerRunsPolicy] does, unless the executor has been shut down. Rather
+ * than silently discarding the task in that case, this throws [RejectedExecutionException] so that the caller can fail the work it was
+ * handing over.
+ */
+internal class CallerRunsUnlessShutdownPolicy : RejectedExecutionHandler {
+    override fun rejectedExecution(task: Runnable, executor: ThreadPoolExecutor) {
+        if (executor.isShutdown) {
+            throw RejectedExecutionException("Task $task rejected as $executor has been shut down")
+        }
+        task.run()
+    }
+}
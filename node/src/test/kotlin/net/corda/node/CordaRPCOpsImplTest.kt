@@ -19,12 +19,16 @@ import net.corda.core.messaging.CordaRPCOps
 import net.corda.core.messaging.StateMachineUpdate
 import net.corda.core.messaging.startFlow
 import net.corda.core.messaging.vaultQueryBy
+import net.corda.core.messaging.vaultStreamBy
 import net.corda.core.messaging.vaultTrackBy
 import net.corda.core.node.services.Vault
+import net.corda.core.node.services.VaultQueryException
 import net.corda.core.node.services.queryBy
 import net.corda.core.node.services.vault.AttachmentQueryCriteria
 import net.corda.core.node.services.vault.ColumnPredicate
 import net.corda.core.node.services.vault.EqualityComparisonOperator
+import net.corda.core.node.services.vault.QueryCriteria
+import net.corda.core.node.services.vault.builder
 import net.corda.core.transactions.SignedTransaction
 import net.corda.core.utilities.OpaqueBytes
 import net.corda.core.utilities.getOrThrow
@@ -33,6 +37,7 @@ import net.corda.finance.GBP
 import net.corda.finance.contracts.asset.Cash
 import net.corda.finance.flows.CashIssueFlow
 import net.corda.finance.flows.CashPaymentFlow
+import net.corda.finance.schemas.CashSchemaV1
 import net.corda.node.internal.security.AuthorizingSubject
 import net.corda.node.internal.security.RPCSecurityManagerImpl
 import net.corda.node.services.Permissions.Companion.invokeRpc
@@ -61,7 +66,10 @@ import org.junit.Assert.assertArrayEquals
 import org.junit.Before
 import org.junit.Test
 import rx.Observable
+import rx.observers.TestSubscriber
 import java.io.ByteArrayOutputStream
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 import kotlin.test.assertEquals
 import kotlin.test.assertFalse
 import kotlin.test.assertNull
@@ -425,6 +433,67 @@ class CordaRPCOpsImplTest {
         }
     }
 
+    @Test(timeout=300_000)
+	fun `vault stream emits all states in pages of the requested size and then completes`() {
+        CURRENT_RPC_CONTEXT.set(RpcAuthContext(InvocationContext.rpc(testActor()), buildSubject("TEST_USER", emptySet())))
+        issueCash(5)
+        withPermissions(invokeRpc("vaultStreamBy")) {
+            val subscriber = TestSubscriber<Vault.Page<Cash.State>>()
+            rpc.vaultStreamBy<Cash.State>(pageSize = 2).subscribe(subscriber)
+
+            subscriber.awaitTerminalEvent(30, TimeUnit.SECONDS)
+            subscriber.assertNoErrors()
+            subscriber.assertCompleted()
+            assertThat(subscriber.onNextEvents.map { it.states.size }).containsExactly(2, 2, 1)
+            assertThat(subscriber.onNextEvents.flatMap { it.states }.map { it.ref }.toSet()).hasSize(5)
+            assertThat(subscriber.onNextEvents).allMatch { it.totalStatesAvailable == -1L }
+        }
+    }
+
+    @Test(timeout=300_000)
+	fun `vault stream stops reading once the client unsubscribes`() {
+        CURRENT_RPC_CONTEXT.set(RpcAuthContext(InvocationContext.rpc(testActor()), buildSubject("TEST_USER", emptySet())))
+        issueCash(5)
+        withPermissions(invokeRpc("vaultStreamBy")) {
+            val emitted = AtomicInteger()
+            val pages = rpc.vaultStreamBy<Cash.State>(pageSize = 1)
+                    .doOnNext { emitted.incrementAndGet() }
+                    .take(2)
+                    .toList()
+                    .toBlocking()
+                    .single()
+
+            assertThat(pages).hasSize(2)
+            assertThat(emitted.get()).isEqualTo(2)
+        }
+    }
+
+    @Test(timeout=300_000)
+	fun `vault stream of an aggregate query is an error`() {
+        CURRENT_RPC_CONTEXT.set(RpcAuthContext(InvocationContext.rpc(testActor()), buildSubject("TEST_USER", emptySet())))
+        issueCash(2)
+        withPermissions(invokeRpc("vaultStreamBy")) {
+            val criteria = QueryCriteria.VaultCustomQueryCriteria(builder { CashSchemaV1.PersistentCashState::pennies.sum() })
+            val subscriber = TestSubscriber<Vault.Page<Cash.State>>()
+            rpc.vaultStreamBy<Cash.State>(criteria).subscribe(subscriber)
+
+            subscriber.awaitTerminalEvent(30, TimeUnit.SECONDS)
+            subscriber.assertNotCompleted()
+            subscriber.assertNoValues()
+            assertThat(subscriber.onErrorEvents.single())
+                    .isInstanceOf(VaultQueryException::class.java)
+                    .hasMessageContaining("Aggregate function queries cannot be streamed")
+        }
+    }
+
+    private fun issueCash(count: Int) {
+        withPermissions(startFlow<CashIssueFlow>()) {
+            val results = (1..count).map { rpc.startFlow(::CashIssueFlow, 10.DOLLARS, OpaqueBytes.of(it.toByte()), notary) }
+            mockNet.runNetwork()
+            results.forEach { it.returnValue.getOrThrow() }
+        }
+    }
+
     class NonRPCFlow : FlowLogic<Unit>() {
         @Suspendable
         override fun call() = Unit
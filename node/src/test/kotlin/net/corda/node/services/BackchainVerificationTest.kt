@@ -0,0 +1,53 @@
+package net.corda.node.services
+
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.junit.After
+import org.junit.Test
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class BackchainVerificationTest {
+    private val executor = Executors.newFixedThreadPool(8)
+
+    @After
+    fun cleanUp() {
+        executor.shutdownNow()
+    }
+
+    @Test(timeout = 300_000)
+    fun `every item is processed with bounded concurrency`() {
+        val processed = ConcurrentHashMap.newKeySet<Int>()
+        val running = AtomicInteger()
+        val maxRunning = AtomicInteger()
+        forEachConcurrently((1..100).toList(), 3, executor) {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), ::maxOf)
+            Thread.sleep(1)
+            processed += it
+            running.decrementAndGet()
+        }.get(10, TimeUnit.SECONDS)
+        assertThat(processed).hasSize(100)
+        assertThat(maxRunning.get()).isBetween(1, 3)
+    }
+
+    @Test(timeout = 300_000)
+    fun `no items completes immediately`() {
+        assertThat(forEachConcurrently(emptyList<Int>(), 3, executor) { throw IllegalStateException() }).isCompleted
+    }
+
+    @Test(timeout = 300_000)
+    fun `first failure completes the future and stops further items`() {
+        val processed = AtomicInteger()
+        val result = forEachConcurrently((1..1000).toList(), 1, executor) {
+            if (it == 10) throw IllegalArgumentException("Invalid transaction")
+            processed.incrementAndGet()
+        }
+        assertThatThrownBy { result.get(10, TimeUnit.SECONDS) }
+                .isInstanceOf(ExecutionException::class.java)
+                .hasCauseInstanceOf(IllegalArgumentException::class.java)
+        assertThat(processed.get()).isEqualTo(9)
+    }
+}
@@ -0,0 +1,199 @@
+package net.corda.node.services
+
+import co.paralleluniverse.fibers.Suspendable
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.whenever
+import net.corda.core.crypto.SecureHash
+import net.corda.core.flows.FlowLogic
+import net.corda.core.flows.FlowSession
+import net.corda.core.flows.InitiatedBy
+import net.corda.core.flows.InitiatingFlow
+import net.corda.core.flows.ReceiveTransactionFlow
+import net.corda.core.flows.SendTransactionFlow
+import net.corda.core.identity.Party
+import net.corda.core.node.StatesToRecord
+import net.corda.core.node.services.TransactionStatus
+import net.corda.core.transactions.SignedTransaction
+import net.corda.core.utilities.getOrThrow
+import net.corda.core.utilities.unwrap
+import net.corda.testing.contracts.DummyContract
+import net.corda.testing.core.ALICE_NAME
+import net.corda.testing.core.BOB_NAME
+import net.corda.testing.core.singleIdentity
+import net.corda.testing.node.internal.DUMMY_CONTRACTS_CORDAPP
+import net.corda.testing.node.internal.InternalMockNetwork
+import net.corda.testing.node.internal.InternalMockNodeParameters
+import net.corda.testing.node.internal.TestStartedNode
+import net.corda.testing.node.internal.enclosedCordapp
+import net.corda.testing.node.internal.startFlow
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+class DbTransactionsResolverTest {
+    private lateinit var mockNet: InternalMockNetwork
+    private lateinit var notaryNode: TestStartedNode
+    private lateinit var aliceNode: TestStartedNode
+    private lateinit var bobNode: TestStartedNode
+    private lateinit var notary: Party
+    private lateinit var alice: Party
+    private lateinit var bob: Party
+
+    @Before
+    fun setUp() {
+        mockNet = InternalMockNetwork(cordappsForAllNodes = listOf(DUMMY_CONTRACTS_CORDAPP, enclosedCordapp()))
+        notaryNode = mockNet.defaultNotaryNode
+        notary = mockNet.defaultNotaryIdentity
+        aliceNode = mockNet.createNode(InternalMockNodeParameters(legalName = ALICE_NAME))
+        alice = aliceNode.info.singleIdentity()
+        // Bob resolves the backchains. He asks Alice for up to three transactions at a time, and verifies up to four at once.
+        bobNode = mockNet.createNode(InternalMockNodeParameters(legalName = BOB_NAME, configOverrides = {
+            doReturn(3).whenever(it).backchainFetchBatchSize
+            doReturn(4).whenever(it).backchainVerificationParallelism
+        }))
+        bob = bobNode.info.singleIdentity()
+    }
+
+    @After
+    fun cleanUp() {
+        mockNet.stopNodes()
+    }
+
+    @Test(timeout=300_000)
+	fun `backchain is fetched in batches of the configured size`() {
+        val issues = List(4) { issue() }
+        val moves = listOf(move(issues.subList(0, 2)), move(issues.subList(2, 4)))
+        val stx = move(moves, bob)
+
+        resolve(stx)
+
+        // The two moves are fetched together, then the four issues as a full batch of three followed by a partial batch of one.
+        assertThat(downloadedPerRoundTrip()).containsExactlyInAnyOrder(2, 3, 1)
+        assertThat(transactionsDownloaded()).isEqualTo(6L)
+        assertVerified(issues + moves)
+    }
+
+    @Test(timeout=300_000)
+	fun `transactions already present are not fetched again`() {
+        val issues = List(5) { issue() }
+        val stx = move(issues, bob)
+        bobNode.database.transaction {
+            bobNode.services.recordTransactions(issues.take(2))
+        }
+
+        resolve(stx)
+
+        // The first batch only downloads the one of its three transactions which Bob doesn't already have.
+        assertThat(downloadedPerRoundTrip()).containsExactlyInAnyOrder(1, 2)
+        assertThat(transactionsDownloaded()).isEqualTo(3L)
+        assertVerified(issues)
+    }
+
+    @Test(timeout=300_000)
+	fun `backchain levels are verified concurrently and recorded in dependency order`() {
+        val issues = List(4) { issue() }
+        val moves = listOf(move(issues.subList(0, 2)), move(issues.subList(2, 4)))
+        val stx = move(moves, bob)
+        val recorded = ArrayList<SecureHash>()
+        bobNode.services.validatedTransactions.updates.subscribe { recorded += it.id }
+
+        resolve(stx)
+
+        assertVerified(issues + moves)
+        // Each level is only recorded once the whole of the level before it has been.
+        assertThat(recorded.subList(0, 4)).containsExactlyInAnyOrderElementsOf(issues.map { it.id })
+        assertThat(recorded.subList(4, 6)).containsExactlyInAnyOrderElementsOf(moves.map { it.id })
+    }
+
+    @Test(timeout=300_000)
+	fun `verification failure in one level of the backchain is reported`() {
+        val issues = List(4) { issue() }
+        val moves = listOf(move(issues.subList(0, 2)), move(issues.subList(2, 4), signedByNotary = false))
+        val stx = move(moves, bob)
+
+        assertThatThrownBy { resolve(stx) }.matches { e ->
+            generateSequence(e) { it.cause }.any { it is SignedTransaction.SignaturesMissingException }
+        }
+
+        // The level before the failure has been verified and recorded, but none of the failing level has.
+        assertVerified(issues)
+        bobNode.database.transaction {
+            for (move in moves) {
+                assertThat(bobNode.services.validatedTransactions.getTransactionWithStatus(move.id)?.status)
+                        .isNotEqualTo(TransactionStatus.VERIFIED)
+            }
+        }
+    }
+
+    private fun issue(): SignedTransaction {
+        val builder = DummyContract.generateInitial(0, notary, alice.ref(1))
+        val stx = notaryNode.services.addSignature(aliceNode.services.signInitialTransaction(builder), notary.owningKey)
+        aliceNode.database.transaction {
+            aliceNode.services.recordTransactions(stx)
+        }
+        return stx
+    }
+
+    /**
+     * Moves the first output of each of the [inputs] to the [newOwner] in a single transaction. A transaction which is not
+     * [signedByNotary] is recorded by Alice without checking its signatures, and so fails verification by anyone resolving it.
+     */
+    private fun move(inputs: List<SignedTransaction>, newOwner: Party = alice, signedByNotary: Boolean = true): SignedTransaction {
+        val builder = DummyContract.move(inputs.map { it.tx.outRef<DummyContract.SingleOwnerState>(0) }, newOwner)
+        val ptx = aliceNode.services.signInitialTransaction(builder)
+        val stx = if (signedByNotary) notaryNode.services.addSignature(ptx, notary.owningKey) else ptx
+        aliceNode.database.transaction {
+            aliceNode.services.recordTransactions(StatesToRecord.ONLY_RELEVANT, listOf(stx), disableSignatureVerification = !signedByNotary)
+        }
+        return stx
+    }
+
+    private fun resolve(stx: SignedTransaction) {
+        val future = bobNode.services.startFlow(ResolveBackchainFlow(stx.id, alice)).resultFuture
+        mockNet.runNetwork()
+        future.getOrThrow()
+    }
+
+    private fun downloadedPerRoundTrip(): List<Long> {
+        val metrics = bobNode.services.monitoringService.metrics
+        assertThat(metrics.counter("Flows.Backchain.FetchRoundTrips").count)
+                .isEqualTo(metrics.histogram("Flows.Backchain.TransactionsPerRoundTrip").count)
+        return metrics.histogram("Flows.Backchain.TransactionsPerRoundTrip").snapshot.values.toList()
+    }
+
+    private fun transactionsDownloaded(): Long {
+        return bobNode.services.monitoringService.metrics.counter("Flows.Backchain.TransactionsDownloaded").count
+    }
+
+    private fun assertVerified(transactions: List<SignedTransaction>) {
+        bobNode.database.transaction {
+            for (stx in transactions) {
+                assertThat(bobNode.services.validatedTransactions.getTransactionWithStatus(stx.id)?.status)
+                        .isEqualTo(TransactionStatus.VERIFIED)
+            }
+        }
+    }
+
+    /** Asks the counterparty for the transaction with the given id, resolving and verifying its backchain. */
+    @InitiatingFlow
+    class ResolveBackchainFlow(private val txId: SecureHash, private val otherSide: Party) : FlowLogic<SignedTransaction>() {
+        @Suspendable
+        override fun call(): SignedTransaction {
+            val session = initiateFlow(otherSide)
+            session.send(txId)
+            return subFlow(ReceiveTransactionFlow(session))
+        }
+    }
+
+    @Suppress("unused")
+    @InitiatedBy(ResolveBackchainFlow::class)
+    class SendBackchainFlow(private val otherSideSession: FlowSession) : FlowLogic<Unit>() {
+        @Suspendable
+        override fun call() {
+            val txId = otherSideSession.receive<SecureHash>().unwrap { it }
+            subFlow(SendTransactionFlow(otherSideSession, serviceHub.validatedTransactions.getTransaction(txId)!!))
+        }
+    }
+}
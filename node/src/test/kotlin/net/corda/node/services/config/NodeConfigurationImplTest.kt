@@ -319,6 +319,14 @@ class NodeConfigurationImplTest {
         assertTrue(rawConfig.parseAsNodeConfiguration().value().crlCheckArtemisServer)
     }
 
+    @Test(timeout=6_000)
+    fun `check externalVerifierPoolSize`() {
+        assertEquals(1, getConfig("working-config.conf").parseAsNodeConfiguration().value().externalVerifierPoolSize)
+        val rawConfig = getConfig("working-config.conf", ConfigFactory.parseMap(mapOf("externalVerifierPoolSize" to 4)))
+        assertEquals(4, rawConfig.parseAsNodeConfiguration().value().externalVerifierPoolSize)
+        assertThatThrownBy { testConfiguration.copy(externalVerifierPoolSize = 0) }.hasMessageContaining("externalVerifierPoolSize")
+    }
+
     @Test(timeout=6_000)
     fun `absolute network parameters path is set as specified by node config`() {
         val nodeConfig = getConfig("working-config.conf", ConfigFactory.parseMap(mapOf("networkParametersPath" to tempFolder.root.canonicalPath))).parseAsNodeConfiguration().value()
@@ -8,6 +8,7 @@ import net.corda.testing.core.TestIdentity
 import net.corda.testing.node.MockServices
 import org.junit.Rule
 import org.junit.Test
+import java.security.PublicKey
 import kotlin.test.assertEquals
 
 class FilterMyKeysTests {
@@ -30,4 +31,26 @@ class FilterMyKeysTests {
         val result = services.keyManagementService.filterMyKeys(listOf(ourKey, notOurKey))
         assertEquals(listOf(ourKey), result)
     }
+
+    @Test(timeout=300_000)
+	fun `keys created before and after the fresh keys filter is loaded are ours`() {
+        val identity = TestIdentity(CordaX500Name("Roger", "Office", "GB"))
+        val (_, services) = MockServices.makeTestDatabaseAndPersistentServices(
+                cordappPackages = emptyList(),
+                initialIdentity = identity,
+                networkParameters = testNetworkParameters(),
+                moreKeys = emptySet(),
+                moreIdentities = emptySet()
+        )
+        val keyManagementService = services.keyManagementService as BasicHSMKeyManagementService
+        val keyBeforeLoad = keyManagementService.freshKey()
+        while (!keyManagementService.isFreshKeysFilterLoaded) {
+            Thread.sleep(10)
+        }
+        val keyAfterLoad = keyManagementService.freshKey()
+        val notOurKeys = (1..10).map { Crypto.generateKeyPair().public }
+        val result = keyManagementService.filterMyKeys(notOurKeys + listOf(keyBeforeLoad, identity.publicKey, keyAfterLoad))
+        assertEquals(listOf(keyBeforeLoad, identity.publicKey, keyAfterLoad), result)
+        assertEquals(emptyList<PublicKey>(), keyManagementService.filterMyKeys(notOurKeys))
+    }
 }
\ No newline at end of file
@@ -0,0 +1,208 @@
+package net.corda.node.services.messaging
+
+import com.codahale.metrics.MetricRegistry
+import net.corda.core.messaging.MessageRecipients
+import net.corda.core.utilities.ByteSequence
+import net.corda.core.utilities.OpaqueBytes
+import net.corda.core.utilities.seconds
+import net.corda.node.VersionInfo
+import net.corda.node.services.statemachine.DeduplicationId
+import org.apache.activemq.artemis.api.core.ActiveMQException
+import org.apache.activemq.artemis.api.core.SimpleString
+import org.apache.activemq.artemis.api.core.client.ClientMessage
+import org.apache.activemq.artemis.api.core.client.ClientProducer
+import org.apache.activemq.artemis.api.core.client.ClientSession
+import org.apache.activemq.artemis.api.core.client.SendAcknowledgementHandler
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.junit.Test
+import org.mockito.Mockito.inOrder
+import org.mockito.kotlin.any
+import org.mockito.kotlin.doAnswer
+import org.mockito.kotlin.eq
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.never
+import org.mockito.kotlin.times
+import org.mockito.kotlin.verify
+import java.time.Duration
+import java.time.Instant
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+
+class MessagingExecutorTest {
+    private val metrics = MetricRegistry()
+    private val createdMessages = CopyOnWriteArrayList<ClientMessage>()
+    private val session = mock<ClientSession> {
+        on { createMessage(true) } doAnswer { mock<ClientMessage>().also { createdMessages += it } }
+    }
+    // How the mock broker responds to each asynchronous send.
+    private var brokerResponse: (SendAcknowledgementHandler, ClientMessage) -> Unit = { handler, message -> handler.sendAcknowledged(message) }
+    private val producer = mock<ClientProducer> {
+        on { send(any<SimpleString>(), any(), any<SendAcknowledgementHandler>()) } doAnswer {
+            brokerResponse(it.getArgument(2), it.getArgument(1))
+        }
+    }
+    private val resolver = object : AddressToArtemisQueueResolver {
+        override fun resolveTargetToArtemisQueue(address: MessageRecipients): String = "peer-queue"
+    }
+    private val target = mock<MessageRecipients>()
+    private val failures = CopyOnWriteArrayList<Exception>()
+    private val failureReported = CountDownLatch(1)
+    private val laterSendConfirmed = CountDownLatch(1)
+
+    @Test(timeout = 300_000)
+    fun `pipelined executor sends queued messages in order before acknowledging`() {
+        val executor = createExecutor(sendQueueCapacity = 16)
+        val received = mock<ClientMessage>()
+        executor.sendAll(listOf(target to testMessage("1"), target to testMessage("2")))
+        executor.acknowledge(received)
+        executor.send(testMessage("3"), target)
+        executor.close()
+
+        assertThat(createdMessages).hasSize(3)
+        val order = inOrder(producer, received)
+        createdMessages.forEach { message ->
+            order.verify(producer).send(eq(SimpleString("peer-queue")), eq(message), any<SendAcknowledgementHandler>())
+        }
+        order.verify(received).individualAcknowledge()
+        verify(producer, never()).send(any<SimpleString>(), any())
+        assertThat(metrics.timer("P2P.SendLatency").count).isEqualTo(3L)
+        assertThat(metrics.gauges["P2P.SendQueueDepth"]!!.value).isEqualTo(0)
+    }
+
+    @Test(timeout = 300_000)
+    fun `pipelined executor rejects jobs once closed`() {
+        val executor = createExecutor(sendQueueCapacity = 16)
+        executor.close()
+        assertThatThrownBy { executor.send(testMessage("1"), target) }.isInstanceOf(IllegalStateException::class.java)
+    }
+
+    @Test(timeout = 300_000)
+    fun `pipelined executor does not acknowledge messages which depend on a send the broker rejects`() {
+        val brokerFailure = ActiveMQException("rejected")
+        val rejectedSend = CompletableFuture<Pair<SendAcknowledgementHandler, ClientMessage>>()
+        brokerResponse = { handler, message ->
+            if (message == createdMessages[0]) rejectedSend.complete(handler to message) else laterSendConfirmed(handler, message)
+        }
+        val executor = createExecutor(sendQueueCapacity = 16)
+        val received = mock<ClientMessage>()
+        executor.send(testMessage("1"), target)
+        executor.acknowledge(received)
+        val (handler, message) = rejectedSend.get()
+        awaitQueueDrained()
+        handler.sendFailed(message, brokerFailure)
+
+        // The executor carries on with the jobs queued once the failure has been noticed.
+        val later = sendAndAcknowledgeAfterFailure(executor)
+        executor.close()
+
+        verify(received, never()).individualAcknowledge()
+        verify(later).individualAcknowledge()
+        assertThat(failures).containsExactly(brokerFailure)
+        assertThat(metrics.meter("P2P.SendFailures").count).isEqualTo(1L)
+    }
+
+    @Test(timeout = 300_000)
+    fun `pipelined executor does not acknowledge messages which depend on a send which throws`() {
+        val sendFailure = ActiveMQException("session closed")
+        val acknowledgementQueued = CountDownLatch(1)
+        brokerResponse = { handler, message ->
+            if (message == createdMessages[0]) {
+                acknowledgementQueued.await()
+                throw sendFailure
+            }
+            laterSendConfirmed(handler, message)
+        }
+        val executor = createExecutor(sendQueueCapacity = 16)
+        val received = mock<ClientMessage>()
+        executor.send(testMessage("1"), target)
+        executor.acknowledge(received)
+        acknowledgementQueued.countDown()
+        failureReported.await()
+
+        val later = sendAndAcknowledgeAfterFailure(executor)
+        executor.close()
+
+        verify(received, never()).individualAcknowledge()
+        verify(later).individualAcknowledge()
+        verify(producer, times(2)).send(any<SimpleString>(), any(), any<SendAcknowledgementHandler>())
+        assertThat(failures).containsExactly(sendFailure)
+    }
+
+    @Test(timeout = 300_000)
+    fun `pipelined executor does not acknowledge messages which depend on a send the broker does not confirm in time`() {
+        brokerResponse = { handler, message ->
+            // The broker never responds to the first send.
+            if (message != createdMessages[0]) laterSendConfirmed(handler, message)
+        }
+        val executor = createExecutor(sendQueueCapacity = 16, sendConfirmationTimeout = Duration.ofMillis(100))
+        val received = mock<ClientMessage>()
+        executor.send(testMessage("1"), target)
+        executor.acknowledge(received)
+        failureReported.await()
+
+        val later = sendAndAcknowledgeAfterFailure(executor)
+        executor.close()
+
+        verify(received, never()).individualAcknowledge()
+        verify(later).individualAcknowledge()
+        assertThat(failures).hasSize(1).allMatch { it is IllegalStateException }
+    }
+
+    @Test(timeout = 300_000)
+    fun `executor sends on the calling thread by default`() {
+        val executor = createExecutor(sendQueueCapacity = 0)
+        executor.send(testMessage("1"), target)
+
+        verify(producer).send(SimpleString("peer-queue"), createdMessages.single())
+        assertThat(metrics.gauges).doesNotContainKey("P2P.SendQueueDepth")
+    }
+
+    private fun createExecutor(sendQueueCapacity: Int, sendConfirmationTimeout: Duration = 60.seconds): MessagingExecutor {
+        return MessagingExecutor(
+                session,
+                producer,
+                VersionInfo(1, "TEST", "TEST", "TEST"),
+                resolver,
+                ourSenderUUID = "sender",
+                onSendFailure = {
+                    failures += it
+                    failureReported.countDown()
+                },
+                sendQueueCapacity = sendQueueCapacity,
+                metricRegistry = metrics,
+                sendConfirmationTimeout = sendConfirmationTimeout
+        )
+    }
+
+    private fun laterSendConfirmed(handler: SendAcknowledgementHandler, message: ClientMessage) {
+        handler.sendAcknowledged(message)
+        laterSendConfirmed.countDown()
+    }
+
+    /**
+     * Sends a message once the sender thread has noticed the failure, and then acknowledges one once that send has been handed to the
+     * broker, by which point every job queued before the failure was noticed has been processed.
+     */
+    private fun sendAndAcknowledgeAfterFailure(executor: MessagingExecutor): ClientMessage {
+        executor.send(testMessage("2"), target)
+        laterSendConfirmed.await()
+        return mock<ClientMessage>().also(executor::acknowledge)
+    }
+
+    private fun awaitQueueDrained() {
+        while (metrics.gauges["P2P.SendQueueDepth"]!!.value != 0) {
+            Thread.sleep(1)
+        }
+    }
+
+    private fun testMessage(id: String): Message = object : Message {
+        override val topic: String = "test"
+        override val data: ByteSequence = OpaqueBytes.of(1, 2, 3)
+        override val debugTimestamp: Instant = Instant.now()
+        override val uniqueMessageId: DeduplicationId = DeduplicationId(id)
+        override val senderUUID: String? = "sender"
+        override val additionalHeaders: Map<String, String> = emptyMap()
+    }
+}
@@ -0,0 +1,45 @@
+package net.corda.node.services.persistence
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import java.util.Random
+
+class CheckpointDeltaCodecTest {
+    private val random = Random(42)
+
+    @Test(timeout = 300_000)
+    fun `small change produces small delta`() {
+        val base = randomBytes(64 * 1024)
+        val target = base.copyOf()
+        target[1000] = (target[1000] + 1).toByte()
+        target[40000] = (target[40000] + 1).toByte()
+
+        val delta = CheckpointDeltaCodec.encode(base, target)
+        assertThat(delta.size).isLessThan(64)
+        assertThat(CheckpointDeltaCodec.apply(base, delta)).isEqualTo(target)
+    }
+
+    @Test(timeout = 300_000)
+    fun `inserted and removed bytes are handled`() {
+        val base = randomBytes(10_000)
+        val target = base.copyOfRange(0, 3000) + randomBytes(500) + base.copyOfRange(3100, 10_000)
+
+        val delta = CheckpointDeltaCodec.encode(base, target)
+        assertThat(delta.size).isLessThan(1000)
+        assertThat(CheckpointDeltaCodec.apply(base, delta)).isEqualTo(target)
+    }
+
+    @Test(timeout = 300_000)
+    fun `unrelated and short inputs round trip`() {
+        listOf(
+                randomBytes(5000) to randomBytes(7000),
+                randomBytes(10) to randomBytes(5000),
+                randomBytes(5000) to randomBytes(10),
+                ByteArray(0) to ByteArray(0)
+        ).forEach { (base, target) ->
+            assertThat(CheckpointDeltaCodec.apply(base, CheckpointDeltaCodec.encode(base, target))).isEqualTo(target)
+        }
+    }
+
+    private fun randomBytes(size: Int): ByteArray = ByteArray(size).also { random.nextBytes(it) }
+}
@@ -16,6 +16,7 @@ import net.corda.core.utilities.contextLogger
 import net.corda.node.internal.CheckpointIncompatibleException
 import net.corda.node.internal.CheckpointVerifier
 import net.corda.node.services.api.CheckpointStorage
+import net.corda.node.services.config.CheckpointDeltaEncodingConfiguration
 import net.corda.node.services.statemachine.Checkpoint
 import net.corda.node.services.statemachine.CheckpointState
 import net.corda.node.services.statemachine.ErrorState
@@ -143,6 +144,50 @@ class DBCheckpointStorageTests {
         }
     }
 
+    @Test(timeout = 300_000)
+    fun `update a checkpoint using delta encoding`() {
+        val recordedDeltas = mutableListOf<Pair<Long, Long>>()
+        val deltaCheckpointStorage = DBCheckpointStorage(
+            object : CheckpointPerformanceRecorder {
+                override fun record(
+                    serializedCheckpointState: SerializedBytes<CheckpointState>,
+                    serializedFlowState: SerializedBytes<FlowState>?
+                ) {
+                    // do nothing
+                }
+
+                override fun recordDelta(fullSize: Long, deltaSize: Long) {
+                    recordedDeltas += fullSize to deltaSize
+                }
+            },
+            Clock.systemUTC(),
+            CheckpointDeltaEncodingConfiguration(compactionThreshold = 1.0)
+        )
+        val (id, checkpoint) = newCheckpoint()
+        val serializedFlowState = checkpoint.serializeFlowState()
+        database.transaction {
+            deltaCheckpointStorage.addCheckpoint(id, checkpoint, serializedFlowState, checkpoint.serializeCheckpointState())
+        }
+        val updatedCheckpoint = checkpoint.copy(
+            checkpointState = checkpoint.checkpointState.copy(numberOfSuspends = 20),
+            progressStep = "I have made progress"
+        )
+        database.transaction {
+            deltaCheckpointStorage.updateCheckpoint(id, updatedCheckpoint, serializedFlowState, updatedCheckpoint.serializeCheckpointState())
+        }
+        database.transaction {
+            val blob = session.get(DBCheckpointStorage.DBFlowCheckpointBlob::class.java, id.uuid.toString())
+            assertNotNull(blob.checkpointDelta)
+            assertNotNull(blob.flowStackDelta)
+            assertEquals(
+                updatedCheckpoint,
+                deltaCheckpointStorage.checkpoints().single().deserialize()
+            )
+        }
+        assertThat(recordedDeltas).hasSize(1)
+        assertThat(recordedDeltas.single().second).isLessThan(recordedDeltas.single().first)
+    }
+
     @Test(timeout = 300_000)
     fun `update a checkpoint to completed`() {
         val (id, checkpoint) = newCheckpoint()
@@ -34,6 +34,7 @@ import net.corda.testing.internal.configureDatabase
 import net.corda.testing.internal.createWireTransaction
 import net.corda.testing.node.MockServices.Companion.makeTestDataSourceProperties
 import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.entry
 import org.junit.After
 import org.junit.Assert
 import org.junit.Before
@@ -368,6 +369,22 @@ class DBTransactionStorageTests {
         assertThat(transactionStorage.transactions).containsExactly(transaction)
     }
 
+    @Test(timeout = 300_000)
+    fun `verified transactions are loaded together`() {
+        val cachedTransaction = newTransaction()
+        val storedTransaction = newTransaction()
+        val unverifiedTransaction = newTransaction()
+        transactionStorage.addTransaction(storedTransaction)
+        transactionStorage.addUnverifiedTransaction(unverifiedTransaction)
+        newTransactionStorage()
+        transactionStorage.addTransaction(cachedTransaction)
+        val ids = listOf(cachedTransaction.id, storedTransaction.id, unverifiedTransaction.id, SecureHash.randomSHA256())
+        val loaded = transactionStorage.getTransactions(ids)
+        assertThat(loaded).containsOnly(entry(cachedTransaction.id, cachedTransaction), entry(storedTransaction.id, storedTransaction))
+        assertThat(transactionStorage.getTransactions(ids)).isEqualTo(loaded)
+        assertTransactionIsRetrievable(storedTransaction)
+    }
+
     @Test(timeout = 300_000)
     fun `two transactions across restart`() {
         val firstTransaction = newTransaction()
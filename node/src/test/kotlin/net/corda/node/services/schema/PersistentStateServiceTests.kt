@@ -1,5 +1,6 @@
 package net.corda.node.services.schema
 
+import com.codahale.metrics.MetricRegistry
 import net.corda.core.contracts.*
 import net.corda.core.crypto.SecureHash
 import net.corda.core.identity.AbstractParty
@@ -81,4 +82,37 @@ class PersistentStateServiceTests {
 
         database.close()
     }
+
+    @Test(timeout=300_000)
+	fun `states mapped in parallel are all persisted`() {
+        val testSchema = TestSchema
+        val schemaService = object : SchemaService {
+            override val schemas: Set<MappedSchema> = setOf(testSchema)
+
+            override fun selectSchemas(state: ContractState): Iterable<MappedSchema> = setOf(testSchema)
+
+            override fun generateMappedObject(state: ContractState, schema: MappedSchema): PersistentState = TestSchema.Parent()
+        }
+        val database = configureDatabase(makeTestDataSourceProperties(), DatabaseConfig(), rigorousMock(), rigorousMock(), schemaService)
+        val metrics = MetricRegistry()
+        val persistentStateService = PersistentStateService(schemaService, metrics, mappingParallelism = 4)
+        val notary = TestIdentity(CordaX500Name("MegaCorp", "London", "GB")).party
+        val txId = SecureHash.sha256("dummy")
+        val states = (0 until 100).map {
+            StateAndRef(TransactionState(TestState(), DummyContract.PROGRAM_ID, notary, constraint = AlwaysAcceptAttachmentConstraint), StateRef(txId, it))
+        }
+        database.transaction {
+            persistentStateService.persist(states.toSet())
+            currentDBSession().flush()
+            val parentRowCountResult = connection.prepareStatement("select count(*) from Parents").executeQuery()
+            parentRowCountResult.next()
+            val parentRows = parentRowCountResult.getInt(1)
+            parentRowCountResult.close()
+            assertEquals(100, parentRows, "Expected a parent for each state")
+        }
+        assertEquals(1, metrics.histogram("Vault.MappedStates.RowsPerWrite").count)
+
+        persistentStateService.close()
+        database.close()
+    }
 }
\ No newline at end of file
@@ -0,0 +1,76 @@
+package net.corda.node.services.statemachine
+
+import com.codahale.metrics.MetricRegistry
+import net.corda.core.utilities.getOrThrow
+import net.corda.core.utilities.seconds
+import net.corda.node.services.config.CheckpointGroupCommitConfiguration
+import net.corda.nodeapi.internal.persistence.CordaPersistence
+import net.corda.nodeapi.internal.persistence.DatabaseConfig
+import net.corda.nodeapi.internal.persistence.DatabaseTransaction
+import net.corda.nodeapi.internal.persistence.contextTransaction
+import net.corda.testing.internal.configureDatabase
+import net.corda.testing.node.MockServices.Companion.makeTestDataSourceProperties
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
+
+class CheckpointGroupCommitterTest {
+    private lateinit var database: CordaPersistence
+    private lateinit var metrics: MetricRegistry
+
+    @Before
+    fun setUp() {
+        database = configureDatabase(makeTestDataSourceProperties(), DatabaseConfig(), { null }, { null })
+        metrics = MetricRegistry()
+    }
+
+    @After
+    fun cleanUp() {
+        database.close()
+    }
+
+    @Test(timeout = 300_000)
+    fun `concurrent writes are committed in the same transaction`() {
+        CheckpointGroupCommitter(database, CheckpointGroupCommitConfiguration(maxBatchSize = 4, maxDelay = 30.seconds), metrics).use { committer ->
+            val transactions = ConcurrentHashMap.newKeySet<DatabaseTransaction>()
+            // The writes are handed over without waiting for them to commit, so a single thread can fill a group.
+            val commits = (1..4).map {
+                committer.commit { transactions += contextTransaction }
+            }
+            commits.forEach { it.getOrThrow(10.seconds) }
+            assertThat(transactions).hasSize(1)
+            assertThat(metrics.histogram("Flows.CheckpointGroupCommit.GroupSize").snapshot.max).isEqualTo(4L)
+        }
+    }
+
+    @Test(timeout = 300_000)
+    fun `failed write only fails its own commit`() {
+        CheckpointGroupCommitter(database, CheckpointGroupCommitConfiguration(maxBatchSize = 2, maxDelay = 30.seconds), metrics).use { committer ->
+            val good = committer.commit { contextTransaction }
+            val bad = committer.commit { throw IllegalStateException("Bad checkpoint") }
+            good.getOrThrow(10.seconds)
+            assertThatThrownBy { bad.getOrThrow(10.seconds) }.isInstanceOf(IllegalStateException::class.java)
+            assertThat(metrics.counter("Flows.CheckpointGroupCommit.FailedGroups").count).isEqualTo(1L)
+        }
+    }
+
+    @Test(timeout = 300_000)
+    fun `close fails the writes of a group which is still being collected`() {
+        val committer = CheckpointGroupCommitter(database, CheckpointGroupCommitConfiguration(maxBatchSize = 4, maxDelay = 30.seconds), metrics)
+        val written = AtomicBoolean()
+        val commit = committer.commit { written.set(true) }
+        // Wait for the committer to take the write off the queue, after which it waits for the rest of the group.
+        while (metrics.gauges["Flows.CheckpointGroupCommit.QueueDepth"]!!.value != 0) {
+            Thread.sleep(1)
+        }
+        committer.close()
+
+        assertThatThrownBy { commit.getOrThrow(10.seconds) }.isInstanceOf(IllegalStateException::class.java)
+        assertThat(written).isFalse()
+        assertThatThrownBy { committer.commit {} }.isInstanceOf(IllegalStateException::class.java)
+    }
+}
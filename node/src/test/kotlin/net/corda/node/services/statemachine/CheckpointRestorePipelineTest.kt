@@ -0,0 +1,62 @@
+package net.corda.node.services.statemachine
+
+import com.codahale.metrics.MetricRegistry
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.junit.Test
+import java.util.concurrent.ConcurrentHashMap
+
+class CheckpointRestorePipelineTest {
+    private val metrics = MetricRegistry()
+
+    @Test(timeout = 300_000)
+    fun `results are consumed in submission order`() {
+        val consumed = mutableListOf<Int>()
+        val consumerThreads = mutableSetOf<Thread>()
+        val taskThreads = ConcurrentHashMap.newKeySet<Thread>()
+        CheckpointRestorePipeline<Int>(4, metrics) {
+            consumed += it
+            consumerThreads += Thread.currentThread()
+        }.use { pipeline ->
+            (1..100).forEach { i ->
+                pipeline.submit {
+                    taskThreads += Thread.currentThread()
+                    Thread.sleep((100 - i) % 5L)
+                    i.takeIf { it % 10 != 0 }
+                }
+            }
+            pipeline.finish()
+        }
+        assertThat(consumed).isEqualTo((1..100).filter { it % 10 != 0 })
+        assertThat(consumerThreads).containsExactly(Thread.currentThread())
+        assertThat(taskThreads).doesNotContain(Thread.currentThread())
+        assertThat(metrics.counter("Flows.Restore.Restored").count).isEqualTo(90L)
+        assertThat(metrics.counter("Flows.Restore.Failed").count).isEqualTo(10L)
+    }
+
+    @Test(timeout = 300_000)
+    fun `single threaded pipeline restores on the submitting thread`() {
+        val taskThreads = mutableSetOf<Thread>()
+        CheckpointRestorePipeline<Int>(1, metrics) {}.use { pipeline ->
+            (1..10).forEach { i ->
+                pipeline.submit {
+                    taskThreads += Thread.currentThread()
+                    i
+                }
+            }
+            pipeline.finish()
+        }
+        assertThat(taskThreads).containsExactly(Thread.currentThread())
+        assertThat(metrics.counter("Flows.Restore.Restored").count).isEqualTo(10L)
+    }
+
+    @Test(timeout = 300_000)
+    fun `exception thrown by a restore task is rethrown`() {
+        CheckpointRestorePipeline<Int>(2, metrics) {}.use { pipeline ->
+            pipeline.submit { throw IllegalStateException("Bad checkpoint") }
+            assertThatThrownBy { pipeline.finish() }
+                    .isInstanceOf(IllegalStateException::class.java)
+                    .hasMessage("Bad checkpoint")
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package net.corda.node.services.statemachine
 
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.whenever
 import net.corda.core.crypto.random63BitValue
 import net.corda.core.flows.FlowLogic
 import net.corda.core.utilities.getOrThrow
@@ -67,6 +69,28 @@ class FlowFrameworkPersistenceTests {
         assertThat(restoredFlow.flowStarted).isTrue()
     }
 
+    @Test(timeout=300_000)
+	fun `flows are restored by several threads and their compatibility is updated`() {
+        repeat(10) { aliceNode.services.startFlow(NoOpFlow(nonTerminating = true)) }
+        val incompatibleId = aliceNode.services.startFlow(NoOpFlow(nonTerminating = true)).id
+        aliceNode.database.transaction {
+            aliceNode.internals.checkpointStorage.updateCompatible(incompatibleId, false)
+        }
+        aliceNode.internals.acceptableLiveFiberCountOnStop = 11
+
+        val newNode = mockNet.restartNode(aliceNode, InternalMockNodeParameters(configOverrides = {
+            doReturn(4).whenever(it).checkpointRestoreParallelism
+        }))
+        newNode.internals.acceptableLiveFiberCountOnStop = 11
+        mockNet.runNetwork()
+
+        assertThat(newNode.smm.allStateMachines.filterIsInstance<NoOpFlow>()).hasSize(11).allMatch { it.flowStarted }
+        // The flag is written by the restoring thread's transaction, not by the thread which deserialized the checkpoint.
+        newNode.database.transaction {
+            assertTrue(newNode.internals.checkpointStorage.getCheckpoint(incompatibleId)!!.compatible)
+        }
+    }
+
     @Test(timeout=300_000)
 	fun `flow restarted just after receiving payload`() {
         val bob = bobNode.info.singleIdentity()
@@ -0,0 +1,80 @@
+package net.corda.node.services.statemachine
+
+import net.corda.core.flows.StateMachineRunId
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.junit.After
+import org.junit.Test
+import java.util.UUID
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class ShardedStateMachineInnerStateTest {
+    private val innerState = ShardedStateMachineInnerState(2)
+    private val executor = Executors.newSingleThreadExecutor()
+    // These ids hash to different shards
+    private val firstShardId = StateMachineRunId(UUID(0, 0))
+    private val secondShardId = StateMachineRunId(UUID(0, 1))
+
+    @After
+    fun cleanUp() {
+        executor.shutdownNow()
+    }
+
+    @Test(timeout = 300_000)
+    fun `flows in different shards can be updated concurrently`() {
+        holdShardLock(firstShardId) {
+            val updated = executor.submit {
+                innerState.withShardLock(secondShardId) { startedFutures.remove(secondShardId) }
+            }
+            updated.get(10, TimeUnit.SECONDS)
+        }
+    }
+
+    @Test(timeout = 300_000)
+    fun `exclusive lock waits for shard locks to be released`() {
+        holdShardLock(firstShardId) {
+            val lockedWhileShardHeld = executor.submit<Boolean> {
+                innerState.lock.tryLock().also { if (it) innerState.lock.unlock() }
+            }
+            assertThat(lockedWhileShardHeld.get(10, TimeUnit.SECONDS)).isFalse()
+        }
+        assertThat(innerState.lock.tryLock()).isTrue()
+        innerState.lock.unlock()
+    }
+
+    @Test(timeout = 300_000)
+    fun `exclusive lock cannot be taken while holding a shard lock`() {
+        innerState.withShardLock(firstShardId) {
+            assertThatThrownBy { innerState.withMutex { } }.isInstanceOf(IllegalStateException::class.java)
+        }
+    }
+
+    @Test(timeout = 300_000)
+    fun `shard lock can be taken while holding the exclusive lock`() {
+        val flowCount = innerState.withMutex {
+            innerState.withShardLock(firstShardId) { flows.size }
+        }
+        assertThat(flowCount).isEqualTo(0)
+    }
+
+    private fun holdShardLock(id: StateMachineRunId, block: () -> Unit) {
+        val locked = CountDownLatch(1)
+        val release = CountDownLatch(1)
+        val holder = Thread {
+            innerState.withShardLock(id) {
+                locked.countDown()
+                release.await()
+            }
+        }
+        holder.start()
+        try {
+            locked.await()
+            block()
+        } finally {
+            release.countDown()
+            holder.join()
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package net.corda.node.services.statemachine
+
+import co.paralleluniverse.fibers.Suspendable
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.whenever
+import net.corda.core.flows.FlowLogic
+import net.corda.core.internal.concurrent.openFuture
+import net.corda.core.utilities.Try
+import net.corda.core.utilities.getOrThrow
+import net.corda.core.utilities.seconds
+import net.corda.testing.node.internal.InternalMockNetwork
+import net.corda.testing.node.internal.InternalMockNodeParameters
+import net.corda.testing.node.internal.TestStartedNode
+import net.corda.testing.node.internal.startFlow
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+class ShardedStateMachineManagerTest {
+    private lateinit var mockNet: InternalMockNetwork
+    private lateinit var node: TestStartedNode
+
+    @Before
+    fun start() {
+        mockNet = InternalMockNetwork(threadPerNode = true)
+        node = mockNet.createNode(InternalMockNodeParameters(configOverrides = {
+            doReturn(4).whenever(it).stateMachineShards
+        }))
+    }
+
+    @After
+    fun cleanUp() {
+        mockNet.stopNodes()
+    }
+
+    @Test(timeout=300_000)
+	fun `callbacks of a finishing flow can call back into the state machine`() {
+        val changeCallback = openFuture<Try<Int>>()
+        node.smm.changes.filter { it is StateMachineManager.Change.Removed }.first().subscribe {
+            changeCallback.set(Try.on { node.smm.track().snapshot.size })
+        }
+        val flow = node.services.startFlow(SleepingFlow())
+        val resultCallback = openFuture<Try<Int>>()
+        flow.resultFuture.then { resultCallback.set(Try.on { node.smm.allStateMachines.size }) }
+
+        assertThat(flow.resultFuture.getOrThrow()).isEqualTo("done")
+        // Neither callback may be run while the flow's shard lock is held, as the state machine lock can't then be taken.
+        assertThat(changeCallback.getOrThrow().getOrThrow()).isEqualTo(0)
+        assertThat(resultCallback.getOrThrow().getOrThrow()).isEqualTo(0)
+    }
+
+    private class SleepingFlow : FlowLogic<String>() {
+        @Suspendable
+        override fun call(): String {
+            // Give the test time to register its callback on the result before the flow finishes.
+            sleep(1.seconds)
+            return "done"
+        }
+    }
+}
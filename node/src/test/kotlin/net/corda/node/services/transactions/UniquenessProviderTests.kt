@@ -61,10 +61,21 @@ class UniquenessProviderTests(
         @Parameterized.Parameters
         fun data(): Collection<Array<Any>> = listOf(
             arrayOf(JPAUniquenessProviderFactory(DigestService.sha2_256), DigestService.sha2_256),
+            arrayOf(partitionedJPAUniquenessProviderFactory(), DigestService.sha2_256),
+            arrayOf(cachingJPAUniquenessProviderFactory(), DigestService.sha2_256),
             arrayOf(RaftUniquenessProviderFactory(), DigestService.sha2_256)
 //            arrayOf(JPAUniquenessProviderFactory(DigestService.sha2_512), DigestService.sha2_512),
 //            arrayOf(RaftUniquenessProviderFactory(), DigestService.sha2_512)
         )
+
+        private fun partitionedJPAUniquenessProviderFactory(): JPAUniquenessProviderFactory {
+            return JPAUniquenessProviderFactory(DigestService.sha2_256, JPANotaryConfiguration(maxInputStates = 10, partitions = 4))
+        }
+
+        private fun cachingJPAUniquenessProviderFactory(): JPAUniquenessProviderFactory {
+            val notaryConfig = JPANotaryConfiguration(maxInputStates = 10, committedStatesCacheSize = 100, committedStatesFilterSize = 100)
+            return JPAUniquenessProviderFactory(DigestService.sha2_256, notaryConfig)
+        }
     }
 
     @Rule
@@ -644,24 +655,29 @@ class RaftUniquenessProviderFactory : UniquenessProviderFactory {
 }
 
 
-class JPAUniquenessProviderFactory(val digestService: DigestService) : UniquenessProviderFactory {
+class JPAUniquenessProviderFactory(
+        val digestService: DigestService,
+        private val notaryConfig: JPANotaryConfiguration = JPANotaryConfiguration(maxInputStates = 10)
+) : UniquenessProviderFactory {
     private var database: CordaPersistence? = null
-    private val notaryConfig = JPANotaryConfiguration(maxInputStates = 10)
+    private var provider: JPAUniquenessProvider? = null
     private val notaryWorkerName = CordaX500Name.parse("CN=NotaryWorker, O=Corda, L=London, C=GB")
 
     override fun create(clock: Clock): UniquenessProvider {
         database?.close()
         database = configureDatabase(makeTestDataSourceProperties(), DatabaseConfig(), { null }, { null }, NodeSchemaService(extraSchemas = setOf(JPANotarySchemaV1)))
+        provider?.stop()
         return JPAUniquenessProvider(
                 clock,
                 database!!,
                 notaryConfig,
                 notaryWorkerName,
                 ::signBatch
-        )
+        ).apply { provider = this }
     }
 
     override fun cleanUp() {
+        provider?.stop()
         database?.close()
     }
 
@@ -19,6 +19,7 @@ import net.corda.core.node.services.vault.QueryCriteria
 import net.corda.core.node.services.vault.QueryCriteria.*
 import net.corda.core.transactions.SignedTransaction
 import net.corda.core.transactions.TransactionBuilder
+import net.corda.core.transactions.WireTransaction
 import net.corda.core.utilities.NonEmptySet
 import net.corda.core.utilities.OpaqueBytes
 import net.corda.core.utilities.getOrThrow
@@ -31,6 +32,7 @@ import net.corda.finance.workflows.asset.CashUtils
 import net.corda.finance.workflows.getCashBalance
 import net.corda.node.services.api.WritableTransactionStorage
 import net.corda.nodeapi.internal.persistence.CordaPersistence
+import net.corda.nodeapi.internal.persistence.currentDBSession
 import net.corda.testing.common.internal.testNetworkParameters
 import net.corda.testing.contracts.DummyContract
 import net.corda.testing.contracts.DummyState
@@ -52,6 +54,7 @@ import java.util.concurrent.Executors
 import javax.persistence.PersistenceException
 import kotlin.test.assertEquals
 import kotlin.test.assertFalse
+import kotlin.test.assertNull
 import kotlin.test.assertTrue
 
 class NodeVaultServiceTest {
@@ -172,6 +175,17 @@ class NodeVaultServiceTest {
         }
     }
 
+    @Test(timeout=300_000)
+	fun `recording states restores the session's JDBC batch size`() {
+        database.transaction {
+            vaultFiller.fillWithSomeTestCash(100.DOLLARS, issuerServices, 3, DUMMY_CASH_ISSUER)
+            assertNull(currentDBSession().jdbcBatchSize)
+            currentDBSession().jdbcBatchSize = 7
+            vaultFiller.fillWithSomeTestCash(100.DOLLARS, issuerServices, 3, DUMMY_CASH_ISSUER)
+            assertEquals(7, currentDBSession().jdbcBatchSize)
+        }
+    }
+
     @Test(timeout=300_000)
 	fun `can query with page size max-integer`() {
         database.transaction {
@@ -680,6 +694,84 @@ class NodeVaultServiceTest {
         assertEquals(observedUpdates, listOf(expectedIssueUpdate, expectedMoveUpdate))
     }
 
+    @Test(timeout=300_000)
+	fun `consuming many states marks them all consumed and releases their soft locks`() {
+        database.transaction {
+            vaultFiller.fillWithSomeTestCash(100.DOLLARS, issuerServices, 50, DUMMY_CASH_ISSUER)
+        }
+        val lockId = UUID.randomUUID()
+        val cashStates = database.transaction {
+            val states = vaultService.queryBy<Cash.State>(PageSpecification(1, 100)).states
+            vaultService.softLockReserve(lockId, states.take(10).map { it.ref }.toNonEmptySet())
+            states
+        }
+        assertThat(cashStates).hasSize(50)
+        val lockedRefs = cashStates.take(10).map { it.ref }.toSet()
+        val reservedTime = database.transaction {
+            val criteria = VaultQueryCriteria(softLockingCondition = SoftLockingCondition(SoftLockingType.SPECIFIED, listOf(lockId)))
+            vaultService.queryBy<Cash.State>(criteria).statesMetadata.map { it.lockUpdateTime!! }.distinct().single()
+        }
+
+        val moveTx = moveTransaction(cashStates)
+        database.transaction {
+            vaultService.notify(StatesToRecord.ONLY_RELEVANT, moveTx)
+        }
+
+        val consumed = database.transaction {
+            vaultService.queryBy<Cash.State>(VaultQueryCriteria(status = Vault.StateStatus.CONSUMED), PageSpecification(1, 100)).statesMetadata
+        }
+        assertThat(consumed).hasSize(50)
+        assertThat(consumed).allMatch { it.consumedTime != null && it.lockId == null && it.consumingTxId == moveTx.id.toString() }
+        // The soft locked states have their lock update time advanced to when they were consumed, and the others are left without one.
+        val (locked, unlocked) = consumed.partition { it.ref in lockedRefs }
+        assertThat(locked).hasSize(10)
+        assertThat(locked).allMatch { it.lockUpdateTime == it.consumedTime && !it.lockUpdateTime!!.isBefore(reservedTime) }
+        assertThat(unlocked).allMatch { it.lockUpdateTime == null }
+        database.transaction {
+            assertThat(vaultService.queryBy<Cash.State>().states).isEmpty()
+        }
+    }
+
+    @Test(timeout=300_000)
+	fun `recording a transaction which consumes an already consumed state leaves the state as first consumed`() {
+        database.transaction {
+            vaultFiller.fillWithSomeTestCash(100.DOLLARS, issuerServices, 5, DUMMY_CASH_ISSUER)
+        }
+        val cashStates = database.transaction { vaultService.queryBy<Cash.State>().states }
+        val firstTx = moveTransaction(cashStates)
+        database.transaction {
+            vaultService.notify(StatesToRecord.ONLY_RELEVANT, firstTx)
+        }
+        val firstConsumed = database.transaction { consumedMetadata(cashStates) }
+        assertThat(firstConsumed).hasSize(5)
+        assertThat(firstConsumed.values).allMatch { it.consumingTxId == firstTx.id.toString() }
+
+        val secondTx = moveTransaction(cashStates.take(1))
+        database.transaction {
+            vaultService.notify(StatesToRecord.ONLY_RELEVANT, secondTx)
+        }
+
+        val secondConsumed = database.transaction { consumedMetadata(cashStates) }
+        assertThat(secondTx.id).isNotEqualTo(firstTx.id)
+        assertThat(secondConsumed.mapValues { it.value.consumingTxId }).isEqualTo(firstConsumed.mapValues { it.value.consumingTxId })
+        assertThat(secondConsumed.mapValues { it.value.consumedTime }).isEqualTo(firstConsumed.mapValues { it.value.consumedTime })
+    }
+
+    private fun moveTransaction(cashStates: List<StateAndRef<Cash.State>>): WireTransaction {
+        return database.transaction {
+            TransactionBuilder(DUMMY_NOTARY).apply {
+                cashStates.forEach { addInputState(it) }
+                addOutputState(Cash.State(cashStates.map { it.state.data }.sumCash(), AnonymousParty(generateKeyPair().public)), Cash.PROGRAM_ID)
+                addCommand(Cash.Commands.Move(), MEGA_CORP_PUBKEY)
+            }.toWireTransaction(services)
+        }
+    }
+
+    private fun consumedMetadata(cashStates: List<StateAndRef<Cash.State>>): Map<StateRef, Vault.StateMetadata> {
+        val criteria = VaultQueryCriteria(status = Vault.StateStatus.CONSUMED, stateRefs = cashStates.map { it.ref })
+        return vaultService.queryBy<Cash.State>(criteria).statesMetadata.associateBy { it.ref }
+    }
+
     @Test(timeout=300_000)
 	fun `correct updates are generated when changing notaries`() {
         val service = vaultService
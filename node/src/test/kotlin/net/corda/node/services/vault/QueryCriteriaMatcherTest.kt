@@ -0,0 +1,200 @@
+package net.corda.node.services.vault
+
+import org.mockito.kotlin.any
+import org.mockito.kotlin.doAnswer
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.whenever
+import net.corda.core.contracts.AlwaysAcceptAttachmentConstraint
+import net.corda.core.contracts.Amount
+import net.corda.core.contracts.ContractState
+import net.corda.core.contracts.Issued
+import net.corda.core.contracts.StateAndRef
+import net.corda.core.contracts.StateRef
+import net.corda.core.contracts.TransactionState
+import net.corda.core.crypto.SecureHash
+import net.corda.core.crypto.generateKeyPair
+import net.corda.core.identity.AbstractParty
+import net.corda.core.identity.AnonymousParty
+import net.corda.core.identity.Party
+import net.corda.core.node.services.IdentityService
+import net.corda.core.node.services.vault.Builder
+import net.corda.core.node.services.vault.CriteriaExpression
+import net.corda.core.node.services.vault.QueryCriteria
+import net.corda.core.node.services.vault.QueryCriteria.FungibleAssetQueryCriteria
+import net.corda.core.node.services.vault.QueryCriteria.SoftLockingCondition
+import net.corda.core.node.services.vault.QueryCriteria.SoftLockingType
+import net.corda.core.node.services.vault.QueryCriteria.TimeCondition
+import net.corda.core.node.services.vault.QueryCriteria.TimeInstantType
+import net.corda.core.node.services.vault.QueryCriteria.VaultCustomQueryCriteria
+import net.corda.core.node.services.vault.QueryCriteria.VaultQueryCriteria
+import net.corda.core.node.services.vault.builder
+import net.corda.finance.DOLLARS
+import net.corda.finance.POUNDS
+import net.corda.finance.contracts.asset.Cash
+import net.corda.finance.issuedBy
+import net.corda.finance.schemas.CashSchemaV1
+import net.corda.node.services.schema.NodeSchemaService
+import net.corda.testing.core.ALICE_NAME
+import net.corda.testing.core.BOB_NAME
+import net.corda.testing.core.DUMMY_NOTARY_NAME
+import net.corda.testing.core.TestIdentity
+import org.junit.Test
+import java.time.Instant
+import java.util.Currency
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+/**
+ * The matcher may let through states a query would not select, but must never rule out one it would, so each case checks both a state
+ * the query selects and, where the criteria can be decided from the state, one it does not.
+ */
+class QueryCriteriaMatcherTest {
+    private val alice = TestIdentity(ALICE_NAME, 70).party
+    private val bob = TestIdentity(BOB_NAME, 80).party
+    private val notary = TestIdentity(DUMMY_NOTARY_NAME, 20).party
+    private val megaCorp = TestIdentity.fresh("MegaCorp").party
+    private val miniCorp = TestIdentity.fresh("MiniCorp").party
+    /** A confidential identity of Alice. */
+    private val aliceConfidential = AnonymousParty(generateKeyPair().public)
+    /** A party which the node cannot resolve to a well known identity. */
+    private val unknown = AnonymousParty(generateKeyPair().public)
+
+    private val identityService = mock<IdentityService>().also {
+        doAnswer { invocation ->
+            when (val party = invocation.arguments[0] as AbstractParty) {
+                is Party -> party
+                aliceConfidential -> alice
+                else -> null
+            }
+        }.whenever(it).wellKnownPartyFromAnonymous(any<AbstractParty>())
+    }
+    private val schemaService = NodeSchemaService(setOf(CashSchemaV1))
+
+    private val aliceDollars = cash(100.DOLLARS issuedBy megaCorp.ref(1), alice)
+    private val bobDollars = cash(10.DOLLARS issuedBy megaCorp.ref(1), bob)
+    private val alicePounds = cash(100.POUNDS issuedBy miniCorp.ref(1), alice)
+    private val confidentialDollars = cash(100.DOLLARS issuedBy megaCorp.ref(1), aliceConfidential)
+
+    @Test(timeout=300_000)
+	fun `fungible asset owner`() {
+        val criteria = FungibleAssetQueryCriteria(owner = listOf(alice))
+        assertTrue(matches(criteria, aliceDollars))
+        assertTrue(matches(criteria, confidentialDollars))
+        assertFalse(matches(criteria, bobDollars))
+    }
+
+    @Test(timeout=300_000)
+	fun `fungible asset quantity`() {
+        val criteria = FungibleAssetQueryCriteria(quantity = builder { greaterThan(5000L) })
+        assertTrue(matches(criteria, aliceDollars))
+        assertFalse(matches(criteria, bobDollars))
+    }
+
+    @Test(timeout=300_000)
+	fun `fungible asset issuer`() {
+        val criteria = FungibleAssetQueryCriteria(issuer = listOf(megaCorp))
+        assertTrue(matches(criteria, aliceDollars))
+        assertFalse(matches(criteria, alicePounds))
+    }
+
+    @Test(timeout=300_000)
+	fun `custom column equality`() {
+        assertTrue(matches(custom { CashSchemaV1.PersistentCashState::currency.equal("USD") }, aliceDollars))
+        assertFalse(matches(custom { CashSchemaV1.PersistentCashState::currency.equal("USD") }, alicePounds))
+        assertTrue(matches(custom { CashSchemaV1.PersistentCashState::currency.notEqual("USD") }, alicePounds))
+        assertTrue(matches(custom { CashSchemaV1.PersistentCashState::currency.equal("usd", exactMatch = false) }, aliceDollars))
+    }
+
+    @Test(timeout=300_000)
+	fun `custom column equality which only differs by case is unknown`() {
+        // Whether these match depends on the database's collation, so neither may filter the state.
+        assertTrue(matches(custom { CashSchemaV1.PersistentCashState::currency.equal("usd") }, aliceDollars))
+        assertTrue(matches(custom { CashSchemaV1.PersistentCashState::currency.notEqual("usd") }, aliceDollars))
+    }
+
+    @Test(timeout=300_000)
+	fun `custom column likeness`() {
+        assertTrue(matches(custom { CashSchemaV1.PersistentCashState::currency.like("US%") }, aliceDollars))
+        assertFalse(matches(custom { CashSchemaV1.PersistentCashState::currency.like("US%") }, alicePounds))
+        assertTrue(matches(custom { CashSchemaV1.PersistentCashState::currency.notLike("US%") }, alicePounds))
+        assertTrue(matches(custom { CashSchemaV1.PersistentCashState::currency.like("u_d", exactMatch = false) }, aliceDollars))
+    }
+
+    @Test(timeout=300_000)
+	fun `custom column likeness which only differs by case is unknown`() {
+        assertTrue(matches(custom { CashSchemaV1.PersistentCashState::currency.like("us%") }, aliceDollars))
+        assertTrue(matches(custom { CashSchemaV1.PersistentCashState::currency.notLike("us%") }, aliceDollars))
+    }
+
+    @Test(timeout=300_000)
+	fun `custom column in collection`() {
+        assertTrue(matches(custom { CashSchemaV1.PersistentCashState::currency.`in`(listOf("EUR", "USD")) }, aliceDollars))
+        assertFalse(matches(custom { CashSchemaV1.PersistentCashState::currency.`in`(listOf("EUR", "USD")) }, alicePounds))
+        assertTrue(matches(custom { CashSchemaV1.PersistentCashState::currency.notIn(listOf("EUR", "USD")) }, alicePounds))
+        assertTrue(matches(custom { CashSchemaV1.PersistentCashState::currency.`in`(listOf("eur", "usd"), exactMatch = false) }, aliceDollars))
+    }
+
+    @Test(timeout=300_000)
+	fun `custom column in collection which only differs by case is unknown`() {
+        assertTrue(matches(custom { CashSchemaV1.PersistentCashState::currency.`in`(listOf("EUR", "usd")) }, aliceDollars))
+        assertTrue(matches(custom { CashSchemaV1.PersistentCashState::currency.notIn(listOf("EUR", "usd")) }, aliceDollars))
+        // A definite match decides the collection whatever the other elements are.
+        assertFalse(matches(custom { CashSchemaV1.PersistentCashState::currency.notIn(listOf("usd", "USD")) }, aliceDollars))
+    }
+
+    @Test(timeout=300_000)
+	fun `participants`() {
+        val criteria = VaultQueryCriteria(participants = listOf(alice))
+        assertTrue(matches(criteria, aliceDollars))
+        assertTrue(matches(criteria, confidentialDollars))
+        assertFalse(matches(criteria, bobDollars))
+    }
+
+    @Test(timeout=300_000)
+	fun `participants of a composite criteria apply to the whole criteria`() {
+        val criteria = VaultQueryCriteria(participants = listOf(alice)).and(FungibleAssetQueryCriteria(issuer = listOf(megaCorp)))
+        assertTrue(matches(criteria, aliceDollars))
+        assertFalse(matches(criteria, bobDollars))
+        assertFalse(matches(criteria, alicePounds))
+    }
+
+    @Test(timeout=300_000)
+	fun `exact participants`() {
+        assertTrue(matches(VaultQueryCriteria(exactParticipants = listOf(alice)), aliceDollars))
+        assertTrue(matches(VaultQueryCriteria(exactParticipants = listOf(alice)), confidentialDollars))
+        assertFalse(matches(VaultQueryCriteria(exactParticipants = listOf(bob)), aliceDollars))
+        assertFalse(matches(VaultQueryCriteria(exactParticipants = listOf(alice, bob)), aliceDollars))
+    }
+
+    @Test(timeout=300_000)
+	fun `exact participants which cannot be resolved are unknown`() {
+        assertTrue(matches(VaultQueryCriteria(exactParticipants = listOf(unknown)), aliceDollars))
+    }
+
+    @Test(timeout=300_000)
+	fun `soft locking condition does not filter`() {
+        val lockedOnly = VaultQueryCriteria(softLockingCondition = SoftLockingCondition(SoftLockingType.LOCKED_ONLY))
+        val unlockedOnly = VaultQueryCriteria(softLockingCondition = SoftLockingCondition(SoftLockingType.UNLOCKED_ONLY))
+        assertTrue(matches(lockedOnly, aliceDollars))
+        assertTrue(matches(unlockedOnly, aliceDollars))
+    }
+
+    @Test(timeout=300_000)
+	fun `time condition does not filter`() {
+        val past = builder { between(Instant.EPOCH, Instant.EPOCH.plusSeconds(1)) }
+        assertTrue(matches(VaultQueryCriteria(timeCondition = TimeCondition(TimeInstantType.RECORDED, past)), aliceDollars))
+        assertTrue(matches(VaultQueryCriteria(timeCondition = TimeCondition(TimeInstantType.CONSUMED, past)), aliceDollars))
+    }
+
+    private fun custom(expression: Builder.() -> CriteriaExpression<CashSchemaV1.PersistentCashState, Boolean>) =
+            VaultCustomQueryCriteria(builder(expression))
+
+    private fun matches(criteria: QueryCriteria, stateAndRef: StateAndRef<ContractState>): Boolean {
+        return QueryCriteriaMatcher(criteria, identityService, schemaService).matches(stateAndRef)
+    }
+
+    private fun cash(amount: Amount<Issued<Currency>>, owner: AbstractParty): StateAndRef<ContractState> {
+        val state = TransactionState(Cash.State(amount, owner), Cash.PROGRAM_ID, notary, constraint = AlwaysAcceptAttachmentConstraint)
+        return StateAndRef(state, StateRef(SecureHash.randomSHA256(), 0))
+    }
+}
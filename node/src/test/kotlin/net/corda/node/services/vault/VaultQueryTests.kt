@@ -54,6 +54,7 @@ import java.time.LocalDate
 import java.time.ZoneOffset
 import java.time.temporal.ChronoUnit
 import java.util.*
+import java.util.stream.Collectors
 
 interface VaultQueryParties {
     val alice: TestIdentity
@@ -1824,6 +1825,56 @@ abstract class VaultQueryTestsBase : VaultQueryParties {
         }
     }
 
+    @Test(timeout = 300_000)
+    fun `pages requested after the previous page's last state`() {
+        database.transaction {
+            vaultFiller.fillWithSomeTestCash(95.DOLLARS, notaryServices, 95, DUMMY_CASH_ISSUER)
+            val criteria = VaultQueryCriteria(status = Vault.StateStatus.ALL)
+            val stateRefOrder = Sort(listOf(Sort.SortColumn(SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF))))
+            val allStates = vaultService.queryBy<ContractState>(criteria, PageSpecification(DEFAULT_PAGE_NUM, 100), stateRefOrder).states
+
+            val states = mutableListOf<StateAndRef<ContractState>>()
+            var paging = PageSpecification(DEFAULT_PAGE_NUM, 10, skipTotalStateCount = true)
+            do {
+                val results = vaultService.queryBy<ContractState>(criteria, paging, stateRefOrder)
+                assertThat(results.previousPageAnchor).isEqualTo(states.lastOrNull()?.ref)
+                assertThat(results.totalStatesAvailable).isEqualTo(-1)
+                states += results.states
+                paging = paging.copy(afterStateRef = states.lastOrNull()?.ref)
+            } while (results.states.size == paging.pageSize)
+            assertThat(states).isEqualTo(allStates)
+
+            val nextPage = PageSpecification(pageSize = 10, afterStateRef = allStates[89].ref)
+            val results = vaultService.queryBy<ContractState>(criteria, nextPage)
+            assertThat(results.states).isEqualTo(allStates.takeLast(5))
+            assertThat(results.totalStatesAvailable).isEqualTo(95)
+
+            assertThrows<VaultQueryException> {
+                vaultService.queryBy<ContractState>(criteria, nextPage.copy(pageNumber = 2))
+            }
+            assertThrows<VaultQueryException> {
+                val sorting = Sort(listOf(Sort.SortColumn(SortAttribute.Standard(Sort.VaultStateAttribute.RECORDED_TIME))))
+                vaultService.queryBy<ContractState>(criteria, nextPage, sorting)
+            }
+        }
+    }
+
+    @Test(timeout = 300_000)
+    fun `streaming query returns all states beyond the default page size`() {
+        database.transaction {
+            vaultFiller.fillWithSomeTestCash(450.DOLLARS, notaryServices, 450, DUMMY_CASH_ISSUER)
+            val criteria = VaultQueryCriteria(status = Vault.StateStatus.ALL)
+            val sorting = Sort(listOf(Sort.SortColumn(SortAttribute.Standard(Sort.CommonStateAttribute.STATE_REF))))
+            val allStates = vaultService.queryBy<ContractState>(criteria, PageSpecification(DEFAULT_PAGE_NUM, 500), sorting).states
+
+            val streamedStates = vaultService.streamBy<ContractState>(criteria, sorting).use { stream ->
+                stream.collect(Collectors.toList())
+            }
+            assertThat(streamedStates).isEqualTo(allStates)
+            assertThat(vaultService.streamBy<Cash.State>(criteria).use { it.count() }).isEqualTo(450L)
+        }
+    }
+
     // test paging with aggregate function and group by clause
     @Test(timeout=300_000)
 	fun `test paging with aggregate function and group by clause`() {
@@ -3088,6 +3139,33 @@ class VaultQueryTests : VaultQueryTestsBase(), VaultQueryParties by delegate {
         }
     }
 
+    @Test(timeout=300_000)
+	fun `track by only returns updates matching the criteria`() {
+        val updates = database.transaction {
+            val criteria = LinearStateQueryCriteria(externalId = listOf("TRACKED"))
+            val (snapshot, updates) = vaultService.trackBy<LinearState>(criteria)
+            assertThat(snapshot.states).hasSize(0)
+
+            vaultFiller.fillWithSomeTestLinearStates(5)
+            vaultFiller.fillWithSomeTestLinearStates(2, externalId = "TRACKED")
+            vaultFiller.fillWithSomeTestLinearStates(3, externalId = "UNTRACKED")
+            this.session.flush()
+
+            updates
+        }
+
+        updates.expectEvents {
+            sequence(
+                    expect { (consumed, produced, flowId) ->
+                        require(flowId == null) {}
+                        require(consumed.isEmpty()) {}
+                        require(produced.size == 2) {}
+                        require(produced.all { it.state.data.linearId.externalId == "TRACKED" }) {}
+                    }
+            )
+        }
+    }
+
     @Test(timeout=300_000)
 	fun trackDealStates() {
         val updates = database.transaction {
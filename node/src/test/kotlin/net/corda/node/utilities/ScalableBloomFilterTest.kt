@@ -0,0 +1,27 @@
+package net.corda.node.utilities
+
+import com.google.common.hash.Funnels
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+import java.nio.charset.StandardCharsets
+
+class ScalableBloomFilterTest {
+    private val filter = ScalableBloomFilter<CharSequence>(Funnels.stringFunnel(StandardCharsets.UTF_8), 1000, 0.01)
+
+    @Test(timeout = 300_000)
+    fun `inserted elements are always found`() {
+        val elements = (1..5000).map { "inserted-$it" }
+        elements.forEach(filter::put)
+
+        assertThat(elements).allMatch(filter::mightContain)
+        assertThat(filter.filterCount).isEqualTo(5)
+    }
+
+    @Test(timeout = 300_000)
+    fun `false positive rate stays within the configured probability as the filter grows`() {
+        (1..5000).forEach { filter.put("inserted-$it") }
+
+        val falsePositives = (1..100_000).count { filter.mightContain("new-$it") }
+        assertThat(falsePositives).isLessThan(1500)
+    }
+}
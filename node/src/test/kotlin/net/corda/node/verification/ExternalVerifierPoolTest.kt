@@ -0,0 +1,113 @@
+package net.corda.node.verification
+
+import net.corda.core.utilities.getOrThrow
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatIllegalStateException
+import org.junit.After
+import org.junit.Test
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class ExternalVerifierPoolTest {
+    private class TestVerifier(val index: Int) {
+        @Volatile
+        var isRunning = false
+        val inUse = AtomicInteger(0)
+    }
+
+    private val verifiers = List(3) { TestVerifier(it) }
+    private val pool = ExternalVerifierPool(verifiers) { it.isRunning }
+    private val executor = Executors.newFixedThreadPool(8)
+
+    @After
+    fun cleanUp() {
+        pool.close()
+        executor.shutdownNow()
+    }
+
+    @Test(timeout=300_000)
+	fun `a verifier is only held by one caller at a time when borrowed and returned concurrently`() {
+        val requests = (1..1000).map {
+            CompletableFuture.runAsync({
+                val verifier = pool.acquire()
+                try {
+                    check(verifier.inUse.incrementAndGet() == 1) { "Verifier ${verifier.index} is already in use" }
+                    verifier.isRunning = true
+                    Thread.yield()
+                    verifier.inUse.decrementAndGet()
+                } finally {
+                    pool.release(verifier)
+                }
+            }, executor)
+        }
+        CompletableFuture.allOf(*requests.toTypedArray()).getOrThrow()
+
+        assertThat(verifiers).allMatch { it.inUse.get() == 0 }
+        assertThat(pool.idleVerifiers).isEqualTo(verifiers.size)
+        assertThat(pool.waitingRequests).isEqualTo(0)
+    }
+
+    @Test(timeout=300_000)
+	fun `callers wait for a verifier to be returned when they are all busy`() {
+        val borrowed = verifiers.map { pool.acquire() }
+        val waiter = CompletableFuture.supplyAsync({ pool.acquire() }, executor)
+        awaitWaitingRequests(1)
+        assertThat(waiter).isNotDone
+
+        pool.release(borrowed[1])
+        assertThat(waiter.get(5, TimeUnit.SECONDS)).isSameAs(borrowed[1])
+        assertThat(pool.waitingRequests).isEqualTo(0)
+    }
+
+    @Test(timeout=300_000)
+	fun `running verifiers are preferred over one which has broken`() {
+        val broken = pool.acquire()
+        val running = pool.acquire()
+        running.isRunning = true
+        // The broken verifier's process has exited, so it goes behind the idle verifiers which haven't started one.
+        pool.release(broken)
+        pool.release(running)
+
+        assertThat(pool.acquire()).isSameAs(running)
+        assertThat(pool.acquire()).isSameAs(verifiers[2])
+        // The broken verifier isn't lost, and is handed out to start a new process once it's needed.
+        assertThat(pool.acquire()).isSameAs(broken)
+    }
+
+    @Test(timeout=300_000)
+	fun `a broken verifier is handed to a waiting caller to be restarted`() {
+        val borrowed = verifiers.map { pool.acquire() }
+        borrowed.forEach { it.isRunning = true }
+        val waiter = CompletableFuture.supplyAsync({ pool.acquire() }, executor)
+        awaitWaitingRequests(1)
+
+        val broken = borrowed[0]
+        broken.isRunning = false
+        pool.release(broken)
+
+        assertThat(waiter.get(5, TimeUnit.SECONDS)).isSameAs(broken)
+    }
+
+    @Test(timeout=300_000)
+	fun `closing the pool fails the callers waiting for a verifier`() {
+        repeat(verifiers.size) { pool.acquire() }
+        val waiters = List(2) { CompletableFuture.supplyAsync({ pool.acquire() }, executor) }
+        awaitWaitingRequests(2)
+
+        pool.close()
+
+        for (waiter in waiters) {
+            assertThatIllegalStateException().isThrownBy { waiter.getOrThrow() }.withMessageContaining("closed")
+        }
+        assertThat(pool.waitingRequests).isEqualTo(0)
+        assertThatIllegalStateException().isThrownBy { pool.acquire() }
+    }
+
+    private fun awaitWaitingRequests(count: Int) {
+        while (pool.waitingRequests < count) {
+            Thread.sleep(10)
+        }
+    }
+}
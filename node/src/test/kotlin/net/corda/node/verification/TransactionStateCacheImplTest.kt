@@ -0,0 +1,54 @@
+package net.corda.node.verification
+
+import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.whenever
+import com.codahale.metrics.MetricRegistry
+import net.corda.core.contracts.StateRef
+import net.corda.core.contracts.TransactionState
+import net.corda.core.crypto.SecureHash
+import net.corda.node.services.config.NodeConfiguration
+import net.corda.node.utilities.DefaultNamedCacheFactory
+import net.corda.testing.common.internal.eventually
+import net.corda.testing.contracts.DummyContract
+import net.corda.testing.core.DUMMY_NOTARY_NAME
+import net.corda.testing.core.TestIdentity
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+
+class TransactionStateCacheImplTest {
+    private val metrics = MetricRegistry()
+    private val configuration = mock<NodeConfiguration>().also {
+        doReturn(1).whenever(it).transactionStateCacheSizeMegaBytes
+    }
+    private val cache = TransactionStateCacheImpl(
+            DefaultNamedCacheFactory().bindWithMetrics(metrics).bindWithConfig(configuration),
+            metrics
+    )
+    private val notary = TestIdentity(DUMMY_NOTARY_NAME).party
+
+    @Test(timeout = 300_000)
+    fun `cached states are returned`() {
+        val stateRef = StateRef(SecureHash.randomSHA256(), 0)
+        val state = state()
+        assertThat(cache.getIfPresent(stateRef)).isNull()
+        cache.put(stateRef, state, 100)
+        assertThat(cache.getIfPresent(stateRef)).isSameAs(state)
+        assertThat(cache.getIfPresent(StateRef(stateRef.txhash, 1))).isNull()
+        assertThat(metrics.counter("Vault.StateCache.Hits").count).isEqualTo(1L)
+        assertThat(metrics.counter("Vault.StateCache.Misses").count).isEqualTo(2L)
+    }
+
+    @Test(timeout = 300_000)
+    fun `states are evicted once their serialized size exceeds the configured cache size`() {
+        // Each state weighs about 400KB, so only two of them fit in the cache's 1MB.
+        val stateRefs = (0 until 3).map { StateRef(SecureHash.randomSHA256(), 0) }
+        stateRefs.forEach { cache.put(it, state(), 400_000) }
+        // Caffeine evicts asynchronously after the writes.
+        eventually {
+            assertThat(stateRefs.count { cache.getIfPresent(it) != null }).isLessThanOrEqualTo(2)
+        }
+    }
+
+    private fun state() = TransactionState(DummyContract.SingleOwnerState(0, notary), DummyContract.PROGRAM_ID, notary)
+}
@@ -0,0 +1,59 @@
+package net.corda.node.verification
+
+import com.codahale.metrics.MetricRegistry
+import net.corda.core.crypto.Crypto
+import net.corda.core.crypto.SecureHash
+import net.corda.core.crypto.SignableData
+import net.corda.core.crypto.SignatureMetadata
+import net.corda.core.crypto.TransactionSignature
+import net.corda.core.crypto.sign
+import net.corda.testing.core.SerializationEnvironmentRule
+import net.corda.testing.internal.TestingNamedCacheFactory
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatThrownBy
+import org.junit.Rule
+import org.junit.Test
+import java.security.SignatureException
+
+class VerifiedSignatureCacheImplTest {
+    @Rule
+    @JvmField
+    val testSerialization = SerializationEnvironmentRule()
+
+    private val metrics = MetricRegistry()
+    private val cache = VerifiedSignatureCacheImpl(TestingNamedCacheFactory(), metrics)
+    private val keyPair = Crypto.generateKeyPair()
+    private val txId = SecureHash.randomSHA256()
+
+    @Test(timeout = 300_000)
+    fun `repeated verification of a valid signature is served from the cache`() {
+        val signature = sign(txId)
+        cache.verify(txId, listOf(signature))
+        cache.verify(txId, listOf(signature))
+        cache.verify(txId, listOf(sign(txId)))
+        assertThat(metrics.counter("Transactions.SignatureCache.Misses").count).isEqualTo(1L)
+        assertThat(metrics.counter("Transactions.SignatureCache.Hits").count).isEqualTo(2L)
+    }
+
+    @Test(timeout = 300_000)
+    fun `signature over a different transaction is not served from the cache`() {
+        val signature = sign(txId)
+        cache.verify(txId, listOf(signature))
+        assertThatThrownBy { cache.verify(SecureHash.randomSHA256(), listOf(signature)) }.isInstanceOf(SignatureException::class.java)
+    }
+
+    @Test(timeout = 300_000)
+    fun `invalid signatures are not cached`() {
+        val signature = sign(SecureHash.randomSHA256())
+        repeat(2) {
+            assertThatThrownBy { cache.verify(txId, listOf(signature)) }.isInstanceOf(SignatureException::class.java)
+        }
+        assertThat(metrics.counter("Transactions.SignatureCache.Misses").count).isEqualTo(2L)
+        assertThat(metrics.counter("Transactions.SignatureCache.Hits").count).isEqualTo(0L)
+    }
+
+    private fun sign(id: SecureHash): TransactionSignature {
+        val metadata = SignatureMetadata(4, Crypto.findSignatureScheme(keyPair.public).schemeNumberID)
+        return keyPair.sign(SignableData(id, metadata))
+    }
+}
@@ -0,0 +1,41 @@
+package net.corda.notary.common
+
+import net.corda.core.crypto.Crypto
+import net.corda.core.crypto.DigestService
+import net.corda.core.crypto.MerkleTree
+import net.corda.core.crypto.PartialMerkleTree
+import net.corda.core.crypto.SecureHash
+import net.corda.core.crypto.SignatureMetadata
+import net.corda.core.crypto.TransactionSignature
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.Test
+
+class BatchSigningTest {
+    private val notaryKey = Crypto.generateKeyPair().public
+
+    @Test(timeout = 300_000)
+    fun `batch Merkle tree matches the sequentially built tree`() {
+        listOf(1, 5, 511, 512, 1000, 1024).forEach { size ->
+            val leaves = List(size) { SecureHash.randomSHA256() }
+            assertThat(buildBatchMerkleTree(leaves, DigestService.sha2_256))
+                    .isEqualTo(MerkleTree.getMerkleTree(leaves, DigestService.sha2_256))
+        }
+    }
+
+    @Test(timeout = 300_000)
+    fun `partial tree for a participant matches the partial tree built from the full tree`() {
+        listOf(1, 2, 5, 600).forEach { size ->
+            val txIds = List(size) { SecureHash.randomSHA256() }
+            val fullTree = buildBatchMerkleTree(txIds.map { it.reHash() }, DigestService.sha2_256)
+            val batchSignature = BatchSignature(
+                    TransactionSignature(ByteArray(0), notaryKey, SignatureMetadata(4, Crypto.findSignatureScheme(notaryKey).schemeNumberID)),
+                    fullTree
+            )
+            txIds.forEach { txId ->
+                val partialTree = batchSignature.forParticipant(txId).partialMerkleTree!!
+                assertThat(partialTree.root).isEqualTo(PartialMerkleTree.build(fullTree, listOf(txId.reHash())).root)
+                assertThat(partialTree.verify(fullTree.hash, listOf(txId.reHash()))).isTrue()
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package net.corda.notary.jpa
+
+import org.assertj.core.api.Assertions.assertThat
+import org.assertj.core.api.Assertions.assertThatExceptionOfType
+import org.junit.After
+import org.junit.Test
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+class CallerRunsUnlessShutdownPolicyTest {
+    private val executor = ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, ArrayBlockingQueue(1), CallerRunsUnlessShutdownPolicy())
+
+    @After
+    fun cleanUp() {
+        executor.shutdownNow()
+    }
+
+    @Test(timeout=300_000)
+	fun `the caller runs a task while the executor is saturated`() {
+        val release = CountDownLatch(1)
+        // Occupy the one thread, and then fill the queue.
+        executor.execute { release.await() }
+        executor.execute { }
+
+        var ranOn: Thread? = null
+        executor.execute { ranOn = Thread.currentThread() }
+        release.countDown()
+
+        assertThat(ranOn).isSameAs(Thread.currentThread())
+    }
+
+    @Test(timeout=300_000)
+	fun `a task handed over after shutdown fails instead of being discarded`() {
+        executor.shutdown()
+
+        var ran = false
+        assertThatExceptionOfType(RejectedExecutionException::class.java).isThrownBy {
+            executor.execute { ran = true }
+        }
+        assertThat(ran).isFalse()
+    }
+}